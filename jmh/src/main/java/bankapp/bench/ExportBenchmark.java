@@ -0,0 +1,50 @@
+package bankapp.bench;
+
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/** CSV export of an account with 10,000 transactions. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExportBenchmark {
+    private Account account;
+    private Path file;
+
+    @Setup
+    public void setUp() throws Exception {
+        account = new Account(1L, "Bench", AccountType.CURRENT, "", "");
+        Fixtures.fillHistory(account, 10_000, new SplittableRandom(3L));
+        file = Files.createTempFile("bankapp-bench", ".csv");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void exportToCSV() throws Exception {
+        account.exportToCSV(file.toString());
+    }
+}
@@ -0,0 +1,53 @@
+package bankapp.bench;
+
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.Transaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/** Per-account reads that depend on the length of the history. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+    @Param({ "100", "10000", "100000" })
+    public int history;
+
+    private Account account;
+    private String[] ids;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        account = new Account(1L, "Bench", AccountType.CURRENT, "", "");
+        Fixtures.fillHistory(account, history, new SplittableRandom(history));
+        ids = Fixtures.txIds(account);
+    }
+
+    @Benchmark
+    public double withdrawnToday() {
+        return account.withdrawnToday();
+    }
+
+    @Benchmark
+    public Transaction findTransaction() {
+        return account.findTransaction(ids[i++ % ids.length]);
+    }
+}
@@ -0,0 +1,85 @@
+package bankapp.bench;
+
+import bankapp.net.BankClient;
+import bankapp.net.BankServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loopback round trips to a {@link BankServer}: one client per thread,
+ * logged in to its own account, either waiting for each reply or keeping
+ * a window of 64 deposits in flight.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetBenchmark {
+    private static final int ACCOUNTS = 256;
+
+    private final AtomicInteger threads = new AtomicInteger();
+    private BankServer server;
+
+    /** One benchmark thread: its client, its account and its window of pending deposits. */
+    @State(Scope.Thread)
+    public static class Caller {
+        BankClient client;
+        long account;
+        int i;
+        final CompletableFuture<?>[] window = new CompletableFuture<?>[64];
+
+        @Setup
+        public void setUp(NetBenchmark b) throws Exception {
+            account = Fixtures.FIRST_ACCOUNT + b.threads.getAndIncrement() % ACCOUNTS;
+            client = new BankClient("127.0.0.1", b.server.getPort());
+            client.login(account, Fixtures.PIN);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            for (CompletableFuture<?> f : window)
+                if (f != null)
+                    f.join();
+            client.close();
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new BankServer(Fixtures.funded(ACCOUNTS), 0).start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Benchmark
+    public void depositSync(Caller c) throws Exception {
+        c.client.deposit(c.account, 1.0, "bench");
+    }
+
+    @Benchmark
+    public CompletableFuture<?> depositPipelined64(Caller c) {
+        int slot = c.i++ & 63;
+        if (c.window[slot] != null)
+            c.window[slot].join();
+        return c.window[slot] = c.client.depositAsync(c.account, 1.0, "bench");
+    }
+}
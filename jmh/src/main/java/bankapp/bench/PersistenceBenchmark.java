@@ -0,0 +1,75 @@
+package bankapp.bench;
+
+import bankapp.persistence.BinaryPersistence;
+import bankapp.persistence.IndexedPersistence;
+import bankapp.persistence.Persistence;
+import bankapp.persistence.SerializationPersistence;
+import bankapp.service.BankServiceImpl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/** Saving and loading a bank of 2,000 accounts of 100 transactions in each snapshot format. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+    @Param({ "serialization", "binary", "indexed" })
+    public String format;
+
+    private BankServiceImpl bank;
+    private Persistence persistence;
+    private Path saved;
+    private Path scratch;
+
+    @Setup
+    public void setUp() throws Exception {
+        bank = Fixtures.bank(2_000, 100, 11L);
+        switch (format) {
+            case "serialization":
+                persistence = new SerializationPersistence();
+                break;
+            case "binary":
+                persistence = new BinaryPersistence();
+                break;
+            default:
+                persistence = new IndexedPersistence();
+        }
+        saved = Files.createTempFile("bankapp-bench", ".snap");
+        scratch = Files.createTempFile("bankapp-bench", ".snap");
+        persistence.save(bank, saved.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        IndexedPersistence.delete(saved.toString());
+        IndexedPersistence.delete(scratch.toString());
+    }
+
+    @Benchmark
+    public void save() throws Exception {
+        persistence.save(bank, scratch.toString());
+    }
+
+    @Benchmark
+    public Object load() throws Exception {
+        return persistence.load(saved.toString());
+    }
+}
@@ -0,0 +1,60 @@
+package bankapp.bench;
+
+import bankapp.model.Account;
+import bankapp.service.BankServiceImpl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owner search over banks of 10k and 1M accounts: one page of substring
+ * or prefix matches, and every substring match. The large bank needs a
+ * few GB of heap ({@code -jvmArgs -Xmx4g}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+    private static final String[] QUERIES = { "okafor 1", "peggy", "ali", "tanaka 99", "smith 12345" };
+
+    @Param({ "10000", "1000000" })
+    public int accounts;
+
+    private BankServiceImpl bank;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        bank = Fixtures.bank(accounts, 0, 7L);
+    }
+
+    @Benchmark
+    public List<Account> substring() {
+        return bank.searchByOwner(QUERIES[i++ % QUERIES.length], 0, 20);
+    }
+
+    @Benchmark
+    public List<Account> prefix() {
+        return bank.searchByOwnerPrefix(QUERIES[i++ % QUERIES.length], 0, 20);
+    }
+
+    @Benchmark
+    public List<Account> all() {
+        return bank.searchByOwner(QUERIES[i++ % QUERIES.length]);
+    }
+}
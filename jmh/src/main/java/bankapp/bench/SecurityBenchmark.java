@@ -0,0 +1,39 @@
+package bankapp.bench;
+
+import bankapp.security.AuthProvider_2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** PIN hashing with the production PBKDF2 settings, alone and on four threads. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SecurityBenchmark {
+    private final AuthProvider_2 auth = new AuthProvider_2();
+    private final byte[] salt = auth.generateSalt();
+
+    @Benchmark
+    public String hashPin() {
+        return auth.hashPin(Fixtures.PIN, salt);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String hashPinParallel() {
+        return auth.hashPin(Fixtures.PIN, salt);
+    }
+}
@@ -0,0 +1,115 @@
+package bankapp.bench;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.model.Money;
+import bankapp.service.BankServiceImpl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deposits, withdrawals and transfers through {@link BankServiceImpl}.
+ * Uncontended runs give each thread its own pair of accounts (scale them
+ * with {@code -t}); contended runs have every thread hit the same four.
+ * The withdrawals against a bank with the production daily limit are all
+ * refused by the limit check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceBenchmark {
+    // pairs of accounts, one pair per thread
+    private static final int ACCOUNTS = 256;
+
+    private final AtomicInteger threads = new AtomicInteger();
+    private BankServiceImpl bank;
+    private BankServiceImpl limited;
+
+    /** One benchmark thread: its index, its own pair of accounts and a call counter. */
+    @State(Scope.Thread)
+    public static class Caller {
+        int id;
+        long own;
+        int i;
+
+        @Setup
+        public void setUp(ServiceBenchmark b) {
+            id = b.threads.getAndIncrement();
+            own = Fixtures.FIRST_ACCOUNT + 2 * (id % (ACCOUNTS / 2));
+        }
+    }
+
+    @Setup
+    public void setUp() throws BankException {
+        bank = Fixtures.funded(ACCOUNTS);
+        // every account withdraws up to the production limit, so each further withdrawal is refused
+        limited = Fixtures.bank(ACCOUNTS, 10, 42L);
+        for (Account a : limited.listAccounts()) {
+            limited.deposit(a.getAccountNumber(), 2 * Fixtures.DAILY_LIMIT, "bench funding");
+            double left = Fixtures.DAILY_LIMIT - Money.toAmount(a.withdrawnTodayCents());
+            if (left > 0)
+                limited.withdraw(a.getAccountNumber(), left, "bench");
+        }
+    }
+
+    @Benchmark
+    public void depositUncontended(Caller c) throws BankException {
+        bank.deposit(c.own, 1.0, "bench");
+    }
+
+    @Benchmark
+    public void withdrawUncontended(Caller c) throws BankException {
+        bank.withdraw(c.own, 0.01, "bench");
+    }
+
+    @Benchmark
+    public void transferUncontended(Caller c) throws BankException {
+        boolean out = (c.i++ & 1) == 0;
+        bank.transfer(out ? c.own : c.own + 1, out ? c.own + 1 : c.own, 1.0, null);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void depositContended() throws BankException {
+        bank.deposit(Fixtures.FIRST_ACCOUNT, 1.0, "bench");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void withdrawContended() throws BankException {
+        bank.withdraw(Fixtures.FIRST_ACCOUNT, 0.01, "bench");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void transferContended(Caller c) throws BankException {
+        int k = c.id + c.i++;
+        bank.transfer(Fixtures.FIRST_ACCOUNT + (k & 3), Fixtures.FIRST_ACCOUNT + ((k + 1) & 3), 1.0, null);
+    }
+
+    @Benchmark
+    public BankException withdrawOverDailyLimit(Caller c) {
+        try {
+            limited.withdraw(c.own, 0.01, "bench");
+        } catch (BankException e) {
+            return e;
+        }
+        throw new IllegalStateException("Withdrawal over the daily limit went through");
+    }
+}
@@ -0,0 +1,89 @@
+package bankapp.bench;
+
+import bankapp.exceptions.BankException;
+import bankapp.service.ShardedBankService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The contended runs of {@link ServiceBenchmark} again through the
+ * single-writer engine, one shard per account, plus transfers with a
+ * window of 64 in flight per thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ShardedBenchmark {
+    private final AtomicInteger threads = new AtomicInteger();
+    private ShardedBankService sharded;
+
+    /** One benchmark thread: its index, a call counter and its window of pending transfers. */
+    @State(Scope.Thread)
+    public static class Caller {
+        int id;
+        int i;
+        final CompletableFuture<?>[] window = new CompletableFuture<?>[64];
+
+        @Setup
+        public void setUp(ShardedBenchmark b) {
+            id = b.threads.getAndIncrement();
+        }
+
+        @TearDown
+        public void tearDown() {
+            for (CompletableFuture<?> f : window)
+                if (f != null)
+                    f.join();
+        }
+    }
+
+    @Setup
+    public void setUp() throws BankException {
+        sharded = new ShardedBankService(Fixtures.funded(4), 4, 4096);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sharded.close();
+    }
+
+    @Benchmark
+    public void depositContended() throws BankException {
+        sharded.deposit(Fixtures.FIRST_ACCOUNT, 1.0, "bench");
+    }
+
+    @Benchmark
+    public void transferContended(Caller c) throws BankException {
+        int k = c.id + c.i++;
+        sharded.transfer(Fixtures.FIRST_ACCOUNT + (k & 3), Fixtures.FIRST_ACCOUNT + ((k + 1) & 3), 1.0, null);
+    }
+
+    @Benchmark
+    public CompletableFuture<?> transferAsync64(Caller c) {
+        int k = c.id + c.i++;
+        int slot = k & 63;
+        if (c.window[slot] != null)
+            c.window[slot].join();
+        return c.window[slot] = sharded.transferAsync(Fixtures.FIRST_ACCOUNT + (k & 3),
+                Fixtures.FIRST_ACCOUNT + ((k + 1) & 3), 1.0, null);
+    }
+}
@@ -1,10 +1,128 @@
 package bankapp;
 
+import bankapp.metrics.Metrics;
+import bankapp.metrics.MetricsBankService;
+import bankapp.metrics.MetricsPersistence;
+import bankapp.net.BankServer;
+import bankapp.net.RoutingBankService;
+import bankapp.persistence.Checkpointer;
+import bankapp.persistence.IndexedPersistence;
+import bankapp.persistence.IntentLog;
+import bankapp.persistence.JournalPersistence;
+import bankapp.security.AuthProvider_2;
+import bankapp.security.PinVerifier;
+import bankapp.service.BankServiceImpl;
+import bankapp.service.ReadReplica;
+import bankapp.service.TransferParticipant;
 import bankapp.ui.ConsoleUI;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 public class BankApp {
-    public static void main(String[] args) {
+    private static final String SAVE_FILE = "bankdata-secure.ser";
+    // A server checkpoints in the background after this long or this many changes, whichever comes first.
+    private static final long CHECKPOINT_SECONDS = 30L;
+    private static final long CHECKPOINT_COMMITS = 100_000L;
+    private static final int KEPT_CHECKPOINTS = 3;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--server")) {
+            server(SAVE_FILE, args.length > 1 ? Integer.parseInt(args[1]) : 7070, -1);
+            return;
+        }
+        if (args.length > 2 && args[0].equals("--node")) {
+            int node = Integer.parseInt(args[1]);
+            server("node" + node + ".ser", Integer.parseInt(args[2]), node);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--replica")) {
+            replica(args.length > 1 ? Integer.parseInt(args[1]) : 7071);
+            return;
+        }
         ConsoleUI ui = new ConsoleUI();
         ui.start();
     }
+
+    // Serves the saved bank on the loopback interface until the process is stopped.
+    // A node (index >= 0) owns one RoutingBankService account range and takes part in its transfers.
+    private static void server(String saveFile, int port, int node) throws Exception {
+        var auth = new AuthProvider_2();
+        var metrics = new Metrics();
+        var snapshots = new MetricsPersistence(new IndexedPersistence(), metrics);
+        var persistence = new JournalPersistence(snapshots, 2_000L, 256);
+        persistence.setRetainedCheckpoints(KEPT_CHECKPOINTS);
+        BankServiceImpl bank;
+        try {
+            bank = BankServiceImpl.loadFrom(saveFile, auth, persistence);
+        } catch (IOException | ClassNotFoundException e) {
+            System.out.println("Load failed, starting empty: " + e.getMessage());
+            bank = null;
+        }
+        if (bank == null) {
+            bank = new BankServiceImpl(auth);
+            bank.setAdminPassword("admin123");
+        }
+        bank.setPersistence(persistence);
+        bank.setPinVerifier(new PinVerifier(auth));
+        bank.setMetrics(metrics);
+        if (!new File(saveFile).exists())
+            bank.saveTo(saveFile);
+        bank.setJournal(persistence.openJournal(saveFile));
+        TransferParticipant participant = null;
+        if (node >= 0) {
+            bank.setAccountRange(RoutingBankService.firstAccount(node), RoutingBankService.firstAccount(node + 1));
+            participant = new TransferParticipant(bank, new IntentLog(Paths.get(saveFile + ".intents")));
+        }
+        try {
+            metrics.registerMBeans("bankapp");
+        } catch (JMException e) {
+            System.out.println("Metrics not published over JMX: " + e.getMessage());
+        }
+
+        BankServer server = new BankServer(new MetricsBankService(bank, metrics), port)
+                .setParticipant(participant).start();
+        BankServiceImpl saved = bank;
+        Checkpointer checkpointer = new Checkpointer(bank, persistence, saveFile, CHECKPOINT_SECONDS,
+                TimeUnit.SECONDS, CHECKPOINT_COMMITS).start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                checkpointer.close();
+                System.out.println("\n[Auto-save] State saved to " + saveFile);
+            } catch (IOException ignored) {
+            }
+        }));
+        System.out.println("Serving " + saved.totalAccounts() + " accounts on 127.0.0.1:" + server.getPort()
+                + (BankServer.virtualThreads() ? " (virtual threads)" : ""));
+        Thread.currentThread().join();
+    }
+
+    // Serves a read-only copy of the bank saved in this directory, following its journal.
+    private static void replica(int port) throws Exception {
+        var auth = new AuthProvider_2();
+        ReadReplica replica = new ReadReplica(SAVE_FILE, new IndexedPersistence(), auth).start(50L);
+        replica.getTarget().setPinVerifier(new PinVerifier(auth));
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(replica, new ObjectName("bankapp:type=Replica"));
+        } catch (JMException e) {
+            System.out.println("Replication lag not published over JMX: " + e.getMessage());
+        }
+        BankServer server = new BankServer(replica, port).start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException ignored) {
+            }
+            replica.close();
+        }));
+        System.out.println("Replicating " + SAVE_FILE + " (" + replica.totalAccounts()
+                + " accounts), read-only on 127.0.0.1:" + server.getPort());
+        Thread.currentThread().join();
+    }
 }
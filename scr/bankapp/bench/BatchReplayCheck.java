@@ -0,0 +1,114 @@
+package bankapp.bench;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.persistence.IndexedPersistence;
+import bankapp.persistence.Journal;
+import bankapp.persistence.JournalPersistence;
+import bankapp.service.BankServiceImpl;
+import bankapp.service.Operation;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs all-or-nothing batches against deposits, withdrawals, transfers and
+ * freezes on the same few journaled accounts, then replays the journal over
+ * the saved bank and checks that every account comes back with the live
+ * bank's balance, status and history in the same order.
+ *
+ * <pre>
+ * java -cp out bankapp.bench.BatchReplayCheck [threads] [seconds]
+ * </pre>
+ */
+public final class BatchReplayCheck {
+    private static final int ACCOUNTS = 8;
+
+    // first unexpected error in a worker thread
+    private static volatile Throwable failure;
+
+    private BatchReplayCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 3L;
+        Path dir = Files.createTempDirectory("bank-batch-replay");
+        String file = dir.resolve("bank.ser").toString();
+
+        BankServiceImpl bank = Fixtures.funded(ACCOUNTS);
+        JournalPersistence persistence = new JournalPersistence(new IndexedPersistence(), 200L, 64);
+        bank.setPersistence(persistence);
+        bank.saveTo(file);
+        Journal journal = persistence.openJournal(file);
+        bank.setJournal(journal);
+
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            SplittableRandom rnd = new SplittableRandom(t);
+            Thread w = new Thread(() -> {
+                try {
+                    load(bank, rnd, end);
+                } catch (Throwable e) {
+                    failure = e;
+                }
+            });
+            w.start();
+            workers.add(w);
+        }
+        for (Thread w : workers)
+            w.join();
+        if (failure != null)
+            throw new IllegalStateException("Worker failed", failure);
+        bank.setJournal(null);
+        journal.close();
+
+        BankServiceImpl replayed = BankServiceImpl.loadFrom(file, Fixtures.fastAuth(), new JournalPersistence());
+        long rows = 0L;
+        for (Account a : bank.listAccounts()) {
+            Account r = replayed.getAccount(a.getAccountNumber());
+            if (r == null)
+                throw new IllegalStateException("Missing account " + a.getAccountNumber());
+            if (r.getBalanceCents() != a.getBalanceCents() || r.isActive() != a.isActive())
+                throw new IllegalStateException("Account " + a.getAccountNumber() + " replays to "
+                        + r.getBalanceCents() + " cents, live " + a.getBalanceCents());
+            if (!Arrays.equals(Fixtures.txIds(r), Fixtures.txIds(a)))
+                throw new IllegalStateException("History of " + a.getAccountNumber() + " replays out of order");
+            rows += a.getTransactionCount();
+        }
+        if (replayed.totalBalances() != bank.totalBalances() || !replayed.verifyAggregates())
+            throw new IllegalStateException("Replayed totals differ");
+        System.out.printf("%d accounts, %,d transactions replayed identically%n", ACCOUNTS, rows);
+        System.out.println("OK");
+    }
+
+    private static void load(BankServiceImpl bank, SplittableRandom rnd, long end) {
+        while (System.nanoTime() < end) {
+            long a = Fixtures.FIRST_ACCOUNT + rnd.nextInt(ACCOUNTS);
+            long b = Fixtures.FIRST_ACCOUNT + rnd.nextInt(ACCOUNTS);
+            long c = Fixtures.FIRST_ACCOUNT + rnd.nextInt(ACCOUNTS);
+            try {
+                int op = rnd.nextInt(100);
+                if (op < 40)
+                    bank.applyBatch(List.of(Operation.transfer(a, b, 1 + rnd.nextInt(50), "replay batch"),
+                            Operation.withdraw(c, 1 + rnd.nextInt(20), null), Operation.deposit(b, 5.0, null)));
+                else if (op < 60)
+                    bank.deposit(a, 1 + rnd.nextInt(100), null);
+                else if (op < 75)
+                    bank.withdraw(a, 1 + rnd.nextInt(50), null);
+                else if (op < 98)
+                    bank.transfer(a, b, 1 + rnd.nextInt(50), null);
+                else
+                    bank.setAccountActive(a, rnd.nextInt(3) != 0);
+            } catch (BankException e) {
+                // frozen account or transfer to itself: part of the mix
+            }
+        }
+    }
+}
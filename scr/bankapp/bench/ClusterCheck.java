@@ -0,0 +1,187 @@
+package bankapp.bench;
+
+import bankapp.BankApp;
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.Money;
+import bankapp.net.RoutingBankService;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a partitioned deployment of local {@code BankApp --node} processes
+ * and checks that cross-node transfers conserve money: under concurrent
+ * load, across a node being killed and restarted mid-load, and across the
+ * router itself being restarted on its intent log.
+ *
+ * <pre>
+ * java -cp out bankapp.bench.ClusterCheck [nodes] [threads] [seconds]
+ * </pre>
+ */
+public final class ClusterCheck {
+    private static final int ACCOUNTS_PER_NODE = 8;
+    private static final double OPENING = 10_000.0;
+    // what a node starting without a save file sets
+    private static final String ADMIN_USER = "admin";
+    private static final String ADMIN_PASS = "admin123";
+
+    private final Path dir;
+    private final int[] ports;
+    private final Process[] nodes;
+    private long expectedCents;
+
+    private ClusterCheck(int n) throws IOException {
+        this.dir = Files.createTempDirectory("bank-cluster");
+        this.ports = new int[n];
+        this.nodes = new Process[n];
+    }
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 3L;
+        ClusterCheck c = new ClusterCheck(n);
+        try {
+            c.run(threads, seconds * 1_000L);
+        } finally {
+            for (Process p : c.nodes)
+                if (p != null)
+                    p.destroyForcibly();
+        }
+    }
+
+    private void run(int threads, long millis) throws Exception {
+        for (int i = 0; i < nodes.length; i++)
+            startNode(i);
+        Path intents = dir.resolve("router.intents");
+        RoutingBankService router = new RoutingBankService(addresses(), intents, ADMIN_USER, ADMIN_PASS);
+        List<Long> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS_PER_NODE * nodes.length; i++) {
+            accounts.add(router.createAccount("Owner " + i, AccountType.CURRENT, Fixtures.PIN, OPENING)
+                    .getAccountNumber());
+            expectedCents += Money.toCents(OPENING);
+        }
+        System.out.printf("%d nodes, %d accounts in %s%n", nodes.length, accounts.size(), dir);
+
+        report("steady load", load(router, accounts, threads, millis, -1));
+        check(router);
+
+        report("node 1 killed mid-load", load(router, accounts, threads, millis, 1));
+        startNode(1);
+        // no explicit recover(): the router's background pass must deliver the decisions node 1 missed
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (router.unfinished() > 0 && System.nanoTime() < deadline)
+            Thread.sleep(50L);
+        System.out.println("  decisions left to recovery: " + router.getUndeliveredDecisions()
+                + ", unfinished after recovery: " + router.unfinished());
+        check(router);
+
+        // a coordinator crash: transfers left BEGUN or decided are finished by the next router
+        router.close();
+        router = new RoutingBankService(addresses(), intents, ADMIN_USER, ADMIN_PASS);
+        report("after router restart", load(router, accounts, threads, millis, -1));
+        check(router);
+        router.close();
+        System.out.println("OK");
+    }
+
+    private List<InetSocketAddress> addresses() {
+        List<InetSocketAddress> out = new ArrayList<>();
+        for (int port : ports)
+            out.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        return out;
+    }
+
+    private void startNode(int i) throws IOException, InterruptedException {
+        if (ports[i] == 0) {
+            try (ServerSocket s = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                ports[i] = s.getLocalPort();
+            }
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), BankApp.class.getName(),
+                "--node", String.valueOf(i), String.valueOf(ports[i]))
+                .directory(dir.toFile()).redirectErrorStream(true).start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        String line;
+        while ((line = out.readLine()) != null && !line.startsWith("Serving"))
+            System.out.println("  node " + i + ": " + line);
+        if (line == null)
+            throw new IOException("Node " + i + " exited with " + p.waitFor());
+        // keep draining so the node never blocks on a full pipe
+        Thread drain = new Thread(() -> {
+            try {
+                while (out.readLine() != null) {
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        drain.setDaemon(true);
+        drain.start();
+        nodes[i] = p;
+    }
+
+    // {completed, refused} transfers; kills node {@code victim} halfway through when >= 0.
+    private long[] load(RoutingBankService router, List<Long> accounts, int threads, long millis, int victim)
+            throws InterruptedException {
+        AtomicLong done = new AtomicLong();
+        AtomicLong refused = new AtomicLong();
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            SplittableRandom rnd = new SplittableRandom(31L * t + victim);
+            Thread w = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    long from = accounts.get(rnd.nextInt(accounts.size()));
+                    long to = accounts.get(rnd.nextInt(accounts.size()));
+                    if (from == to)
+                        continue;
+                    try {
+                        router.transfer(from, to, 1 + rnd.nextInt(200), "check");
+                        done.incrementAndGet();
+                    } catch (BankException e) {
+                        refused.incrementAndGet();
+                    }
+                }
+            });
+            w.start();
+            workers.add(w);
+        }
+        if (victim >= 0) {
+            Thread.sleep(millis / 2);
+            nodes[victim].destroyForcibly().waitFor();
+        }
+        for (Thread w : workers)
+            w.join();
+        return new long[] { done.get(), refused.get() };
+    }
+
+    private static void report(String phase, long[] r) {
+        System.out.printf("%-24s %8d transfers, %6d refused%n", phase, r[0], r[1]);
+    }
+
+    private void check(RoutingBankService router) {
+        long sum = 0L;
+        for (Account a : router.listAccounts())
+            sum += a.getBalanceCents();
+        long total = Money.toCents(router.totalBalances());
+        System.out.printf("  expected %s, node totals %s, account sum %s%n", Money.toAmount(expectedCents),
+                Money.toAmount(total), Money.toAmount(sum));
+        if (sum != expectedCents || total != expectedCents)
+            throw new IllegalStateException("Money not conserved");
+    }
+}
@@ -0,0 +1,169 @@
+package bankapp.bench;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.Money;
+import bankapp.persistence.SerializationPersistence;
+import bankapp.service.BankServiceImpl;
+import bankapp.service.BankSnapshot;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that concurrent operations on one {@link BankServiceImpl} neither
+ * create nor lose money. The bank is first round-tripped through Java
+ * serialization, the format of existing save files. Two phases follow:
+ * transfers only, while snapshots taken meanwhile must always add up to
+ * the starting total; then a mix of deposits, withdrawals, transfers,
+ * account creation, lookups and searches, after which the balances must
+ * add up to the starting total plus the money that came in less the
+ * money that went out.
+ *
+ * <pre>
+ * java -cp out bankapp.bench.ConservationCheck [threads] [seconds]
+ * </pre>
+ */
+public final class ConservationCheck {
+    private static final int ACCOUNTS = 200;
+    private static final double OPENING = 500.0;
+
+    // first unexpected error in a worker thread
+    private static volatile Throwable failure;
+
+    private ConservationCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 3L;
+        Path file = Files.createTempFile("bank-conservation", ".ser");
+        var persistence = new SerializationPersistence();
+        persistence.save(Fixtures.bank(ACCOUNTS, 10, 3L), file.toString());
+        BankServiceImpl bank = BankServiceImpl.loadFrom(file.toString(), Fixtures.fastAuth(), persistence);
+        Files.delete(file);
+        long start = sumOfAccounts(bank);
+
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        AtomicLong ops = new AtomicLong();
+        List<Thread> workers = start(threads, rnd -> transfers(bank, rnd, end, ops));
+        int snapshots = 0;
+        while (System.nanoTime() < end) {
+            try (BankSnapshot s = bank.openSnapshot()) {
+                if (s.totalBalanceCents() != start)
+                    throw new IllegalStateException("Snapshot " + s.getSequence() + " holds "
+                            + s.totalBalanceCents() + " cents, expected " + start);
+            }
+            snapshots++;
+        }
+        join(workers);
+        check(bank, start, "transfers");
+        System.out.printf("transfers: %,d operations, %,d snapshots consistent%n", ops.get(), snapshots);
+
+        AtomicLong netIn = new AtomicLong();
+        ops.set(0L);
+        long end2 = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        join(start(threads, rnd -> mixed(bank, rnd, end2, ops, netIn)));
+        check(bank, start + netIn.get(), "mixed load");
+        System.out.printf("mixed load: %,d operations, %d accounts, net in %.2f%n", ops.get(), bank.totalAccounts(),
+                Money.toAmount(netIn.get()));
+        System.out.println("OK");
+    }
+
+    private interface Worker {
+        void run(SplittableRandom rnd) throws Exception;
+    }
+
+    private static List<Thread> start(int threads, Worker w) {
+        List<Thread> list = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            SplittableRandom rnd = new SplittableRandom(t);
+            Thread th = new Thread(() -> {
+                try {
+                    w.run(rnd);
+                } catch (Throwable e) {
+                    failure = e;
+                }
+            });
+            th.start();
+            list.add(th);
+        }
+        return list;
+    }
+
+    private static void join(List<Thread> workers) throws InterruptedException {
+        for (Thread t : workers)
+            t.join();
+        if (failure != null)
+            throw new IllegalStateException("Worker failed", failure);
+    }
+
+    private static void transfers(BankServiceImpl bank, SplittableRandom rnd, long end, AtomicLong ops) {
+        while (System.nanoTime() < end) {
+            long a = Fixtures.FIRST_ACCOUNT + rnd.nextInt(ACCOUNTS);
+            long b = Fixtures.FIRST_ACCOUNT + rnd.nextInt(ACCOUNTS);
+            try {
+                bank.transfer(a, b, 1 + rnd.nextInt(50), "conservation");
+            } catch (BankException e) {
+                // same account or short of funds
+            }
+            ops.incrementAndGet();
+        }
+    }
+
+    private static void mixed(BankServiceImpl bank, SplittableRandom rnd, long end, AtomicLong ops,
+            AtomicLong netIn) {
+        while (System.nanoTime() < end) {
+            int n = bank.totalAccounts();
+            long a = Fixtures.FIRST_ACCOUNT + rnd.nextInt(n);
+            long b = Fixtures.FIRST_ACCOUNT + rnd.nextInt(n);
+            int op = rnd.nextInt(100);
+            try {
+                if (op < 25) {
+                    int amount = 1 + rnd.nextInt(100);
+                    bank.deposit(a, amount, null);
+                    netIn.addAndGet(Money.toCents(amount));
+                } else if (op < 45) {
+                    int amount = 1 + rnd.nextInt(50);
+                    bank.withdraw(a, amount, null);
+                    netIn.addAndGet(-Money.toCents(amount));
+                } else if (op < 85) {
+                    bank.transfer(a, b, 1 + rnd.nextInt(50), null);
+                } else if (op < 90) {
+                    bank.createAccount("Conservation Owner", AccountType.CURRENT, Fixtures.PIN, OPENING);
+                    netIn.addAndGet(Money.toCents(OPENING));
+                } else if (op < 95) {
+                    bank.getAccount(a);
+                    bank.listAccounts();
+                } else {
+                    bank.searchByOwner("conservation", 0, 10);
+                }
+            } catch (BankException e) {
+                // same account, short of funds or below the minimum balance
+            }
+            ops.incrementAndGet();
+        }
+    }
+
+    private static void check(BankServiceImpl bank, long expected, String phase) {
+        long sum = sumOfAccounts(bank);
+        if (sum != expected || Money.toCents(bank.totalBalances()) != expected)
+            throw new IllegalStateException(phase + ": expected " + expected + " cents, accounts hold " + sum
+                    + ", bank total " + Money.toCents(bank.totalBalances()));
+        if (!bank.verifyAggregates())
+            throw new IllegalStateException(phase + ": aggregates inconsistent");
+    }
+
+    private static long sumOfAccounts(BankServiceImpl bank) {
+        long sum = 0L;
+        for (Account a : bank.listAccounts())
+            sum += a.getBalanceCents();
+        return sum;
+    }
+}
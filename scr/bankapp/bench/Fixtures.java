@@ -0,0 +1,115 @@
+package bankapp.bench;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.TransactionLog;
+import bankapp.model.TransactionType;
+import bankapp.security.AuthProvider;
+import bankapp.security.AuthProvider_2;
+import bankapp.service.BankServiceImpl;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic banks for benchmarks: the same size and seed always give
+ * the same accounts, owners, transaction ids, amounts and timestamps. All
+ * accounts share one PIN hash ("1234") so building a large bank does not
+ * pay for PBKDF2 per account.
+ */
+public final class Fixtures {
+    public static final String PIN = "1234";
+    static final long FIRST_ACCOUNT = 1_000_000_000L;
+    /** The production daily withdrawal limit, which {@link #bank(int, int, long)} keeps. */
+    static final double DAILY_LIMIT = 50_000.0;
+
+    private static final String[] FIRST = { "Alice", "Bob", "Carol", "Dave", "Erin", "Frank", "Grace", "Heidi",
+            "Ivan", "Judy", "Mallory", "Niaj", "Olivia", "Peggy", "Rupert", "Sybil", "Trent", "Victor", "Walter" };
+    private static final String[] LAST = { "Smith", "Jones", "Brown", "Okafor", "Nguyen", "Garcia", "Kowalski",
+            "Rossi", "Tanaka", "Haddad", "Silva", "Novak", "Murphy", "Schmidt", "Dubois", "Ivanova" };
+
+    private Fixtures() {
+    }
+
+    /** A cheap provider for fixtures only: one PBKDF2 iteration. */
+    public static AuthProvider fastAuth() {
+        return new AuthProvider_2(1, 256);
+    }
+
+    /**
+     * A bank of {@code accounts} accounts with {@code txPerAccount} transactions
+     * each; the newest tenth of each history falls on today. Limits are the
+     * production ones.
+     */
+    public static BankServiceImpl bank(int accounts, int txPerAccount, long seed) {
+        return bank(accounts, txPerAccount, seed, DAILY_LIMIT);
+    }
+
+    /** As {@link #bank(int, int, long)}, with the given daily withdrawal limit. */
+    public static BankServiceImpl bank(int accounts, int txPerAccount, long seed, double dailyLimit) {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        AuthProvider auth = fastAuth();
+        byte[] salt = new byte[16];
+        String saltB64 = Base64.getEncoder().encodeToString(salt);
+        String hash = auth.hashPin(PIN, salt);
+        List<Account> list = new ArrayList<>(accounts);
+        LocalDateTime created = LocalDate.now().minusYears(1).atStartOfDay();
+        for (int i = 0; i < accounts; i++) {
+            AccountType type = rnd.nextInt(3) == 0 ? AccountType.SAVINGS : AccountType.CURRENT;
+            Account a = new Account(FIRST_ACCOUNT + i, ownerName(rnd, i), type, hash, saltB64, created);
+            fillHistory(a, txPerAccount, rnd);
+            list.add(a);
+        }
+        BankServiceImpl bank = BankServiceImpl.restore(100.0, 100.0, 0.0, dailyLimit, "admin", hash, saltB64,
+                FIRST_ACCOUNT + accounts, list);
+        bank.initTransients(auth, null);
+        return bank;
+    }
+
+    /**
+     * A bank whose accounts hold enough money, under a high enough daily
+     * limit, that long benchmark runs never fail on balance or the limit.
+     */
+    static BankServiceImpl funded(int accounts) throws BankException {
+        BankServiceImpl bank = bank(accounts, 10, 42L, 1e12);
+        for (Account a : bank.listAccounts())
+            bank.deposit(a.getAccountNumber(), 1e9, "bench funding");
+        return bank;
+    }
+
+    static String ownerName(SplittableRandom rnd, int i) {
+        return FIRST[rnd.nextInt(FIRST.length)] + " " + LAST[rnd.nextInt(LAST.length)] + " " + i;
+    }
+
+    /** Appends {@code n} transactions spread over the past year, ending today. */
+    static void fillHistory(Account a, int n, SplittableRandom rnd) {
+        long today = TransactionLog.toMicros(LocalDate.now().atStartOfDay());
+        long yearAgo = today - 365L * 86_400_000_000L;
+        long todayFrom = n - Math.max(1, n / 10);
+        long balance = 0L;
+        for (int k = 0; k < n; k++) {
+            long micros = k < todayFrom ? yearAgo + (today - yearAgo) * k / Math.max(1, todayFrom)
+                    : today + (k - todayFrom) * 1_000_000L;
+            boolean withdraw = k > 0 && balance > 10_000L && rnd.nextInt(3) == 0;
+            long amount = withdraw ? 1 + rnd.nextLong(balance / 2) : 1_000L + rnd.nextLong(500_000L);
+            balance += withdraw ? -amount : amount;
+            a.addTransactionInternal(rnd.nextLong(), rnd.nextLong(), micros,
+                    withdraw ? TransactionType.WITHDRAWAL : TransactionType.DEPOSIT, amount, balance,
+                    withdraw ? "ATM withdrawal" : "Salary " + k);
+        }
+    }
+
+    /** Tx ids of one account's history, for lookup benchmarks. */
+    static String[] txIds(Account a) {
+        String[] ids = new String[a.getTransactionCount()];
+        TransactionLog.Cursor c = a.transactionCursor();
+        while (c.next())
+            ids[c.row()] = c.txId();
+        return ids;
+    }
+}
@@ -0,0 +1,105 @@
+package bankapp.bench;
+
+import bankapp.persistence.GroupCommitJournal;
+import bankapp.persistence.JournalRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Makes the file under a {@link GroupCommitJournal} fail part way through
+ * concurrent appends, with an I/O error, a runtime exception and an error,
+ * and checks that every caller waiting for durability is woken with an
+ * {@link IOException} instead of waiting forever, and that later appends
+ * are refused.
+ *
+ * <pre>
+ * java -cp out bankapp.bench.JournalFailureCheck [threads]
+ * </pre>
+ */
+public final class JournalFailureCheck {
+    // batches written before the injected failure
+    private static final int GOOD_BATCHES = 3;
+    private static final long TIMEOUT_MILLIS = 5_000L;
+
+    private JournalFailureCheck() {
+    }
+
+    private interface Failure {
+        void fail() throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        check("I/O error", threads, () -> {
+            throw new IOException("injected");
+        });
+        check("runtime exception", threads, () -> {
+            throw new IllegalStateException("injected");
+        });
+        check("error", threads, () -> {
+            throw new OutOfMemoryError("injected");
+        });
+        System.out.println("OK");
+    }
+
+    private static void check(String what, int threads, Failure failure) throws Exception {
+        Path file = Files.createTempFile("bank-journal-failure", ".journal");
+        AtomicInteger writes = new AtomicInteger();
+        GroupCommitJournal journal = new GroupCommitJournal(file, 100L, TimeUnit.MICROSECONDS, 8) {
+            @Override
+            protected void write(ByteBuffer[] frames) throws IOException {
+                if (writes.incrementAndGet() > GOOD_BATCHES)
+                    failure.fail();
+                super.write(frames);
+            }
+        };
+        AtomicInteger durable = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicReference<Throwable> unexpected = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long account = Fixtures.FIRST_ACCOUNT + t;
+            Thread w = new Thread(() -> {
+                try {
+                    while (true) {
+                        journal.awaitDurable(journal.append(JournalRecord.accountStatus(account, true)));
+                        durable.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                } catch (Throwable e) {
+                    unexpected.set(e);
+                }
+            });
+            w.setDaemon(true);
+            w.start();
+            workers.add(w);
+        }
+        for (Thread w : workers) {
+            w.join(TIMEOUT_MILLIS);
+            if (w.isAlive())
+                throw new IllegalStateException(what + ": a caller still waits for the journal");
+        }
+        if (unexpected.get() != null)
+            throw new IllegalStateException(what + ": caller failed unexpectedly", unexpected.get());
+        if (failed.get() != threads)
+            throw new IllegalStateException(what + ": " + failed.get() + " of " + threads + " callers failed");
+        try {
+            journal.append(JournalRecord.accountStatus(Fixtures.FIRST_ACCOUNT, false));
+            throw new IllegalStateException(what + ": append accepted after the journal failed");
+        } catch (IOException expected) {
+            // the flusher is gone
+        }
+        journal.close();
+        Files.delete(file);
+        System.out.printf("%s: %d records durable, then all %d callers failed%n", what, durable.get(), threads);
+    }
+}
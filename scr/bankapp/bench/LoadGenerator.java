@@ -0,0 +1,286 @@
+package bankapp.bench;
+
+import bankapp.exceptions.BankException;
+import bankapp.metrics.LatencyHistogram;
+import bankapp.metrics.Metrics;
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.Money;
+import bankapp.model.Transaction;
+import bankapp.model.TransactionType;
+import bankapp.persistence.JournalPersistence;
+import bankapp.service.BankService;
+import bankapp.service.BankServiceImpl;
+import bankapp.service.ShardedBankService;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless workload driver: runs a weighted mix of operations against a
+ * fixture bank on N platform or virtual threads, choosing accounts with a
+ * Zipfian skew so a few accounts run hot. Closed-loop by default; with
+ * {@code --rate} it issues operations on a fixed schedule and measures each
+ * from its scheduled start, so queueing shows in the latencies. At the end
+ * it prints throughput, latency percentiles and a conservation-of-money check.
+ * {@code --shards} runs the operations through a {@link ShardedBankService}
+ * instead of the lock-based service.
+ *
+ * <pre>
+ * java -cp out bankapp.bench.LoadGenerator --threads=64 --virtual --seconds=30 --accounts=100000 \
+ *      --mix=deposit:40,withdraw:20,transfer:30,reverse:2,search:5,create:3 --zipf=1.1 --rate=50000
+ * </pre>
+ */
+public final class LoadGenerator {
+    enum Op {
+        CREATE, DEPOSIT, WITHDRAW, TRANSFER, REVERSE, SEARCH
+    }
+
+    private static final String[] QUERIES = { "smith", "okafor", "ali", "peggy", "tanaka 1", "rossi 99" };
+
+    private final int threads;
+    private final boolean virtual;
+    private final long seconds;
+    private final int accounts;
+    private final int history;
+    private final double zipf;
+    private final double rate;
+    private final long seed;
+    private final String journal;
+    private final int shards;
+    private final Op[] schedule;
+
+    private final Metrics metrics = new Metrics();
+    private final Map<Op, LatencyHistogram> latency = new HashMap<>();
+    // Net money the workload put in (deposits, openings, withdrawal reversals) minus what it took out.
+    private final LongAdder netInCents = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private BankServiceImpl bank;
+    // where operations go: the bank itself or the sharded engine in front of it
+    private BankService service;
+    private long[] numbers;
+    private double[] cdf;
+
+    private LoadGenerator(Map<String, String> opts) {
+        this.threads = Integer.parseInt(opts.getOrDefault("threads", "16"));
+        this.virtual = opts.containsKey("virtual");
+        this.seconds = Long.parseLong(opts.getOrDefault("seconds", "10"));
+        this.accounts = Integer.parseInt(opts.getOrDefault("accounts", "10000"));
+        this.history = Integer.parseInt(opts.getOrDefault("history", "10"));
+        this.zipf = Double.parseDouble(opts.getOrDefault("zipf", "1.0"));
+        this.rate = Double.parseDouble(opts.getOrDefault("rate", "0"));
+        this.seed = Long.parseLong(opts.getOrDefault("seed", "42"));
+        this.journal = opts.get("journal");
+        this.shards = Integer.parseInt(opts.getOrDefault("shards", "0"));
+        this.schedule = schedule(opts.getOrDefault("mix", "deposit:40,withdraw:20,transfer:30,reverse:2,search:5,create:3"));
+        if (threads <= 0 || seconds <= 0 || accounts < 2)
+            throw new IllegalArgumentException("threads and seconds must be positive, accounts at least 2");
+        for (Op op : Op.values())
+            latency.put(op, metrics.histogram(op.name().toLowerCase()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (String a : args) {
+            if (!a.startsWith("--"))
+                throw new IllegalArgumentException("Unknown argument " + a);
+            int eq = a.indexOf('=');
+            opts.put(eq < 0 ? a.substring(2) : a.substring(2, eq), eq < 0 ? "" : a.substring(eq + 1));
+        }
+        new LoadGenerator(opts).run();
+    }
+
+    // Weighted op table: 100 slots filled in proportion to the mix.
+    private static Op[] schedule(String mix) {
+        Map<Op, Integer> weights = new HashMap<>();
+        int total = 0;
+        for (String part : mix.split(",")) {
+            String[] kv = part.split(":");
+            int w = Integer.parseInt(kv[1].trim());
+            weights.put(Op.valueOf(kv[0].trim().toUpperCase()), w);
+            total += w;
+        }
+        if (total <= 0)
+            throw new IllegalArgumentException("Empty mix");
+        List<Op> slots = new ArrayList<>();
+        for (Op op : Op.values())
+            for (int i = 0; i < Math.round(100.0 * weights.getOrDefault(op, 0) / total); i++)
+                slots.add(op);
+        return slots.toArray(new Op[0]);
+    }
+
+    private void run() throws Exception {
+        System.out.printf("Building bank: %d accounts x %d transactions%n", accounts, history);
+        bank = Fixtures.bank(accounts, history, seed);
+        if (journal != null) {
+            var p = new JournalPersistence();
+            bank.setPersistence(p);
+            bank.saveTo(journal);
+            bank.setJournal(p.openJournal(journal));
+        }
+        bank.setMetrics(metrics);
+        service = shards > 0 ? new ShardedBankService(bank, shards, 4096) : bank;
+        List<Account> list = bank.listAccounts();
+        list.sort(Comparator.comparingLong(Account::getAccountNumber));
+        numbers = new long[list.size()];
+        for (int i = 0; i < numbers.length; i++)
+            numbers[i] = list.get(i).getAccountNumber();
+        cdf = zipfCdf(numbers.length, zipf);
+        long before = Money.toCents(bank.totalBalances());
+
+        ExecutorService pool = executor();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        AtomicLong ticket = new AtomicLong();
+        for (int t = 0; t < threads; t++) {
+            SplittableRandom rnd = new SplittableRandom(seed * 31 + t);
+            pool.execute(() -> {
+                while (true) {
+                    long begin;
+                    if (rate > 0) {
+                        // open loop: operation k is due at start + k / rate, whoever picks it up
+                        begin = start + (long) (ticket.getAndIncrement() * 1e9 / rate);
+                        if (begin >= deadline)
+                            return;
+                        long wait = begin - System.nanoTime();
+                        if (wait > 0)
+                            LockSupport.parkNanos(wait);
+                    } else {
+                        begin = System.nanoTime();
+                        if (begin >= deadline)
+                            return;
+                    }
+                    Op op = schedule[rnd.nextInt(schedule.length)];
+                    try {
+                        execute(op, rnd);
+                    } catch (BankException e) {
+                        metrics.reject(op.name().toLowerCase(), e);
+                    }
+                    latency.get(op).recordSince(begin);
+                    completed.increment();
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+        if (service instanceof ShardedBankService)
+            ((ShardedBankService) service).close();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        report(before, elapsed);
+        if (journal != null)
+            bank.saveTo(journal);
+    }
+
+    private ExecutorService executor() {
+        if (virtual) {
+            try {
+                // Java 21+; this tree targets 17, so look the factory up at run time
+                Object pool = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                System.out.println("Running on virtual threads");
+                return (ExecutorService) pool;
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Virtual threads unavailable on this JVM; using platform threads");
+            }
+        }
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    private void execute(Op op, SplittableRandom rnd) throws BankException {
+        switch (op) {
+            case CREATE: {
+                long cents = 10_000 + rnd.nextLong(100_000);
+                service.createAccount("Load " + rnd.nextInt(1_000_000), AccountType.CURRENT, Fixtures.PIN,
+                        Money.toAmount(cents));
+                netInCents.add(cents);
+                break;
+            }
+            case DEPOSIT: {
+                long cents = 1 + rnd.nextLong(50_000);
+                service.deposit(pick(rnd), Money.toAmount(cents), "load");
+                netInCents.add(cents);
+                break;
+            }
+            case WITHDRAW: {
+                long cents = 1 + rnd.nextLong(50_000);
+                service.withdraw(pick(rnd), Money.toAmount(cents), "load");
+                netInCents.add(-cents);
+                break;
+            }
+            case TRANSFER: {
+                long from = pick(rnd);
+                long to = pick(rnd);
+                if (from == to)
+                    to = numbers[(int) ((from - numbers[0] + 1) % numbers.length)];
+                service.transfer(from, to, Money.toAmount(1 + rnd.nextLong(50_000)), "load");
+                break;
+            }
+            case REVERSE: {
+                long accNo = pick(rnd);
+                Account a = service.getAccount(accNo);
+                for (Transaction t : a.getLastNTransactions(5)) {
+                    if (!t.isReversible() || t.getNarration().startsWith("Transfer"))
+                        continue;
+                    service.reverseTransaction(accNo, t.getTxId());
+                    netInCents.add(t.getType() == TransactionType.DEPOSIT ? -t.getAmountCents() : t.getAmountCents());
+                    break;
+                }
+                break;
+            }
+            case SEARCH:
+                service.searchByOwner(QUERIES[rnd.nextInt(QUERIES.length)], 0, 20);
+                break;
+        }
+    }
+
+    // Account for rank r (0 hottest) drawn with P(r) proportional to 1 / (r + 1)^s.
+    private long pick(SplittableRandom rnd) {
+        double u = rnd.nextDouble();
+        int lo = 0;
+        int hi = cdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] < u)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return numbers[lo];
+    }
+
+    private static double[] zipfCdf(int n, double s) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++)
+            cdf[i] = sum += 1.0 / Math.pow(i + 1, s);
+        for (int i = 0; i < n; i++)
+            cdf[i] /= sum;
+        return cdf;
+    }
+
+    private void report(long beforeCents, double elapsed) {
+        long ops = completed.sum();
+        System.out.printf("%n%d operations in %.1f s: %.0f ops/s (%s, %d threads%s%s)%n", ops, elapsed, ops / elapsed,
+                rate > 0 ? "open loop at " + (long) rate + "/s" : "closed loop", threads, virtual ? ", virtual" : "",
+                shards > 0 ? ", " + shards + " shards" : "");
+        System.out.print(metrics.dump());
+        long expected = beforeCents + netInCents.sum();
+        long live = Money.toCents(bank.totalBalances());
+        long walked = 0;
+        for (Account a : bank.listAccounts())
+            walked += a.getBalanceCents();
+        boolean ok = expected == live && live == walked && bank.verifyAggregates();
+        System.out.printf("%nMoney: start %.2f, net in %.2f, expected %.2f, live total %.2f, sum of accounts %.2f -> %s%n",
+                Money.toAmount(beforeCents), Money.toAmount(netInCents.sum()), Money.toAmount(expected),
+                Money.toAmount(live), Money.toAmount(walked), ok ? "CONSERVED" : "MISMATCH");
+    }
+}
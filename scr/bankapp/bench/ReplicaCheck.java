@@ -0,0 +1,154 @@
+package bankapp.bench;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.persistence.Checkpointer;
+import bankapp.persistence.IndexedPersistence;
+import bankapp.persistence.JournalPersistence;
+import bankapp.service.BankService;
+import bankapp.service.BankServiceImpl;
+import bankapp.service.Operation;
+import bankapp.service.ReadReplica;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs write load on a journaled primary that a {@link Checkpointer}
+ * checkpoints in the background, while a {@link ReadReplica} follows its
+ * files; prints the lag seen during the run and checks that once the load
+ * stops the replica, and a bank loaded afresh from the files, hold exactly
+ * the primary's accounts, balances, histories, statuses and totals, and
+ * that the replica rejects writes.
+ *
+ * <pre>
+ * java -cp out bankapp.bench.ReplicaCheck [threads] [seconds]
+ * </pre>
+ */
+public final class ReplicaCheck {
+    private ReplicaCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5L;
+        Path dir = Files.createTempDirectory("bank-replica");
+        String file = dir.resolve("primary.ser").toString();
+
+        BankServiceImpl primary = Fixtures.bank(2_000, 20, 7L);
+        JournalPersistence persistence = new JournalPersistence(new IndexedPersistence(), 1_000L, 256);
+        primary.setPersistence(persistence);
+        primary.saveTo(file);
+        primary.setJournal(persistence.openJournal(file));
+        persistence.setRetainedCheckpoints(2);
+        Checkpointer checkpointer = new Checkpointer(primary, persistence, file, 300L, TimeUnit.MILLISECONDS, 0L)
+                .start();
+
+        ReadReplica replica = new ReadReplica(file, new IndexedPersistence(), Fixtures.fastAuth()).start(20L);
+        long maxLag = 0L;
+        long maxStale = 0L;
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            SplittableRandom rnd = new SplittableRandom(t);
+            Thread w = new Thread(() -> load(primary, rnd, end));
+            w.start();
+            workers.add(w);
+        }
+        while (System.nanoTime() < end) {
+            Thread.sleep(10L);
+            maxLag = Math.max(maxLag, replica.getLagBytes());
+            maxStale = Math.max(maxStale, replica.getStalenessMillis());
+        }
+        for (Thread w : workers)
+            w.join();
+        long checkpoints = checkpointer.getCompletedCheckpoints();
+        // the replica must also catch up across the last checkpoint, written on close
+        checkpointer.close();
+        replica.close();
+        replica.poll();
+
+        System.out.printf("%d records applied, %d checkpoints, %d reloads; max lag %d bytes, max staleness %d ms%n",
+                replica.getAppliedRecords(), checkpoints, replica.getReloads(), maxLag, maxStale);
+        if (checkpoints == 0)
+            throw new IllegalStateException("No checkpoint was written under load");
+        compare("replica", primary, replica);
+        compare("reloaded bank", primary,
+                BankServiceImpl.loadFrom(file, Fixtures.fastAuth(), new JournalPersistence()));
+        try (var files = Files.list(dir)) {
+            if (files.filter(f -> f.getFileName().toString().startsWith("primary.ser.ckpt.")).count() != 2
+                    || !JournalPersistence.journalSegments(file).isEmpty())
+                throw new IllegalStateException("Old checkpoints or journal segments not cleaned up");
+        }
+        try {
+            replica.deposit(primary.listAccounts().get(0).getAccountNumber(), 1.0, null);
+            throw new IllegalStateException("Replica accepted a write");
+        } catch (BankException expected) {
+            // read-only
+        }
+        if (!replica.verifyPinAsync(primary.listAccounts().get(0).getAccountNumber(), Fixtures.PIN).join())
+            throw new IllegalStateException("Replica rejected a valid PIN");
+        System.out.println("OK");
+    }
+
+    private static void load(BankServiceImpl bank, SplittableRandom rnd, long end) {
+        int n = bank.totalAccounts();
+        while (System.nanoTime() < end) {
+            long a = Fixtures.FIRST_ACCOUNT + rnd.nextInt(n);
+            long b = Fixtures.FIRST_ACCOUNT + rnd.nextInt(n);
+            try {
+                int op = rnd.nextInt(100);
+                if (op < 35)
+                    bank.deposit(a, 1 + rnd.nextInt(100), "replica check");
+                else if (op < 60)
+                    bank.withdraw(a, 1 + rnd.nextInt(50), null);
+                else if (op < 92)
+                    bank.transfer(a, b, 1 + rnd.nextInt(50), null);
+                else if (op < 97)
+                    bank.applyBatch(List.of(Operation.transfer(a, b, 1 + rnd.nextInt(50), "replica batch"),
+                            Operation.withdraw(b, 1 + rnd.nextInt(20), null), Operation.deposit(a, 5.0, null)));
+                else if (op < 99)
+                    bank.setAccountActive(a, rnd.nextInt(4) != 0);
+                else
+                    bank.createAccount("Replica Owner", AccountType.CURRENT, Fixtures.PIN, 500.0);
+            } catch (BankException e) {
+                // frozen or short of funds: part of the mix
+            }
+        }
+    }
+
+    private static void compare(String what, BankServiceImpl primary, BankService replica) {
+        if (primary.totalAccounts() != replica.totalAccounts()
+                || primary.countActiveAccounts() != replica.countActiveAccounts()
+                || primary.totalBalances() != replica.totalBalances())
+            throw new IllegalStateException("Totals differ");
+        BankServiceImpl target = replica instanceof ReadReplica ? ((ReadReplica) replica).getTarget()
+                : (BankServiceImpl) replica;
+        if (!target.verifyAggregates())
+            throw new IllegalStateException("Replica aggregates inconsistent");
+        for (Account p : primary.listAccounts()) {
+            Account r = replica.getAccount(p.getAccountNumber());
+            if (r == null)
+                throw new IllegalStateException("Missing account " + p.getAccountNumber());
+            if (r.getBalanceCents() != p.getBalanceCents() || r.isActive() != p.isActive()
+                    || r.getTransactionCount() != p.getTransactionCount()
+                    || !r.getOwnerName().equals(p.getOwnerName()))
+                throw new IllegalStateException("Account " + p.getAccountNumber() + " differs");
+            List<String> pIds = new ArrayList<>();
+            List<String> rIds = new ArrayList<>();
+            p.getLastNTransactions(5).forEach(t -> pIds.add(t.getTxId()));
+            r.getLastNTransactions(5).forEach(t -> rIds.add(t.getTxId()));
+            if (!pIds.equals(rIds))
+                throw new IllegalStateException("History of " + p.getAccountNumber() + " differs");
+        }
+        if (replica.searchByOwner("Replica Owner").size() != primary.searchByOwner("Replica Owner").size())
+            throw new IllegalStateException("Owner index differs");
+        System.out.printf("%s matches primary: %d accounts, %.2f total%n", what, replica.totalAccounts(),
+                replica.totalBalances());
+    }
+}
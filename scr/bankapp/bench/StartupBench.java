@@ -0,0 +1,86 @@
+package bankapp.bench;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.persistence.BinaryPersistence;
+import bankapp.persistence.IndexedPersistence;
+import bankapp.persistence.Persistence;
+import bankapp.persistence.SerializationPersistence;
+import bankapp.service.BankServiceImpl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Measures how long a saved bank takes to come back up in each snapshot
+ * format: the load itself, then the first requests against it (an account
+ * lookup, a mini-statement and a deposit, which read the history of a
+ * lazily loaded account). Each format is loaded in a fresh bank after a
+ * collection, so one load does not pay for another's garbage.
+ *
+ * <pre>
+ * java -Xmx8g -cp out bankapp.bench.StartupBench [accounts] [txPerAccount] [formats...]
+ * </pre>
+ * Formats are {@code serialization}, {@code binary} and {@code indexed};
+ * all three by default.
+ */
+public final class StartupBench {
+    private StartupBench() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int txPerAccount = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        List<String> formats = args.length > 2 ? List.of(args).subList(2, args.length)
+                : List.of("serialization", "binary", "indexed");
+        Path dir = Files.createTempDirectory("bank-startup");
+        BankServiceImpl bank = Fixtures.bank(accounts, txPerAccount, 5L);
+        long probe = Fixtures.FIRST_ACCOUNT + accounts / 2;
+        for (String format : formats) {
+            Path file = dir.resolve(format + ".snap");
+            long t0 = System.nanoTime();
+            persistence(format).save(bank, file.toString());
+            System.out.printf("%-14s save %8.1f ms, %,d bytes%n", format, millis(t0), Files.size(file));
+        }
+        bank = null;
+        for (String format : formats) {
+            Path file = dir.resolve(format + ".snap");
+            System.gc();
+            long t0 = System.nanoTime();
+            BankServiceImpl loaded = BankServiceImpl.loadFrom(file.toString(), Fixtures.fastAuth(),
+                    persistence(format));
+            double load = millis(t0);
+            long t1 = System.nanoTime();
+            firstRequest(loaded, probe);
+            System.out.printf("%-14s load %8.1f ms, first request %6.2f ms, %d accounts%n", format, load,
+                    millis(t1), loaded.totalAccounts());
+            IndexedPersistence.delete(file.toString());
+        }
+        Files.delete(dir);
+    }
+
+    private static void firstRequest(BankServiceImpl bank, long accountNumber) throws BankException {
+        Account a = bank.getAccount(accountNumber);
+        if (a == null || a.getLastNTransactions(10).isEmpty())
+            throw new IllegalStateException("Account " + accountNumber + " not loaded");
+        bank.deposit(accountNumber, 1.0, "startup");
+    }
+
+    private static Persistence persistence(String format) {
+        switch (format) {
+            case "serialization":
+                return new SerializationPersistence();
+            case "binary":
+                return new BinaryPersistence();
+            case "indexed":
+                return new IndexedPersistence();
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+
+    private static double millis(long since) {
+        return (System.nanoTime() - since) / 1e6;
+    }
+}
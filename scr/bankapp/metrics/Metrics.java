@@ -0,0 +1,96 @@
+package bankapp.metrics;
+
+import bankapp.exceptions.BankException;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of operation latency histograms and rejection counters. Callers
+ * look a histogram up once and keep it; recording never locks. Once
+ * {@link #registerMBeans} has run, every histogram, existing or later
+ * created, is also visible over JMX.
+ */
+public final class Metrics implements MetricsMBean {
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> rejections = new ConcurrentHashMap<>();
+    private volatile String jmxDomain;
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> {
+            LatencyHistogram h = new LatencyHistogram(n);
+            String domain = jmxDomain;
+            if (domain != null)
+                register(domain, h);
+            return h;
+        });
+    }
+
+    /** Counts a rejected operation by the reason it was rejected. */
+    public void reject(String operation, BankException e) {
+        rejections.computeIfAbsent(operation + ": " + e.getMessage(), k -> new LongAdder()).increment();
+    }
+
+    @Override
+    public long getTotalRejections() {
+        long n = 0;
+        for (LongAdder a : rejections.values())
+            n += a.sum();
+        return n;
+    }
+
+    @Override
+    public String[] getRejections() {
+        List<String> out = new ArrayList<>();
+        for (var e : new TreeMap<>(rejections).entrySet())
+            out.add(e.getKey() + " = " + e.getValue().sum());
+        return out.toArray(new String[0]);
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-22s %10s %10s %10s %10s %10s %10s%n", "operation", "count", "mean us", "p50 us",
+                "p99 us", "p999 us", "max us"));
+        for (LatencyHistogram h : new TreeMap<>(histograms).values()) {
+            OperationStats s = new OperationStats(h);
+            sb.append(String.format("%-22s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", h.getName(), s.getCount(),
+                    s.getMeanMicros(), s.getP50Micros(), s.getP99Micros(), s.getP999Micros(), s.getMaxMicros()));
+        }
+        String[] rej = getRejections();
+        if (rej.length > 0) {
+            sb.append("rejections:").append(System.lineSeparator());
+            for (String r : rej)
+                sb.append("  ").append(r).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    /** Publishes this registry and its histograms on the platform MBean server under {@code domain}. */
+    public void registerMBeans(String domain) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName(domain + ":type=Metrics"));
+        jmxDomain = domain;
+        for (LatencyHistogram h : histograms.values())
+            register(domain, h);
+    }
+
+    private static void register(String domain, LatencyHistogram h) {
+        try {
+            ObjectName name = new ObjectName(domain + ":type=Operation,name=" + ObjectName.quote(h.getName()));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name))
+                server.registerMBean(new OperationStats(h), name);
+        } catch (JMException e) {
+            // the histogram still records and shows in dump()
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package bankapp.metrics;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.service.BankService;
+import bankapp.service.Operation;
+import bankapp.service.OperationResult;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Decorator that times every state-changing call, searches and credential
+ * checks of a {@link BankService} and counts rejections by reason. Cheap
+ * reads pass straight through. Not meant to be serialized; persist the
+ * wrapped service instead.
+ */
+public final class MetricsBankService implements BankService {
+    private static final long serialVersionUID = 1L;
+
+    private final BankService target;
+    private final Metrics metrics;
+    private final LatencyHistogram createAccount;
+    private final LatencyHistogram deposit;
+    private final LatencyHistogram withdraw;
+    private final LatencyHistogram transfer;
+    private final LatencyHistogram batch;
+    private final LatencyHistogram reverse;
+    private final LatencyHistogram setActive;
+    private final LatencyHistogram changePin;
+    private final LatencyHistogram search;
+    private final LatencyHistogram verifyPin;
+    private final LatencyHistogram adminCheck;
+
+    public MetricsBankService(BankService target, Metrics metrics) {
+        this.target = target;
+        this.metrics = metrics;
+        this.createAccount = metrics.histogram("createAccount");
+        this.deposit = metrics.histogram("deposit");
+        this.withdraw = metrics.histogram("withdraw");
+        this.transfer = metrics.histogram("transfer");
+        this.batch = metrics.histogram("applyBatch");
+        this.reverse = metrics.histogram("reverseTransaction");
+        this.setActive = metrics.histogram("setAccountActive");
+        this.changePin = metrics.histogram("changePin");
+        this.search = metrics.histogram("searchByOwner");
+        this.verifyPin = metrics.histogram("verifyPin");
+        this.adminCheck = metrics.histogram("adminCredentials");
+    }
+
+    public BankService getTarget() {
+        return target;
+    }
+
+    @Override
+    public Account createAccount(String owner, AccountType type, String pin, double openingDeposit)
+            throws BankException {
+        long t0 = System.nanoTime();
+        try {
+            return target.createAccount(owner, type, pin, openingDeposit);
+        } catch (BankException e) {
+            metrics.reject("createAccount", e);
+            throw e;
+        } finally {
+            createAccount.recordSince(t0);
+        }
+    }
+
+    @Override
+    public Account getAccount(long accountNumber) {
+        return target.getAccount(accountNumber);
+    }
+
+    @Override
+    public void deposit(long accountNumber, double amount, String narration) throws BankException {
+        long t0 = System.nanoTime();
+        try {
+            target.deposit(accountNumber, amount, narration);
+        } catch (BankException e) {
+            metrics.reject("deposit", e);
+            throw e;
+        } finally {
+            deposit.recordSince(t0);
+        }
+    }
+
+    @Override
+    public void withdraw(long accountNumber, double amount, String narration) throws BankException {
+        long t0 = System.nanoTime();
+        try {
+            target.withdraw(accountNumber, amount, narration);
+        } catch (BankException e) {
+            metrics.reject("withdraw", e);
+            throw e;
+        } finally {
+            withdraw.recordSince(t0);
+        }
+    }
+
+    @Override
+    public void transfer(long fromAcc, long toAcc, double amount, String narration) throws BankException {
+        long t0 = System.nanoTime();
+        try {
+            target.transfer(fromAcc, toAcc, amount, narration);
+        } catch (BankException e) {
+            metrics.reject("transfer", e);
+            throw e;
+        } finally {
+            transfer.recordSince(t0);
+        }
+    }
+
+    @Override
+    public List<OperationResult> applyBatch(List<Operation> ops) throws BankException {
+        return applyBatch(ops, true);
+    }
+
+    @Override
+    public List<OperationResult> applyBatch(List<Operation> ops, boolean allOrNothing) throws BankException {
+        long t0 = System.nanoTime();
+        try {
+            return target.applyBatch(ops, allOrNothing);
+        } catch (BankException e) {
+            metrics.reject("applyBatch", e);
+            throw e;
+        } finally {
+            batch.recordSince(t0);
+        }
+    }
+
+    @Override
+    public void reverseTransaction(long accountNumber, String txId) throws BankException {
+        long t0 = System.nanoTime();
+        try {
+            target.reverseTransaction(accountNumber, txId);
+        } catch (BankException e) {
+            metrics.reject("reverseTransaction", e);
+            throw e;
+        } finally {
+            reverse.recordSince(t0);
+        }
+    }
+
+    @Override
+    public void setAccountActive(long accountNumber, boolean active) throws BankException {
+        long t0 = System.nanoTime();
+        try {
+            target.setAccountActive(accountNumber, active);
+        } catch (BankException e) {
+            metrics.reject("setAccountActive", e);
+            throw e;
+        } finally {
+            setActive.recordSince(t0);
+        }
+    }
+
+    @Override
+    public void changePin(long accountNumber, String currentPin, String newPin) throws BankException {
+        long t0 = System.nanoTime();
+        try {
+            target.changePin(accountNumber, currentPin, newPin);
+        } catch (BankException e) {
+            metrics.reject("changePin", e);
+            throw e;
+        } finally {
+            changePin.recordSince(t0);
+        }
+    }
+
+    @Override
+    public List<Account> listAccounts() {
+        return target.listAccounts();
+    }
+
+    @Override
+    public List<Account> searchByOwner(String query) {
+        long t0 = System.nanoTime();
+        try {
+            return target.searchByOwner(query);
+        } finally {
+            search.recordSince(t0);
+        }
+    }
+
+    @Override
+    public List<Account> searchByOwner(String query, int offset, int limit) {
+        long t0 = System.nanoTime();
+        try {
+            return target.searchByOwner(query, offset, limit);
+        } finally {
+            search.recordSince(t0);
+        }
+    }
+
+    @Override
+    public List<Account> searchByOwnerPrefix(String prefix, int offset, int limit) {
+        long t0 = System.nanoTime();
+        try {
+            return target.searchByOwnerPrefix(prefix, offset, limit);
+        } finally {
+            search.recordSince(t0);
+        }
+    }
+
+    @Override
+    public int totalAccounts() {
+        return target.totalAccounts();
+    }
+
+    @Override
+    public double totalBalances() {
+        return target.totalBalances();
+    }
+
+    @Override
+    public int countActiveAccounts() {
+        return target.countActiveAccounts();
+    }
+
+    @Override
+    public double getMinOpeningDeposit() {
+        return target.getMinOpeningDeposit();
+    }
+
+    @Override
+    public double getDailyWithdrawalLimit() {
+        return target.getDailyWithdrawalLimit();
+    }
+
+    @Override
+    public boolean isAdminCredentials(String user, String pass) {
+        long t0 = System.nanoTime();
+        try {
+            return target.isAdminCredentials(user, pass);
+        } finally {
+            adminCheck.recordSince(t0);
+        }
+    }
+
+    // Async checks are timed from submission to completion, so queueing on the verifier pool is included.
+    @Override
+    public CompletableFuture<Boolean> verifyPinAsync(long accountNumber, String pin) {
+        long t0 = System.nanoTime();
+        return target.verifyPinAsync(accountNumber, pin).whenComplete((ok, err) -> verifyPin.recordSince(t0));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isAdminCredentialsAsync(String user, String pass) {
+        long t0 = System.nanoTime();
+        return target.isAdminCredentialsAsync(user, pass).whenComplete((ok, err) -> adminCheck.recordSince(t0));
+    }
+
+    @Override
+    public void setAdminPassword(String pass) {
+        target.setAdminPassword(pass);
+    }
+}
@@ -0,0 +1,11 @@
+package bankapp.metrics;
+
+/** JMX view of a {@link Metrics} registry as a whole. */
+public interface MetricsMBean {
+    long getTotalRejections();
+
+    /** One "operation: reason = count" entry per distinct rejection. */
+    String[] getRejections();
+
+    String dump();
+}
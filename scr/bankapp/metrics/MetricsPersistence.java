@@ -0,0 +1,51 @@
+package bankapp.metrics;
+
+import bankapp.persistence.Persistence;
+import bankapp.service.BankService;
+import bankapp.service.BankServiceImpl;
+import bankapp.service.BankSnapshot;
+
+import java.io.IOException;
+
+/** Decorator that times snapshot saves and loads of a {@link Persistence}. */
+public final class MetricsPersistence implements Persistence {
+    private final Persistence target;
+    private final LatencyHistogram save;
+    private final LatencyHistogram load;
+
+    public MetricsPersistence(Persistence target, Metrics metrics) {
+        this.target = target;
+        this.save = metrics.histogram("snapshot.save");
+        this.load = metrics.histogram("snapshot.load");
+    }
+
+    @Override
+    public void save(BankService state, String filename) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            target.save(state, filename);
+        } finally {
+            save.recordSince(t0);
+        }
+    }
+
+    @Override
+    public void save(BankServiceImpl bank, BankSnapshot snapshot, String filename) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            target.save(bank, snapshot, filename);
+        } finally {
+            save.recordSince(t0);
+        }
+    }
+
+    @Override
+    public Object load(String filename) throws IOException, ClassNotFoundException {
+        long t0 = System.nanoTime();
+        try {
+            return target.load(filename);
+        } finally {
+            load.recordSince(t0);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package bankapp.metrics;
+
+final class OperationStats implements OperationStatsMBean {
+    private final LatencyHistogram h;
+
+    OperationStats(LatencyHistogram h) {
+        this.h = h;
+    }
+
+    @Override
+    public long getCount() {
+        return h.count();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return h.meanNanos() / 1_000.0;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return h.percentileNanos(0.50) / 1_000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return h.percentileNanos(0.99) / 1_000.0;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return h.percentileNanos(0.999) / 1_000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return h.maxNanos() / 1_000.0;
+    }
+}
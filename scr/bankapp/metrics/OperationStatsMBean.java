@@ -0,0 +1,16 @@
+package bankapp.metrics;
+
+/** JMX view of one {@link LatencyHistogram}; times are in microseconds. */
+public interface OperationStatsMBean {
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+}
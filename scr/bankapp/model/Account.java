@@ -3,14 +3,18 @@ package bankapp.model;
 import bankapp.exceptions.BankException;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 
 public final class Account implements Serializable {
     private static final long serialVersionUID = 2L;
@@ -18,65 +22,389 @@ public final class Account implements Serializable {
     private final long accountNumber;
     private final String ownerName;
     private final AccountType type;
+    private transient volatile long balanceCents;
+    // Serialized form of the balance only; synced from balanceCents in writeObject/readObject.
     private double balance;
     private String pinHashBase64;
     private String pinSaltBase64;
-    private boolean active = true;
-    private final List<Transaction> transactions = new ArrayList<>();
+    private volatile boolean active = true;
+    // Serialized form of the history only; the live history is the columnar log.
+    private List<Transaction> transactions;
     private final LocalDateTime createdAt;
+    private transient TransactionLog log;
+    // Rows [0, log.base()) live in these blocks of the cold store, oldest first.
+    private transient List<ColdBlock> coldBlocks = new ArrayList<>();
+    private transient ColdStore coldStore;
+    // History still in the snapshot this account was restored from, read on first need; see restore
+    private transient ColdBlock savedHistory;
+    private transient ColdStore savedHistoryStore;
+    private transient int hotLimit;
+    // Withdrawals on bucketDay (epoch day), in cents; bucketDay is 0 until first use after a load.
+    private transient long bucketDay;
+    private transient long bucketWithdrawnCents;
+    // Committed states, newest first; see publish
+    private transient volatile Version head;
+    private transient long prunedAt = -1L;
 
     public Account(long accountNumber, String ownerName, AccountType type, String pinHashBase64, String pinSaltBase64) {
+        this(accountNumber, ownerName, type, pinHashBase64, pinSaltBase64, LocalDateTime.now());
+    }
+
+    public Account(long accountNumber, String ownerName, AccountType type, String pinHashBase64, String pinSaltBase64,
+            LocalDateTime createdAt) {
         this.accountNumber = accountNumber;
         this.ownerName = ownerName;
         this.type = type;
         this.pinHashBase64 = pinHashBase64;
         this.pinSaltBase64 = pinSaltBase64;
-        this.balance = 0.0;
-        this.createdAt = LocalDateTime.now();
+        this.balanceCents = 0L;
+        this.createdAt = createdAt;
+        this.log = new TransactionLog(8);
     }
 
-    public synchronized void deposit(double amount, String narration) {
-        amount = round2(amount);
-        balance = round2(balance + amount);
-        Transaction t = new Transaction(TransactionType.DEPOSIT, amount, balance, narration);
-        transactions.add(t);
+    private Account(long accountNumber, String ownerName, AccountType type, String pinHashBase64,
+            String pinSaltBase64, LocalDateTime createdAt, TransactionLog log) {
+        this.accountNumber = accountNumber;
+        this.ownerName = ownerName;
+        this.type = type;
+        this.pinHashBase64 = pinHashBase64;
+        this.pinSaltBase64 = pinSaltBase64;
+        this.createdAt = createdAt;
+        this.log = log;
     }
 
-    public synchronized void withdraw(double amount, String narration) throws BankException {
-        amount = round2(amount);
-        if (amount > balance)
+    /**
+     * Rebuilds an account from a snapshot index entry without reading its
+     * history: the {@code history.getRows()} saved transactions stay in
+     * {@code store} until one is looked up or the account changes, and a
+     * cursor over them reads them from there without keeping them.
+     */
+    public static Account restore(long accountNumber, String ownerName, AccountType type, String pinHashBase64,
+            String pinSaltBase64, LocalDateTime createdAt, boolean active, long balanceCents, ColdBlock history,
+            ColdStore store) {
+        int rows = history == null ? 0 : history.getRows();
+        Account a = new Account(accountNumber, ownerName, type, pinHashBase64, pinSaltBase64, createdAt,
+                rows == 0 ? new TransactionLog(8) : TransactionLog.startingAt(rows));
+        a.active = active;
+        a.balanceCents = balanceCents;
+        if (rows > 0) {
+            a.savedHistory = history;
+            a.savedHistoryStore = store;
+        }
+        // what publish(0, 0) would do, without taking a monitor per account while loading
+        a.head = a.new Version(0L, balanceCents, rows, active, null);
+        a.prunedAt = 0L;
+        return a;
+    }
+
+    // Reads the saved history onto the heap. Nothing is appended before this, so it is all of it.
+    private void loadHistory() {
+        ColdBlock h = savedHistory;
+        if (h == null)
+            return;
+        TransactionLog full = new TransactionLog(h.getRows());
+        try {
+            savedHistoryStore.read(h, full);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read saved history", e);
+        }
+        log = full;
+        savedHistory = null;
+        savedHistoryStore = null;
+        spillIfNeeded();
+    }
+
+    public synchronized Transaction depositCents(long amountCents, String narration) {
+        long after = balanceCents + amountCents;
+        int row = appendNew(TransactionType.DEPOSIT, amountCents, after, narration);
+        balanceCents = after;
+        Transaction t = log.materialize(row);
+        spillIfNeeded();
+        return t;
+    }
+
+    public synchronized Transaction withdrawCents(long amountCents, String narration) throws BankException {
+        if (amountCents > balanceCents)
             throw new BankException("Insufficient funds");
-        balance = round2(balance - amount);
-        Transaction t = new Transaction(TransactionType.WITHDRAWAL, amount, balance, narration);
-        transactions.add(t);
+        long after = balanceCents - amountCents;
+        int row = appendNew(TransactionType.WITHDRAWAL, amountCents, after, narration);
+        balanceCents = after;
+        Transaction t = log.materialize(row);
+        spillIfNeeded();
+        return t;
+    }
+
+    public synchronized void addTransactionInternal(Transaction t) {
+        long today = withdrawalBucket();
+        int row = log.append(t);
+        countWithdrawal(row, today);
+        this.balanceCents = t.getBalanceAfterCents();
+        spillIfNeeded();
+    }
+
+    public synchronized void addTransactionInternal(long idHigh, long idLow, long epochMicros, TransactionType type,
+            long amountCents, long balanceAfterCents, String narration) {
+        long today = withdrawalBucket();
+        int row = log.append(idHigh, idLow, epochMicros, type, amountCents, balanceAfterCents, narration);
+        countWithdrawal(row, today);
+        this.balanceCents = balanceAfterCents;
+        spillIfNeeded();
     }
 
-    synchronized void addTransactionInternal(Transaction t) {
-        transactions.add(t);
-        this.balance = t.getBalanceAfter();
+    /**
+     * Keeps only the most recent {@code hotLimit} transactions on the heap;
+     * older ones move to {@code store} in batches and are read back from it
+     * transparently. A null store keeps everything on the heap again for new rows.
+     */
+    public synchronized void setColdStore(ColdStore store, int hotLimit) {
+        if (store != null && hotLimit <= 0)
+            throw new IllegalArgumentException("hotLimit must be positive");
+        if (savedHistory == null)
+            withdrawalBucket();
+        this.coldStore = store;
+        this.hotLimit = hotLimit;
+        spillIfNeeded();
     }
 
-    public Transaction findTransaction(String txId) {
-        for (Transaction t : transactions)
-            if (t.getTxId().equals(txId))
-                return t;
+    // Moves everything but the newest hotLimit rows out once twice that many are held.
+    private void spillIfNeeded() {
+        if (coldStore == null || log.size() - log.base() < 2 * hotLimit)
+            return;
+        int from = log.base();
+        int to = log.size() - hotLimit;
+        try {
+            coldBlocks.add(coldStore.write(accountNumber, log.cursor(from, to)));
+        } catch (IOException e) {
+            return; // rows stay on the heap; retried on a later append
+        }
+        log.dropHead(to - from);
+    }
+
+    private int appendNew(TransactionType type, long amountCents, long balanceAfterCents, String narration) {
+        long today = withdrawalBucket();
+        UUID id = UUID.randomUUID();
+        int row = log.append(id.getMostSignificantBits(), id.getLeastSignificantBits(),
+                TransactionLog.toMicros(LocalDateTime.now()), type, amountCents, balanceAfterCents, narration);
+        countWithdrawal(row, today);
+        return row;
+    }
+
+    private void countWithdrawal(int row, long today) {
+        if (log.typeAt(row) != TransactionType.WITHDRAWAL)
+            return;
+        long day = TransactionLog.epochDay(log.microsAt(row));
+        if (day > today) {
+            bucketDay = day;
+            bucketWithdrawnCents = 0L;
+        }
+        if (day == bucketDay)
+            bucketWithdrawnCents += log.amountAt(row);
+    }
+
+    // Rolls the bucket to today, seeding it from today's tail of the history when first used.
+    private long withdrawalBucket() {
+        long today = LocalDate.now().toEpochDay();
+        if (bucketDay == 0L) {
+            loadHistory();
+            long sum = 0L;
+            for (int i = log.size() - 1; i >= log.base(); i--) {
+                long day = TransactionLog.epochDay(log.microsAt(i));
+                if (day < today)
+                    break;
+                if (day == today && log.typeAt(i) == TransactionType.WITHDRAWAL)
+                    sum += log.amountAt(i);
+            }
+            bucketDay = today;
+            bucketWithdrawnCents = sum;
+        } else if (today > bucketDay) {
+            bucketDay = today;
+            bucketWithdrawnCents = 0L;
+        }
+        return bucketDay;
+    }
+
+    public synchronized Transaction findTransaction(String txId) {
+        if (txId == null)
+            return null;
+        UUID id;
+        try {
+            id = UUID.fromString(txId);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        long hi = id.getMostSignificantBits();
+        long lo = id.getLeastSignificantBits();
+        loadHistory();
+        int row = log.find(hi, lo);
+        Transaction t = row >= 0 ? log.materialize(row) : findCold(hi, lo);
+        return t != null && t.getTxId().equals(txId) ? t : null;
+    }
+
+    /** Whether a transaction with this id is in the history, hot or cold. */
+    public synchronized boolean hasTransaction(long idHigh, long idLow) {
+        loadHistory();
+        return log.find(idHigh, idLow) >= 0 || findCold(idHigh, idLow) != null;
+    }
+
+    /**
+     * Like {@link #findTransaction}, but skips the cold tier for a transaction
+     * newer than anything in it; used when replaying recent records.
+     */
+    public synchronized boolean containsTransaction(String txId, LocalDateTime timestamp) {
+        ColdBlock newestStored = savedHistory != null ? savedHistory
+                : coldBlocks.isEmpty() ? null : coldBlocks.get(coldBlocks.size() - 1);
+        if (newestStored != null && TransactionLog.toMicros(timestamp) > newestStored.getLastMicros()) {
+            UUID id = UUID.fromString(txId);
+            return log.find(id.getMostSignificantBits(), id.getLeastSignificantBits()) >= 0;
+        }
+        return findTransaction(txId) != null;
+    }
+
+    private Transaction findCold(long hi, long lo) {
+        for (int b = coldBlocks.size() - 1; b >= 0; b--) {
+            ColdBlock block = coldBlocks.get(b);
+            TransactionLog part = TransactionLog.detached(block.getRows(), block.getFirstRow());
+            try {
+                coldStore.read(block, part);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read cold history", e);
+            }
+            int row = part.find(hi, lo);
+            if (row >= 0)
+                return part.materialize(row);
+        }
         return null;
     }
 
-    public List<Transaction> getLastNTransactions(int n) {
-        int size = transactions.size();
+    public synchronized int getTransactionCount() {
+        return log.size();
+    }
+
+    /** Cursor over the history as of now; later appends are not visible through it. */
+    public synchronized TransactionLog.Cursor transactionCursor() {
+        return transactionCursor(0, log.size());
+    }
+
+    public synchronized TransactionLog.Cursor transactionCursor(int from, int to) {
+        if (from < 0 || to > log.size() || from > to)
+            throw new IndexOutOfBoundsException("Rows " + from + ".." + to + " of " + log.size());
+        if (from >= log.base())
+            return log.cursor(from, to);
+        if (savedHistory != null)
+            return new TransactionLog.Cursor(
+                    new TransactionLog.Part[] { TransactionLog.Part.cold(from, to, savedHistory, savedHistoryStore) },
+                    from, to);
+        List<TransactionLog.Part> parts = new ArrayList<>();
+        for (ColdBlock b : coldBlocks) {
+            int start = Math.max(from, b.getFirstRow());
+            int end = Math.min(to, b.getFirstRow() + b.getRows());
+            if (start < end)
+                parts.add(TransactionLog.Part.cold(start, end, b, coldStore));
+        }
+        if (to > log.base())
+            parts.add(TransactionLog.Part.held(log.base(), to, log));
+        return new TransactionLog.Cursor(parts.toArray(new TransactionLog.Part[0]), from, to);
+    }
+
+    public synchronized List<Transaction> getLastNTransactions(int n) {
+        int size = log.size();
         if (size == 0)
             return Collections.emptyList();
-        int from = Math.max(0, size - n);
-        return new ArrayList<>(transactions.subList(from, size));
+        return new TransactionLog.View(transactionCursor(Math.max(0, size - n), size));
+    }
+
+    public synchronized List<Transaction> getAllTransactions() {
+        return new TransactionLog.View(transactionCursor());
+    }
+
+    /**
+     * One committed state of the account: balance, status and how many
+     * transactions the history held. Versions are immutable; history rows
+     * never change once written, so the first {@link #getTransactionCount()}
+     * rows are this version's history.
+     */
+    public final class Version {
+        private final long seq;
+        private final long balanceCents;
+        private final int rows;
+        private final boolean active;
+        private Version older;
+
+        private Version(long seq, long balanceCents, int rows, boolean active, Version older) {
+            this.seq = seq;
+            this.balanceCents = balanceCents;
+            this.rows = rows;
+            this.active = active;
+            this.older = older;
+        }
+
+        public Account getAccount() {
+            return Account.this;
+        }
+
+        public long getSequence() {
+            return seq;
+        }
+
+        public long getBalanceCents() {
+            return balanceCents;
+        }
+
+        public double getBalance() {
+            return Money.toAmount(balanceCents);
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public int getTransactionCount() {
+            return rows;
+        }
+
+        public TransactionLog.Cursor transactionCursor() {
+            return Account.this.transactionCursor(0, rows);
+        }
+
+        public List<Transaction> getLastNTransactions(int n) {
+            if (rows == 0)
+                return Collections.emptyList();
+            return new TransactionLog.View(Account.this.transactionCursor(Math.max(0, rows - n), rows));
+        }
+    }
+
+    /**
+     * Records the current state as committed at {@code seq}, which must be
+     * higher than any published before. Versions older than the newest one
+     * at or below {@code horizon} are dropped: no reader needs them.
+     */
+    public synchronized void publish(long seq, long horizon) {
+        Version v = new Version(seq, balanceCents, log.size(), active, head);
+        head = v;
+        // the chain only needs walking when the horizon has moved since the last cut
+        if (horizon == prunedAt)
+            return;
+        prunedAt = horizon;
+        while (v != null && v.seq > horizon)
+            v = v.older;
+        if (v != null)
+            v.older = null;
     }
 
-    public List<Transaction> getAllTransactions() {
-        return new ArrayList<>(transactions);
+    /** The newest state committed at or before {@code seq}; null if the account had none yet. */
+    public Version versionAt(long seq) {
+        Version v = head;
+        while (v != null && v.seq > seq)
+            v = v.older;
+        return v;
     }
 
     public double getBalance() {
-        return round2(balance);
+        return Money.toAmount(balanceCents);
+    }
+
+    public long getBalanceCents() {
+        return balanceCents;
     }
 
     public long getAccountNumber() {
@@ -95,8 +423,11 @@ public final class Account implements Serializable {
         return active;
     }
 
-    public void setActive(boolean v) {
+    /** Returns whether the status actually changed. */
+    public synchronized boolean setActive(boolean v) {
+        boolean changed = active != v;
         this.active = v;
+        return changed;
     }
 
     public LocalDateTime getCreatedAt() {
@@ -111,38 +442,47 @@ public final class Account implements Serializable {
         return pinSaltBase64;
     }
 
-    public void setPin(String newHashBase64, String newSaltBase64) {
+    public synchronized void setPin(String newHashBase64, String newSaltBase64) {
         this.pinHashBase64 = newHashBase64;
         this.pinSaltBase64 = newSaltBase64;
     }
 
     public double withdrawnToday() {
-        var startOfDay = LocalDateTime.now().withHour(0).withMinute(0).withSecond(0).withNano(0);
-        double sum = 0.0;
-        for (Transaction t : transactions) {
-            if (t.getType() == TransactionType.WITHDRAWAL && t.getTimestamp().isAfter(startOfDay))
-                sum += t.getAmount();
-        }
-        return round2(sum);
+        return Money.toAmount(withdrawnTodayCents());
+    }
+
+    public synchronized long withdrawnTodayCents() {
+        withdrawalBucket();
+        return bucketWithdrawnCents;
     }
 
     public void exportToCSV(String filename) throws IOException {
-        Path path = Paths.get(filename);
-        try (var writer = Files.newBufferedWriter(path)) {
-            writer.write("txId,timestamp,type,amount,balanceAfter,narration");
-            writer.newLine();
-            for (Transaction t : transactions) {
-                String safeNarr = "\"" + t.getNarration().replace("\"", "\"\"") + "\"";
-                String line = String.format("%s,%s,%s,%.2f,%.2f,%s",
-                        t.getTxId(), t.getTimestamp().toString(), t.getType(), t.getAmount(), t.getBalanceAfter(),
-                        safeNarr);
-                writer.write(line);
-                writer.newLine();
-            }
+        try (var csv = new CsvRowWriter(Files.newOutputStream(Paths.get(filename)))) {
+            csv.header(false);
+            TransactionLog.Cursor c = transactionCursor();
+            while (c.next())
+                csv.row(c);
+        }
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        balance = Money.toAmount(balanceCents);
+        transactions = new ArrayList<>(getAllTransactions());
+        try {
+            out.defaultWriteObject();
+        } finally {
+            transactions = null;
         }
     }
 
-    private double round2(double v) {
-        return Math.round(v * 100.0) / 100.0;
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        balanceCents = Money.toCents(balance);
+        List<Transaction> history = transactions == null ? Collections.emptyList() : transactions;
+        log = new TransactionLog(history.size());
+        for (Transaction t : history)
+            log.append(t);
+        transactions = null;
+        coldBlocks = new ArrayList<>();
     }
 }
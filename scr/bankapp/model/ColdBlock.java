@@ -0,0 +1,44 @@
+package bankapp.model;
+
+/** Location of a run of an account's oldest transactions in a {@link ColdStore}. */
+public final class ColdBlock {
+    private final int segment;
+    private final long offset;
+    private final int bytes;
+    private final int firstRow;
+    private final int rows;
+    private final long lastMicros;
+
+    public ColdBlock(int segment, long offset, int bytes, int firstRow, int rows, long lastMicros) {
+        this.segment = segment;
+        this.offset = offset;
+        this.bytes = bytes;
+        this.firstRow = firstRow;
+        this.rows = rows;
+        this.lastMicros = lastMicros;
+    }
+
+    public int getSegment() {
+        return segment;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getBytes() {
+        return bytes;
+    }
+
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public long getLastMicros() {
+        return lastMicros;
+    }
+}
@@ -0,0 +1,12 @@
+package bankapp.model;
+
+import java.io.IOException;
+
+/** Off-heap home for the older part of account histories. */
+public interface ColdStore {
+    /** Stores every row under the cursor and returns where they went. */
+    ColdBlock write(long accountNumber, TransactionLog.Cursor rows) throws IOException;
+
+    /** Appends the rows of {@code block} to {@code into}. */
+    void read(ColdBlock block, TransactionLog into) throws IOException;
+}
@@ -0,0 +1,235 @@
+package bankapp.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Writes transaction rows as CSV straight into a reusable byte buffer:
+ * ids, timestamps and amounts are formatted by hand from a
+ * {@link TransactionLog.Cursor}'s columns, so a row allocates nothing
+ * unless its narration has non-ASCII characters. Output matches the
+ * original {@code String.format} export: ISO local date-times, two-decimal
+ * amounts and a quoted narration with doubled quotes.
+ */
+public final class CsvRowWriter implements Closeable {
+    public static final String HEADER = "txId,timestamp,type,amount,balanceAfter,narration";
+    public static final String ACCOUNT_HEADER = "accountNumber," + HEADER;
+
+    private static final byte[] LINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] TYPE_NAMES;
+    static {
+        TransactionType[] types = TransactionType.values();
+        TYPE_NAMES = new byte[types.length][];
+        for (int i = 0; i < types.length; i++)
+            TYPE_NAMES[i] = types[i].name().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int pos;
+    private long rows;
+    private long cachedDay = Long.MIN_VALUE;
+    private byte[] cachedDate;
+
+    public CsvRowWriter(OutputStream out) {
+        this(out, 1 << 16);
+    }
+
+    public CsvRowWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buf = new byte[Math.max(bufferSize, 1024)];
+    }
+
+    public void header(boolean withAccount) throws IOException {
+        ascii(withAccount ? ACCOUNT_HEADER : HEADER);
+        newLine();
+    }
+
+    /** Writes the cursor's current row. */
+    public void row(TransactionLog.Cursor c) throws IOException {
+        ensure(256);
+        uuid(c.idHigh(), c.idLow());
+        buf[pos++] = ',';
+        timestamp(c.epochMicros());
+        buf[pos++] = ',';
+        byte[] type = TYPE_NAMES[c.type().ordinal()];
+        System.arraycopy(type, 0, buf, pos, type.length);
+        pos += type.length;
+        buf[pos++] = ',';
+        cents(c.amountCents());
+        buf[pos++] = ',';
+        cents(c.balanceAfterCents());
+        buf[pos++] = ',';
+        quoted(c.narration());
+        newLine();
+        rows++;
+    }
+
+    /** Writes the cursor's current row prefixed with an account number column. */
+    public void row(long accountNumber, TransactionLog.Cursor c) throws IOException {
+        ensure(24);
+        number(accountNumber);
+        buf[pos++] = ',';
+        row(c);
+    }
+
+    public long rows() {
+        return rows;
+    }
+
+    public void flush() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    private void ensure(int n) throws IOException {
+        if (pos + n > buf.length) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    private void newLine() throws IOException {
+        ensure(LINE.length);
+        System.arraycopy(LINE, 0, buf, pos, LINE.length);
+        pos += LINE.length;
+    }
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            ensure(1);
+            buf[pos++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void uuid(long hi, long lo) {
+        hex(hi >>> 32, 8);
+        buf[pos++] = '-';
+        hex(hi >>> 16, 4);
+        buf[pos++] = '-';
+        hex(hi, 4);
+        buf[pos++] = '-';
+        hex(lo >>> 48, 4);
+        buf[pos++] = '-';
+        hex(lo, 12);
+    }
+
+    private void hex(long v, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            buf[pos + i] = HEX[(int) (v & 0xF)];
+            v >>>= 4;
+        }
+        pos += digits;
+    }
+
+    // Same text as LocalDateTime.toString(): seconds only when non-zero, then 3, 6 or 9 fraction digits.
+    private void timestamp(long micros) {
+        long day = Math.floorDiv(micros, 86_400_000_000L);
+        long inDay = Math.floorMod(micros, 86_400_000_000L);
+        if (day != cachedDay) {
+            cachedDay = day;
+            cachedDate = LocalDate.ofEpochDay(day).toString().getBytes(StandardCharsets.US_ASCII);
+        }
+        System.arraycopy(cachedDate, 0, buf, pos, cachedDate.length);
+        pos += cachedDate.length;
+        long secs = inDay / 1_000_000L;
+        int fraction = (int) (inDay % 1_000_000L);
+        buf[pos++] = 'T';
+        twoDigits((int) (secs / 3600));
+        buf[pos++] = ':';
+        twoDigits((int) (secs / 60 % 60));
+        int s = (int) (secs % 60);
+        if (s > 0 || fraction > 0) {
+            buf[pos++] = ':';
+            twoDigits(s);
+            if (fraction > 0) {
+                buf[pos++] = '.';
+                if (fraction % 1000 == 0)
+                    digits(fraction / 1000, 3);
+                else
+                    digits(fraction, 6);
+            }
+        }
+    }
+
+    private void twoDigits(int v) {
+        buf[pos++] = (byte) ('0' + v / 10);
+        buf[pos++] = (byte) ('0' + v % 10);
+    }
+
+    private void digits(int v, int n) {
+        for (int i = n - 1; i >= 0; i--) {
+            buf[pos + i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        pos += n;
+    }
+
+    // cents as [-]units.cc
+    private void cents(long cents) {
+        if (cents < 0) {
+            buf[pos++] = '-';
+            cents = -cents;
+        }
+        number(cents / 100);
+        buf[pos++] = '.';
+        twoDigits((int) (cents % 100));
+    }
+
+    private void number(long v) {
+        if (v == 0) {
+            buf[pos++] = '0';
+            return;
+        }
+        int len = 0;
+        for (long t = v; t > 0; t /= 10)
+            len++;
+        for (int i = len - 1; i >= 0; i--) {
+            buf[pos + i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        pos += len;
+    }
+
+    private void quoted(String s) throws IOException {
+        buf[pos++] = '"';
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch >= 0x80) {
+                utf8(s, i);
+                break;
+            }
+            ensure(3);
+            if (ch == '"')
+                buf[pos++] = '"';
+            buf[pos++] = (byte) ch;
+        }
+        ensure(1);
+        buf[pos++] = '"';
+    }
+
+    // Rest of the narration from index i, which holds the first non-ASCII char.
+    private void utf8(String s, int i) throws IOException {
+        byte[] rest = s.substring(i).replace("\"", "\"\"").getBytes(StandardCharsets.UTF_8);
+        for (int off = 0; off < rest.length;) {
+            ensure(1);
+            int n = Math.min(rest.length - off, buf.length - pos);
+            System.arraycopy(rest, off, buf, pos, n);
+            pos += n;
+            off += n;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package bankapp.model;
+
+/** Conversions between API-facing decimal amounts and the internal cent values. */
+public final class Money {
+    private Money() {
+    }
+
+    public static long toCents(double amount) {
+        return Math.round(amount * 100.0);
+    }
+
+    public static double toAmount(long cents) {
+        return cents / 100.0;
+    }
+}
@@ -1,5 +1,9 @@
 package bankapp.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.util.UUID;
@@ -7,19 +11,33 @@ import java.util.UUID;
 public final class Transaction implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    private final String txId;
-    private final LocalDateTime timestamp;
-    private final TransactionType type;
-    private final double amount;
-    private final double balanceAfter;
-    private final String narration;
+    // Amounts are held in cents but serialized as the original double fields.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("txId", String.class),
+            new ObjectStreamField("timestamp", LocalDateTime.class),
+            new ObjectStreamField("type", TransactionType.class),
+            new ObjectStreamField("amount", double.class),
+            new ObjectStreamField("balanceAfter", double.class),
+            new ObjectStreamField("narration", String.class) };
 
-    public Transaction(TransactionType type, double amount, double balanceAfter, String narration) {
-        this.txId = UUID.randomUUID().toString();
-        this.timestamp = LocalDateTime.now();
+    private String txId;
+    private LocalDateTime timestamp;
+    private TransactionType type;
+    private long amountCents;
+    private long balanceAfterCents;
+    private String narration;
+
+    public Transaction(TransactionType type, long amountCents, long balanceAfterCents, String narration) {
+        this(UUID.randomUUID().toString(), LocalDateTime.now(), type, amountCents, balanceAfterCents, narration);
+    }
+
+    public Transaction(String txId, LocalDateTime timestamp, TransactionType type, long amountCents,
+            long balanceAfterCents, String narration) {
+        this.txId = txId;
+        this.timestamp = timestamp;
         this.type = type;
-        this.amount = Math.round(amount * 100.0) / 100.0;
-        this.balanceAfter = Math.round(balanceAfter * 100.0) / 100.0;
+        this.amountCents = amountCents;
+        this.balanceAfterCents = balanceAfterCents;
         this.narration = narration == null ? "" : narration;
     }
 
@@ -36,11 +54,19 @@ public final class Transaction implements Serializable {
     }
 
     public double getAmount() {
-        return amount;
+        return Money.toAmount(amountCents);
     }
 
     public double getBalanceAfter() {
-        return balanceAfter;
+        return Money.toAmount(balanceAfterCents);
+    }
+
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    public long getBalanceAfterCents() {
+        return balanceAfterCents;
     }
 
     public String getNarration() {
@@ -50,4 +76,25 @@ public final class Transaction implements Serializable {
     public boolean isReversible() {
         return type == TransactionType.DEPOSIT || type == TransactionType.WITHDRAWAL;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField f = out.putFields();
+        f.put("txId", txId);
+        f.put("timestamp", timestamp);
+        f.put("type", type);
+        f.put("amount", Money.toAmount(amountCents));
+        f.put("balanceAfter", Money.toAmount(balanceAfterCents));
+        f.put("narration", narration);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField f = in.readFields();
+        txId = (String) f.get("txId", null);
+        timestamp = (LocalDateTime) f.get("timestamp", null);
+        type = (TransactionType) f.get("type", null);
+        amountCents = Money.toCents(f.get("amount", 0.0));
+        balanceAfterCents = Money.toCents(f.get("balanceAfter", 0.0));
+        narration = (String) f.get("narration", "");
+    }
 }
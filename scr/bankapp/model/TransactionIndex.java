@@ -0,0 +1,77 @@
+package bankapp.model;
+
+/**
+ * Open-addressing map from a 128-bit tx id (two longs) to the transaction's
+ * position in the account history. Slots hold {@code position + 1} so a zero
+ * slot is empty.
+ */
+final class TransactionIndex {
+    private long[] msb;
+    private long[] lsb;
+    private int[] slots;
+    private int size;
+
+    TransactionIndex(int expected) {
+        int cap = 16;
+        while (cap < expected * 2)
+            cap <<= 1;
+        allocate(cap);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void put(long hi, long lo, int position) {
+        if ((size + 1) * 2 > slots.length)
+            grow();
+        int mask = slots.length - 1;
+        int i = hash(hi, lo) & mask;
+        while (slots[i] != 0) {
+            if (msb[i] == hi && lsb[i] == lo) {
+                slots[i] = position + 1;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        msb[i] = hi;
+        lsb[i] = lo;
+        slots[i] = position + 1;
+        size++;
+    }
+
+    int get(long hi, long lo) {
+        int mask = slots.length - 1;
+        int i = hash(hi, lo) & mask;
+        while (slots[i] != 0) {
+            if (msb[i] == hi && lsb[i] == lo)
+                return slots[i] - 1;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void grow() {
+        long[] oldMsb = msb;
+        long[] oldLsb = lsb;
+        int[] oldSlots = slots;
+        allocate(oldSlots.length << 1);
+        size = 0;
+        for (int i = 0; i < oldSlots.length; i++)
+            if (oldSlots[i] != 0)
+                put(oldMsb[i], oldLsb[i], oldSlots[i] - 1);
+    }
+
+    private void allocate(int capacity) {
+        msb = new long[capacity];
+        lsb = new long[capacity];
+        slots = new int[capacity];
+    }
+
+    private static int hash(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 29));
+    }
+}
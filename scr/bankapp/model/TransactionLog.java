@@ -0,0 +1,357 @@
+package bankapp.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.UUID;
+
+/**
+ * Columnar, append-only transaction history: one primitive array per field
+ * instead of one {@link Transaction} object per row. Rows are numbered from
+ * 0 for the account's first transaction; the arrays hold rows
+ * {@code [base, size)}, older rows having been moved to a {@link ColdStore}.
+ * Rows never change once written and the arrays are replaced (never edited
+ * below {@link #size()}) when they grow or drop their head, so a
+ * {@link Cursor} taken under the owner's lock stays valid
+ * while more rows are appended.
+ */
+public final class TransactionLog {
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private Columns cols;
+    private int size;
+    private TransactionIndex index;
+
+    public TransactionLog(int capacity) {
+        this(capacity, 0, true);
+    }
+
+    /** A detached, unindexed log whose first row is {@code base}; used to read cold blocks back. */
+    public static TransactionLog detached(int capacity, int base) {
+        return new TransactionLog(capacity, base, false);
+    }
+
+    /**
+     * An empty placeholder for rows {@code [0, base)} kept elsewhere, holding
+     * no arrays; it must be replaced by the full log before anything is appended.
+     */
+    static TransactionLog startingAt(int base) {
+        return new TransactionLog(new Columns(base));
+    }
+
+    private TransactionLog(Columns empty) {
+        this.cols = empty;
+        this.size = empty.base;
+    }
+
+    private TransactionLog(int capacity, int base, boolean indexed) {
+        this.cols = new Columns(Math.max(capacity, 8), base);
+        this.size = base;
+        this.index = indexed ? new TransactionIndex(capacity) : null;
+    }
+
+    /** Total rows ever appended, including those no longer held here. */
+    public int size() {
+        return size;
+    }
+
+    /** First row still held in memory. */
+    public int base() {
+        return cols.base;
+    }
+
+    public int append(long hi, long lo, long epochMicros, TransactionType t, long amount, long balanceAfter,
+            String narr) {
+        Columns c = cols;
+        int i = size - c.base;
+        if (i == c.type.length)
+            c = cols = c.copy(c.base, c.type.length + (c.type.length >> 1));
+        c.idHigh[i] = hi;
+        c.idLow[i] = lo;
+        c.micros[i] = epochMicros;
+        c.type[i] = (byte) t.ordinal();
+        c.amountCents[i] = amount;
+        c.balanceAfterCents[i] = balanceAfter;
+        c.narration[i] = narr == null ? "" : narr;
+        if (index != null)
+            index.put(hi, lo, size);
+        return size++;
+    }
+
+    int append(Transaction t) {
+        UUID id = UUID.fromString(t.getTxId());
+        return append(id.getMostSignificantBits(), id.getLeastSignificantBits(), toMicros(t.getTimestamp()),
+                t.getType(), t.getAmountCents(), t.getBalanceAfterCents(), t.getNarration());
+    }
+
+    /** Row of the transaction with the given id among the rows held here, or -1. */
+    int find(long hi, long lo) {
+        if (index != null)
+            return index.get(hi, lo);
+        Columns c = cols;
+        for (int i = size - c.base - 1; i >= 0; i--)
+            if (c.idHigh[i] == hi && c.idLow[i] == lo)
+                return c.base + i;
+        return -1;
+    }
+
+    /** Forgets the oldest {@code n} held rows, once they are safely stored elsewhere. */
+    void dropHead(int n) {
+        Columns c = cols;
+        int newBase = c.base + n;
+        cols = c.copy(newBase, Math.max(8, (size - newBase) * 2));
+        if (index != null) {
+            TransactionIndex idx = new TransactionIndex(size - newBase);
+            for (int row = newBase; row < size; row++)
+                idx.put(cols.idHigh[row - newBase], cols.idLow[row - newBase], row);
+            index = idx;
+        }
+    }
+
+    TransactionType typeAt(int row) {
+        return TYPES[cols.type[row - cols.base]];
+    }
+
+    long microsAt(int row) {
+        return cols.micros[row - cols.base];
+    }
+
+    long amountAt(int row) {
+        return cols.amountCents[row - cols.base];
+    }
+
+    Transaction materialize(int row) {
+        return cols.transactionAt(row);
+    }
+
+    /** Cursor over held rows {@code [from, to)} as they are now. */
+    Cursor cursor(int from, int to) {
+        return new Cursor(new Part[] { new Part(from, to, cols, null, null) }, from, to);
+    }
+
+    public static long toMicros(LocalDateTime t) {
+        return t.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + t.getNano() / 1_000;
+    }
+
+    public static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+    }
+
+    static long epochDay(long micros) {
+        return Math.floorDiv(micros, 86_400_000_000L);
+    }
+
+    // One generation of the column arrays, holding rows from base.
+    private static final class Columns {
+        private static final long[] NO_LONGS = new long[0];
+        private static final byte[] NO_BYTES = new byte[0];
+        private static final String[] NO_STRINGS = new String[0];
+
+        final long[] idHigh;
+        final long[] idLow;
+        final long[] micros;
+        final long[] amountCents;
+        final long[] balanceAfterCents;
+        final byte[] type;
+        final String[] narration;
+        final int base;
+
+        Columns(int capacity, int base) {
+            this.idHigh = new long[capacity];
+            this.idLow = new long[capacity];
+            this.micros = new long[capacity];
+            this.amountCents = new long[capacity];
+            this.balanceAfterCents = new long[capacity];
+            this.type = new byte[capacity];
+            this.narration = new String[capacity];
+            this.base = base;
+        }
+
+        // Holds nothing; see startingAt
+        Columns(int base) {
+            this.idHigh = NO_LONGS;
+            this.idLow = NO_LONGS;
+            this.micros = NO_LONGS;
+            this.amountCents = NO_LONGS;
+            this.balanceAfterCents = NO_LONGS;
+            this.type = NO_BYTES;
+            this.narration = NO_STRINGS;
+            this.base = base;
+        }
+
+        private Columns(Columns from, int base, int capacity) {
+            int skip = base - from.base;
+            this.idHigh = Arrays.copyOfRange(from.idHigh, skip, skip + capacity);
+            this.idLow = Arrays.copyOfRange(from.idLow, skip, skip + capacity);
+            this.micros = Arrays.copyOfRange(from.micros, skip, skip + capacity);
+            this.amountCents = Arrays.copyOfRange(from.amountCents, skip, skip + capacity);
+            this.balanceAfterCents = Arrays.copyOfRange(from.balanceAfterCents, skip, skip + capacity);
+            this.type = Arrays.copyOfRange(from.type, skip, skip + capacity);
+            this.narration = Arrays.copyOfRange(from.narration, skip, skip + capacity);
+            this.base = base;
+        }
+
+        Columns copy(int base, int capacity) {
+            return new Columns(this, base, capacity);
+        }
+
+        Transaction transactionAt(int row) {
+            int i = row - base;
+            return new Transaction(new UUID(idHigh[i], idLow[i]).toString(), fromMicros(micros[i]), TYPES[type[i]],
+                    amountCents[i], balanceAfterCents[i], narration[i]);
+        }
+    }
+
+    // A contiguous run of rows, either already in memory or in a cold block read on demand.
+    static final class Part {
+        final int from;
+        final int to;
+        private Columns cols;
+        private final ColdBlock block;
+        private final ColdStore store;
+
+        Part(int from, int to, Columns cols, ColdBlock block, ColdStore store) {
+            this.from = from;
+            this.to = to;
+            this.cols = cols;
+            this.block = block;
+            this.store = store;
+        }
+
+        static Part cold(int from, int to, ColdBlock block, ColdStore store) {
+            return new Part(from, to, null, block, store);
+        }
+
+        static Part held(int from, int to, TransactionLog log) {
+            return new Part(from, to, log.cols, null, null);
+        }
+
+        synchronized Columns columns() {
+            if (cols == null) {
+                TransactionLog log = detached(block.getRows(), block.getFirstRow());
+                try {
+                    store.read(block, log);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot read cold history", e);
+                }
+                cols = log.cols;
+            }
+            return cols;
+        }
+    }
+
+    /**
+     * Flyweight over a range of rows: {@link #next()} moves to the following
+     * row and the accessors read the current one without allocating. Rows in
+     * cold storage are read back one block at a time as the cursor reaches them.
+     */
+    public static final class Cursor {
+        private final Part[] parts;
+        private final int from;
+        private final int to;
+        private int part;
+        private Columns cur;
+        private int row;
+        private int i;
+
+        Cursor(Part[] parts, int from, int to) {
+            this.parts = parts;
+            this.from = from;
+            this.to = to;
+            this.row = from - 1;
+            this.part = -1;
+        }
+
+        public boolean next() {
+            if (++row >= to)
+                return false;
+            while (part < 0 || row >= parts[part].to)
+                cur = parts[++part].columns();
+            i = row - cur.base;
+            return true;
+        }
+
+        public int count() {
+            return to - from;
+        }
+
+        /** Row number of the current transaction within the account history. */
+        public int row() {
+            return row;
+        }
+
+        public long idHigh() {
+            return cur.idHigh[i];
+        }
+
+        public long idLow() {
+            return cur.idLow[i];
+        }
+
+        public String txId() {
+            return new UUID(cur.idHigh[i], cur.idLow[i]).toString();
+        }
+
+        public long epochMicros() {
+            return cur.micros[i];
+        }
+
+        public LocalDateTime timestamp() {
+            return fromMicros(cur.micros[i]);
+        }
+
+        public TransactionType type() {
+            return TYPES[cur.type[i]];
+        }
+
+        public long amountCents() {
+            return cur.amountCents[i];
+        }
+
+        public long balanceAfterCents() {
+            return cur.balanceAfterCents[i];
+        }
+
+        public String narration() {
+            return cur.narration[i];
+        }
+
+        public Transaction toTransaction() {
+            return cur.transactionAt(row);
+        }
+
+        private Transaction transactionAt(int r) {
+            for (Part p : parts)
+                if (r >= p.from && r < p.to)
+                    return p.columns().transactionAt(r);
+            throw new IndexOutOfBoundsException("Row " + r);
+        }
+    }
+
+    // Read-only list over a cursor's range; a Transaction is built only when an element is read.
+    static final class View extends AbstractList<Transaction> implements RandomAccess {
+        private final Cursor cursor;
+
+        View(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public Transaction get(int i) {
+            if (i < 0 || i >= cursor.count())
+                throw new IndexOutOfBoundsException("Index: " + i);
+            return cursor.transactionAt(cursor.from + i);
+        }
+
+        @Override
+        public int size() {
+            return cursor.count();
+        }
+    }
+}
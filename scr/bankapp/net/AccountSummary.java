@@ -0,0 +1,69 @@
+package bankapp.net;
+
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.Money;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/** What {@link BankClient} sees of an account: no PIN material and no history. */
+public final class AccountSummary {
+    private final long accountNumber;
+    private final String ownerName;
+    private final AccountType type;
+    private final long balanceCents;
+    private final boolean active;
+
+    AccountSummary(long accountNumber, String ownerName, AccountType type, long balanceCents, boolean active) {
+        this.accountNumber = accountNumber;
+        this.ownerName = ownerName;
+        this.type = type;
+        this.balanceCents = balanceCents;
+        this.active = active;
+    }
+
+    static void write(DataOutput out, Account a) throws IOException {
+        out.writeLong(a.getAccountNumber());
+        out.writeUTF(a.getOwnerName());
+        out.writeByte(a.getType().ordinal());
+        out.writeLong(a.getBalanceCents());
+        out.writeBoolean(a.isActive());
+    }
+
+    static AccountSummary read(DataInput in) throws IOException {
+        return new AccountSummary(in.readLong(), in.readUTF(), AccountType.values()[in.readByte()], in.readLong(),
+                in.readBoolean());
+    }
+
+    public long getAccountNumber() {
+        return accountNumber;
+    }
+
+    public String getOwnerName() {
+        return ownerName;
+    }
+
+    public AccountType getType() {
+        return type;
+    }
+
+    public double getBalance() {
+        return Money.toAmount(balanceCents);
+    }
+
+    public long getBalanceCents() {
+        return balanceCents;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public String toString() {
+        return accountNumber + " " + ownerName + " " + type + " " + Money.toAmount(balanceCents)
+                + (active ? "" : " (inactive)");
+    }
+}
@@ -0,0 +1,425 @@
+package bankapp.net;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.Money;
+import bankapp.model.Transaction;
+import bankapp.service.Operation;
+import bankapp.service.OperationResult;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client for {@link BankServer}. Thread-safe; the {@code ...Async} methods
+ * return as soon as the request is written, so callers can keep many
+ * requests in flight on one connection. The blocking methods wait for the
+ * reply and throw the server's {@link BankException} unchanged. Money only
+ * moves out of accounts this connection has logged in to with
+ * {@link #login}; {@link #adminLogin} covers every account and the admin
+ * requests.
+ */
+public final class BankClient implements Closeable {
+    private interface Request {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private interface Reply<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private static final class Pending<T> {
+        final int id;
+        final Reply<T> reply;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Pending(int id, Reply<T> reply) {
+            this.id = id;
+            this.reply = reply;
+        }
+
+        void complete(byte status, DataInputStream in) throws IOException {
+            if (status == Protocol.OK)
+                future.complete(reply.read(in));
+            else if (status == Protocol.REJECTED)
+                future.completeExceptionally(new BankException(in.readUTF()));
+            else
+                future.completeExceptionally(new IOException("Server error: " + in.readUTF()));
+        }
+    }
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+    private final DataOutputStream payload = new DataOutputStream(body);
+    // the server answers in order, so replies match the head of this queue
+    private final Queue<Pending<?>> pending = new ConcurrentLinkedQueue<>();
+    // senders waiting for the write lock; the last one out flushes
+    private final AtomicInteger writers = new AtomicInteger();
+    private int nextId;
+    private volatile IOException failure;
+
+    public BankClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        Thread reader = new Thread(this::readLoop, "bank-client-" + socket.getLocalPort());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private <T> CompletableFuture<T> send(byte op, Request request, Reply<T> reply) {
+        writers.incrementAndGet();
+        Pending<T> p;
+        synchronized (out) {
+            boolean last = writers.decrementAndGet() == 0;
+            try {
+                if (failure != null)
+                    throw failure;
+                body.reset();
+                request.write(payload);
+                p = new Pending<>(nextId++, reply);
+                pending.add(p);
+                out.writeInt(5 + body.size());
+                out.writeInt(p.id);
+                out.writeByte(op);
+                body.writeTo(out);
+                if (last)
+                    out.flush();
+            } catch (IOException e) {
+                fail(e);
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return p.future;
+    }
+
+    private void readLoop() {
+        byte[] frame = new byte[256];
+        try {
+            while (true) {
+                int len = in.readInt();
+                if (len < 5 || len > Protocol.MAX_FRAME)
+                    throw new IOException("Bad frame length " + len);
+                if (frame.length < len)
+                    frame = new byte[Math.max(len, frame.length * 2)];
+                in.readFully(frame, 0, len);
+                DataInputStream reply = new DataInputStream(new ByteArrayInputStream(frame, 0, len));
+                int id = reply.readInt();
+                Pending<?> p = pending.poll();
+                if (p == null || p.id != id)
+                    throw new IOException("Reply " + id + " does not match a pending request");
+                p.complete(reply.readByte(), reply);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        if (failure == null)
+            failure = e;
+        for (Pending<?> p; (p = pending.poll()) != null;)
+            p.future.completeExceptionally(failure);
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /** Lets this connection deposit to, withdraw from and transfer out of {@code accountNumber}. */
+    public CompletableFuture<Void> loginAsync(long accountNumber, String pin) {
+        return send(Protocol.LOGIN, out -> {
+            out.writeLong(accountNumber);
+            out.writeUTF(pin);
+        }, in -> null);
+    }
+
+    public void login(long accountNumber, String pin) throws BankException, IOException {
+        await(loginAsync(accountNumber, pin));
+    }
+
+    /** Makes this connection an admin session, as the router's connections to its nodes are. */
+    public void adminLogin(String user, String pass) throws BankException, IOException {
+        await(send(Protocol.ADMIN_LOGIN, out -> {
+            out.writeUTF(user);
+            out.writeUTF(pass);
+        }, in -> null));
+    }
+
+    public AccountSummary createAccount(String owner, AccountType type, String pin, double openingDeposit)
+            throws BankException, IOException {
+        return await(send(Protocol.CREATE, out -> {
+            out.writeUTF(owner);
+            out.writeByte(type.ordinal());
+            out.writeUTF(pin);
+            out.writeDouble(openingDeposit);
+        }, AccountSummary::read));
+    }
+
+    /** Null when there is no such account. */
+    public CompletableFuture<AccountSummary> getAccountAsync(long accountNumber) {
+        return send(Protocol.ACCOUNT, out -> out.writeLong(accountNumber),
+                in -> in.readBoolean() ? AccountSummary.read(in) : null);
+    }
+
+    public AccountSummary getAccount(long accountNumber) throws BankException, IOException {
+        return await(getAccountAsync(accountNumber));
+    }
+
+    public CompletableFuture<Void> depositAsync(long accountNumber, double amount, String narration) {
+        return send(Protocol.DEPOSIT, out -> {
+            out.writeLong(accountNumber);
+            out.writeDouble(amount);
+            Protocol.writeNullable(out, narration);
+        }, in -> null);
+    }
+
+    public void deposit(long accountNumber, double amount, String narration) throws BankException, IOException {
+        await(depositAsync(accountNumber, amount, narration));
+    }
+
+    public CompletableFuture<Void> withdrawAsync(long accountNumber, double amount, String narration) {
+        return send(Protocol.WITHDRAW, out -> {
+            out.writeLong(accountNumber);
+            out.writeDouble(amount);
+            Protocol.writeNullable(out, narration);
+        }, in -> null);
+    }
+
+    public void withdraw(long accountNumber, double amount, String narration) throws BankException, IOException {
+        await(withdrawAsync(accountNumber, amount, narration));
+    }
+
+    public CompletableFuture<Void> transferAsync(long fromAcc, long toAcc, double amount, String narration) {
+        return send(Protocol.TRANSFER, out -> {
+            out.writeLong(fromAcc);
+            out.writeLong(toAcc);
+            out.writeDouble(amount);
+            Protocol.writeNullable(out, narration);
+        }, in -> null);
+    }
+
+    public void transfer(long fromAcc, long toAcc, double amount, String narration) throws BankException, IOException {
+        await(transferAsync(fromAcc, toAcc, amount, narration));
+    }
+
+    public void reverseTransaction(long accountNumber, String txId) throws BankException, IOException {
+        await(send(Protocol.REVERSE, out -> {
+            out.writeLong(accountNumber);
+            out.writeUTF(txId);
+        }, in -> null));
+    }
+
+    public void setAccountActive(long accountNumber, boolean active) throws BankException, IOException {
+        await(send(Protocol.SET_ACTIVE, out -> {
+            out.writeLong(accountNumber);
+            out.writeBoolean(active);
+        }, in -> null));
+    }
+
+    public void changePin(long accountNumber, String currentPin, String newPin) throws BankException, IOException {
+        await(send(Protocol.CHANGE_PIN, out -> {
+            out.writeLong(accountNumber);
+            out.writeUTF(currentPin);
+            out.writeUTF(newPin);
+        }, in -> null));
+    }
+
+    /**
+     * Checks the PIN with a login, so on success this connection stays logged
+     * in to the account. Fails rather than answering false while the server
+     * has the account locked out after failed logins.
+     */
+    public CompletableFuture<Boolean> verifyPinAsync(long accountNumber, String pin) {
+        return accepted(loginAsync(accountNumber, pin));
+    }
+
+    public boolean verifyPin(long accountNumber, String pin) throws BankException, IOException {
+        return await(verifyPinAsync(accountNumber, pin));
+    }
+
+    /** Owners containing {@code query}; the server caps a page at 1000 accounts. */
+    public List<AccountSummary> searchByOwner(String query, int offset, int limit) throws BankException, IOException {
+        return await(send(Protocol.SEARCH, out -> {
+            out.writeUTF(query);
+            out.writeInt(offset);
+            out.writeInt(limit);
+        }, in -> {
+            int n = in.readInt();
+            List<AccountSummary> found = new ArrayList<>(n);
+            for (int i = 0; i < n; i++)
+                found.add(AccountSummary.read(in));
+            return found;
+        }));
+    }
+
+    /** Most recent {@code n} transactions, oldest first; capped at 1000. */
+    public List<Transaction> getLastNTransactions(long accountNumber, int n) throws BankException, IOException {
+        return await(send(Protocol.HISTORY, out -> {
+            out.writeLong(accountNumber);
+            out.writeInt(n);
+        }, in -> {
+            int count = in.readInt();
+            List<Transaction> txs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                txs.add(Protocol.readTransaction(in));
+            return txs;
+        }));
+    }
+
+    /** {accounts, balance in cents, active accounts}. */
+    public long[] totals() throws BankException, IOException {
+        return await(send(Protocol.TOTALS, out -> {
+        }, in -> new long[] { in.readInt(), in.readLong(), in.readInt() }));
+    }
+
+    public double totalBalances() throws BankException, IOException {
+        return Money.toAmount(totals()[1]);
+    }
+
+    /** A detached copy of the account with its last {@code history} transactions, or null. */
+    public Account getAccountView(long accountNumber, int history) throws BankException, IOException {
+        return await(send(Protocol.VIEW, out -> {
+            out.writeLong(accountNumber);
+            out.writeInt(history);
+        }, in -> in.readBoolean() ? Protocol.readView(in) : null));
+    }
+
+    /** Like {@link #searchByOwner}, as detached copies carrying their latest transaction. */
+    public List<Account> searchViews(String query, boolean prefix, int offset, int limit)
+            throws BankException, IOException {
+        return await(send(Protocol.SEARCH_VIEWS, out -> {
+            out.writeUTF(query);
+            out.writeBoolean(prefix);
+            out.writeInt(offset);
+            out.writeInt(limit);
+        }, in -> {
+            int n = in.readInt();
+            List<Account> found = new ArrayList<>(n);
+            for (int i = 0; i < n; i++)
+                found.add(Protocol.readView(in));
+            return found;
+        }));
+    }
+
+    public List<OperationResult> applyBatch(List<Operation> ops, boolean allOrNothing)
+            throws BankException, IOException {
+        return await(send(Protocol.BATCH, out -> {
+            out.writeBoolean(allOrNothing);
+            out.writeInt(ops.size());
+            for (Operation op : ops)
+                Protocol.writeOperation(out, op);
+        }, in -> {
+            int n = in.readInt();
+            List<OperationResult> results = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                String error = Protocol.readNullable(in);
+                results.add(error == null ? OperationResult.ok(ops.get(i)) : OperationResult.failed(ops.get(i), error));
+            }
+            return results;
+        }));
+    }
+
+    /** Checks the credentials with an admin login, which on success this connection stays. */
+    public CompletableFuture<Boolean> isAdminCredentialsAsync(String user, String pass) {
+        return accepted(send(Protocol.ADMIN_LOGIN, out -> {
+            out.writeUTF(user);
+            out.writeUTF(pass);
+        }, in -> null));
+    }
+
+    // True once the login is accepted, false if the credentials are wrong; any other failure passes through.
+    private static CompletableFuture<Boolean> accepted(CompletableFuture<Void> login) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        login.whenComplete((v, e) -> {
+            if (e == null)
+                result.complete(true);
+            else if (e instanceof BankException && Protocol.AUTH_FAILED.equals(e.getMessage()))
+                result.complete(false);
+            else
+                result.completeExceptionally(e);
+        });
+        return result;
+    }
+
+    public boolean isAdminCredentials(String user, String pass) throws BankException, IOException {
+        return await(isAdminCredentialsAsync(user, pass));
+    }
+
+    /** {minimum opening deposit, daily withdrawal limit}. */
+    public double[] limits() throws BankException, IOException {
+        return await(send(Protocol.LIMITS, out -> {
+        }, in -> new double[] { in.readDouble(), in.readDouble() }));
+    }
+
+    /** Refused unless {@code user} and {@code currentPass} are the admin credentials now. */
+    public void setAdminPassword(String user, String currentPass, String newPass) throws BankException, IOException {
+        await(send(Protocol.SET_ADMIN, out -> {
+            out.writeUTF(user);
+            out.writeUTF(currentPass);
+            out.writeUTF(newPass);
+        }, in -> null));
+    }
+
+    /** Phase one of a cross-node transfer on the node owning {@code accountNumber}. */
+    public CompletableFuture<Void> prepareAsync(String txId, long accountNumber, long counterparty, long cents,
+            boolean debit, String narration) {
+        return send(Protocol.PREPARE, out -> {
+            out.writeUTF(txId);
+            out.writeLong(accountNumber);
+            out.writeLong(counterparty);
+            out.writeLong(cents);
+            out.writeBoolean(debit);
+            Protocol.writeNullable(out, narration);
+        }, in -> null);
+    }
+
+    public CompletableFuture<Void> commitAsync(String txId) {
+        return send(Protocol.COMMIT, out -> out.writeUTF(txId), in -> null);
+    }
+
+    public CompletableFuture<Void> abortAsync(String txId) {
+        return send(Protocol.ABORT, out -> out.writeUTF(txId), in -> null);
+    }
+
+    /** Waits for a future from one of the async methods, rethrowing what the server rejected it with. */
+    public static <T> T await(CompletableFuture<T> f) throws BankException, IOException {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof BankException)
+                throw (BankException) e.getCause();
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw e;
+        }
+    }
+
+    /** False once the connection has failed or been closed. */
+    public boolean isOpen() {
+        return failure == null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fail(new IOException("Client closed"));
+    }
+}
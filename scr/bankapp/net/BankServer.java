@@ -0,0 +1,455 @@
+package bankapp.net;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.Money;
+import bankapp.model.Transaction;
+import bankapp.service.BankService;
+import bankapp.service.Operation;
+import bankapp.service.OperationResult;
+import bankapp.service.TransferParticipant;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Serves a {@link BankService} over the {@link Protocol} framing, one thread
+ * per connection. Each connection handles its requests in order and only
+ * flushes when the client has nothing more buffered, so a pipelining client
+ * gets its responses back in batches. Virtual threads are used when the JVM
+ * has them; on older JVMs each connection gets a small-stack platform thread.
+ * <p>
+ * A connection is a session, as in the console: deposits, withdrawals,
+ * transfers, batches, PIN changes and an account's transactions are only
+ * available for accounts whose PIN it gave in a login, and freezing,
+ * reversals and the cross-node transfer phases only after an admin login,
+ * which also covers every account. Logins are the only way to check a PIN
+ * or the admin password. After a few failed attempts an account, or the
+ * admin, is locked out for a while, on every connection, and the lockout
+ * doubles with each further failure; a connection that is not an admin
+ * session also gets only a fixed number of failed logins in all.
+ */
+public final class BankServer implements Closeable {
+    // results per search or history request, so a response always fits a frame
+    private static final int MAX_ROWS = 1_000;
+    // failed logins before an account or the admin is locked out, and per connection in all
+    private static final int MAX_FAILURES = 5;
+    private static final int MAX_SESSION_FAILURES = 20;
+    private static final long LOCKOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long MAX_LOCKOUT_NANOS = TimeUnit.MINUTES.toNanos(30);
+    // the admin's failures are counted under this, as no account has it for a number
+    private static final long ADMIN_KEY = Long.MIN_VALUE;
+    private static final Method START_VIRTUAL = startVirtualMethod();
+
+    private final BankService service;
+    private final ServerSocket socket;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final Throttle throttle = new Throttle();
+    private volatile TransferParticipant participant;
+    private volatile boolean closed;
+
+    /** Binds to {@code port} on the loopback interface; 0 picks a free port. */
+    public BankServer(BankService service, int port) throws IOException {
+        this(service, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public BankServer(BankService service, InetSocketAddress address) throws IOException {
+        this.service = service;
+        this.socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(address, 1024);
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /** Makes this server a node of a partitioned deployment, taking part in cross-node transfers. */
+    public BankServer setParticipant(TransferParticipant p) {
+        this.participant = p;
+        return this;
+    }
+
+    // What one connection has logged in to.
+    private static final class Session {
+        final Set<Long> accounts = new HashSet<>();
+        boolean admin;
+        int failures;
+
+        void requireAccount(long accountNumber) throws BankException {
+            if (!admin && !accounts.contains(accountNumber))
+                throw new BankException("Login to account " + accountNumber + " required");
+        }
+
+        void requireAdmin() throws BankException {
+            if (!admin)
+                throw new BankException("Admin login required");
+        }
+    }
+
+    // Failed logins per account, and the admin's, across every connection.
+    private static final class Throttle {
+        private static final class Failures {
+            final int count;
+            final long last;
+
+            Failures(int count, long last) {
+                this.count = count;
+                this.last = last;
+            }
+
+            long lockedUntil() {
+                if (count < MAX_FAILURES)
+                    return last;
+                int doublings = Math.min(count - MAX_FAILURES, 16);
+                return last + Math.min(LOCKOUT_NANOS << doublings, MAX_LOCKOUT_NANOS);
+            }
+        }
+
+        private final ConcurrentHashMap<Long, Failures> failures = new ConcurrentHashMap<>();
+
+        void check(long key) throws BankException {
+            Failures f = failures.get(key);
+            if (f != null && f.lockedUntil() - System.nanoTime() > 0)
+                throw new BankException("Too many failed logins, try again later");
+        }
+
+        void failed(long key) {
+            long now = System.nanoTime();
+            // a run of failures long past its lockout is forgotten, so guesses at unknown numbers do not pile up
+            if (failures.size() > 100_000)
+                failures.values().removeIf(f -> now - f.lockedUntil() > MAX_LOCKOUT_NANOS);
+            failures.merge(key, new Failures(1, now), (f, g) -> new Failures(f.count + 1, now));
+        }
+
+        void succeeded(long key) {
+            failures.remove(key);
+        }
+    }
+
+    // Runs a credential check unless key or the session is locked out, and counts a failure against both.
+    private void authenticate(Session session, long key, Supplier<CompletableFuture<Boolean>> check)
+            throws BankException {
+        if (!session.admin && session.failures >= MAX_SESSION_FAILURES)
+            throw new BankException("Too many failed logins on this connection");
+        throttle.check(key);
+        if (verified(check.get())) {
+            throttle.succeeded(key);
+            return;
+        }
+        throttle.failed(key);
+        session.failures++;
+        throw new BankException(Protocol.AUTH_FAILED);
+    }
+
+    private TransferParticipant participant() throws BankException {
+        TransferParticipant p = participant;
+        if (p == null)
+            throw new BankException("Not a cluster node");
+        return p;
+    }
+
+    public static boolean virtualThreads() {
+        return START_VIRTUAL != null;
+    }
+
+    public BankServer start() {
+        Thread acceptor = new Thread(this::acceptLoop, "bank-server-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket s = socket.accept();
+                s.setTcpNoDelay(true);
+                connections.add(s);
+                spawn(() -> serve(s), "bank-conn-" + s.getPort());
+            } catch (IOException e) {
+                if (!closed)
+                    System.err.println("Accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static Method startVirtualMethod() {
+        try {
+            return Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static void spawn(Runnable r, String name) {
+        if (START_VIRTUAL != null) {
+            try {
+                START_VIRTUAL.invoke(null, r);
+                return;
+            } catch (ReflectiveOperationException e) {
+                // fall through to a platform thread
+            }
+        }
+        Thread t = new Thread(null, r, name, 256 * 1024);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void serve(Socket s) {
+        try (s) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64 * 1024));
+            ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+            DataOutputStream payload = new DataOutputStream(body);
+            byte[] frame = new byte[256];
+            Session session = new Session();
+            while (true) {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (len < 5 || len > Protocol.MAX_FRAME)
+                    throw new IOException("Bad frame length " + len);
+                if (frame.length < len)
+                    frame = new byte[Math.max(len, frame.length * 2)];
+                in.readFully(frame, 0, len);
+                DataInputStream req = new DataInputStream(new ByteArrayInputStream(frame, 0, len));
+                int id = req.readInt();
+                byte op = req.readByte();
+                body.reset();
+                byte status;
+                try {
+                    handle(op, req, payload, session);
+                    status = Protocol.OK;
+                } catch (BankException e) {
+                    status = Protocol.REJECTED;
+                    body.reset();
+                    payload.writeUTF(String.valueOf(e.getMessage()));
+                } catch (IOException | RuntimeException e) {
+                    status = Protocol.FAILED;
+                    body.reset();
+                    payload.writeUTF(e.getClass().getSimpleName() + ": " + e.getMessage());
+                }
+                out.writeInt(5 + body.size());
+                out.writeInt(id);
+                out.writeByte(status);
+                body.writeTo(out);
+                if (in.available() == 0)
+                    out.flush();
+            }
+        } catch (SocketException e) {
+            // peer went away or the server is closing
+        } catch (IOException e) {
+            if (!closed)
+                System.err.println("Connection " + s.getRemoteSocketAddress() + " dropped: " + e.getMessage());
+        } finally {
+            connections.remove(s);
+        }
+    }
+
+    private void handle(byte op, DataInputStream in, DataOutputStream out, Session session)
+            throws BankException, IOException {
+        switch (op) {
+            case Protocol.CREATE: {
+                String owner = in.readUTF();
+                AccountType type = AccountType.values()[in.readByte()];
+                String pin = in.readUTF();
+                Account a = service.createAccount(owner, type, pin, in.readDouble());
+                AccountSummary.write(out, a);
+                break;
+            }
+            case Protocol.ACCOUNT: {
+                Account a = service.getAccount(in.readLong());
+                out.writeBoolean(a != null);
+                if (a != null)
+                    AccountSummary.write(out, a);
+                break;
+            }
+            case Protocol.LOGIN: {
+                long accountNumber = in.readLong();
+                String pin = in.readUTF();
+                authenticate(session, accountNumber, () -> service.verifyPinAsync(accountNumber, pin));
+                // an admin session, like the router's, covers the account already
+                if (!session.admin)
+                    session.accounts.add(accountNumber);
+                break;
+            }
+            case Protocol.ADMIN_LOGIN: {
+                String user = in.readUTF();
+                String pass = in.readUTF();
+                authenticate(session, ADMIN_KEY, () -> service.isAdminCredentialsAsync(user, pass));
+                session.admin = true;
+                break;
+            }
+            case Protocol.DEPOSIT: {
+                long accountNumber = in.readLong();
+                session.requireAccount(accountNumber);
+                service.deposit(accountNumber, in.readDouble(), Protocol.readNullable(in));
+                break;
+            }
+            case Protocol.WITHDRAW: {
+                long accountNumber = in.readLong();
+                session.requireAccount(accountNumber);
+                service.withdraw(accountNumber, in.readDouble(), Protocol.readNullable(in));
+                break;
+            }
+            case Protocol.TRANSFER: {
+                long fromAcc = in.readLong();
+                session.requireAccount(fromAcc);
+                service.transfer(fromAcc, in.readLong(), in.readDouble(), Protocol.readNullable(in));
+                break;
+            }
+            case Protocol.REVERSE:
+                session.requireAdmin();
+                service.reverseTransaction(in.readLong(), in.readUTF());
+                break;
+            case Protocol.SET_ACTIVE:
+                session.requireAdmin();
+                service.setAccountActive(in.readLong(), in.readBoolean());
+                break;
+            case Protocol.CHANGE_PIN: {
+                long accountNumber = in.readLong();
+                session.requireAccount(accountNumber);
+                service.changePin(accountNumber, in.readUTF(), in.readUTF());
+                break;
+            }
+            case Protocol.SEARCH: {
+                String query = in.readUTF();
+                int offset = in.readInt();
+                List<Account> found = service.searchByOwner(query, offset, Math.min(in.readInt(), MAX_ROWS));
+                out.writeInt(found.size());
+                for (Account a : found)
+                    AccountSummary.write(out, a);
+                break;
+            }
+            case Protocol.HISTORY: {
+                long accountNumber = in.readLong();
+                session.requireAccount(accountNumber);
+                Account a = service.getAccount(accountNumber);
+                if (a == null)
+                    throw new BankException("Account not found");
+                List<Transaction> txs = a.getLastNTransactions(Math.min(in.readInt(), MAX_ROWS));
+                out.writeInt(txs.size());
+                for (Transaction t : txs)
+                    Protocol.writeTransaction(out, t);
+                break;
+            }
+            case Protocol.TOTALS:
+                out.writeInt(service.totalAccounts());
+                out.writeLong(Money.toCents(service.totalBalances()));
+                out.writeInt(service.countActiveAccounts());
+                break;
+            case Protocol.VIEW: {
+                long accountNumber = in.readLong();
+                session.requireAccount(accountNumber);
+                Account a = service.getAccount(accountNumber);
+                int history = Math.min(in.readInt(), MAX_ROWS);
+                out.writeBoolean(a != null);
+                if (a != null)
+                    Protocol.writeView(out, a, history);
+                break;
+            }
+            case Protocol.SEARCH_VIEWS: {
+                // views carry a transaction of every account found
+                session.requireAdmin();
+                String query = in.readUTF();
+                boolean prefix = in.readBoolean();
+                int offset = in.readInt();
+                int limit = Math.min(in.readInt(), MAX_ROWS);
+                List<Account> found = prefix ? service.searchByOwnerPrefix(query, offset, limit)
+                        : service.searchByOwner(query, offset, limit);
+                out.writeInt(found.size());
+                for (Account a : found)
+                    Protocol.writeView(out, a, 1);
+                break;
+            }
+            case Protocol.BATCH: {
+                boolean allOrNothing = in.readBoolean();
+                int n = in.readInt();
+                if (n < 0 || n > MAX_ROWS)
+                    throw new BankException("Batch too large");
+                List<Operation> ops = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    Operation o = Protocol.readOperation(in);
+                    session.requireAccount(o.getAccountNumber());
+                    ops.add(o);
+                }
+                List<OperationResult> results = service.applyBatch(ops, allOrNothing);
+                out.writeInt(results.size());
+                for (OperationResult r : results)
+                    Protocol.writeNullable(out, r.getError());
+                break;
+            }
+            case Protocol.LIMITS:
+                out.writeDouble(service.getMinOpeningDeposit());
+                out.writeDouble(service.getDailyWithdrawalLimit());
+                break;
+            case Protocol.SET_ADMIN: {
+                // the current credentials, not just an admin session, as a session may be long-lived
+                String user = in.readUTF();
+                String current = in.readUTF();
+                String next = in.readUTF();
+                authenticate(session, ADMIN_KEY, () -> service.isAdminCredentialsAsync(user, current));
+                service.setAdminPassword(next);
+                break;
+            }
+            case Protocol.PREPARE:
+                session.requireAdmin();
+                participant().prepare(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readBoolean(),
+                        Protocol.readNullable(in));
+                break;
+            case Protocol.COMMIT:
+                session.requireAdmin();
+                participant().commit(in.readUTF());
+                break;
+            case Protocol.ABORT:
+                session.requireAdmin();
+                participant().abort(in.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown opcode " + op);
+        }
+    }
+
+    private static boolean verified(CompletableFuture<Boolean> check) throws BankException {
+        try {
+            return check.join();
+        } catch (CompletionException e) {
+            throw new BankException("PIN verification unavailable, try again");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        socket.close();
+        for (Socket s : connections)
+            s.close();
+    }
+}
@@ -0,0 +1,137 @@
+package bankapp.net;
+
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.Transaction;
+import bankapp.model.TransactionType;
+import bankapp.service.Operation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Wire format shared by {@link BankServer} and {@link BankClient}. Every
+ * message is a frame: a 4-byte length counting the bytes that follow, a
+ * 4-byte request id, then a request opcode or a response status, then the
+ * payload in {@link java.io.DataOutput} encoding. Responses come back in
+ * request order and echo the id, so a client may pipeline any number of
+ * requests on one connection. Moving money or reading an account's
+ * transactions needs a {@code LOGIN} to the account on the same connection
+ * first, and admin requests an {@code ADMIN_LOGIN}.
+ */
+final class Protocol {
+    static final int MAX_FRAME = 1 << 20;
+
+    static final byte CREATE = 1;
+    static final byte ACCOUNT = 2;
+    static final byte DEPOSIT = 3;
+    static final byte WITHDRAW = 4;
+    static final byte TRANSFER = 5;
+    static final byte REVERSE = 6;
+    static final byte SET_ACTIVE = 7;
+    static final byte CHANGE_PIN = 8;
+    // 9 was a bare PIN check, now only possible through LOGIN
+    static final byte SEARCH = 10;
+    static final byte HISTORY = 11;
+    static final byte TOTALS = 12;
+    // used by RoutingBankService
+    static final byte VIEW = 13;
+    static final byte SEARCH_VIEWS = 14;
+    static final byte BATCH = 15;
+    // 16 was a bare admin password check, now only possible through ADMIN_LOGIN
+    static final byte SET_ADMIN = 17;
+    static final byte PREPARE = 18;
+    static final byte COMMIT = 19;
+    static final byte ABORT = 20;
+    static final byte LIMITS = 21;
+    static final byte LOGIN = 22;
+    static final byte ADMIN_LOGIN = 23;
+
+    static final byte OK = 0;
+    // a BankException; the payload is its message
+    static final byte REJECTED = 1;
+    // malformed request or server fault; the payload is a message
+    static final byte FAILED = 2;
+
+    // the REJECTED message of a LOGIN or ADMIN_LOGIN with wrong credentials
+    static final String AUTH_FAILED = "Auth failed";
+
+    private Protocol() {
+    }
+
+    static void writeNullable(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    static String readNullable(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeTransaction(DataOutput out, Transaction t) throws IOException {
+        out.writeUTF(t.getTxId());
+        out.writeUTF(t.getTimestamp().toString());
+        out.writeByte(t.getType().ordinal());
+        out.writeLong(t.getAmountCents());
+        out.writeLong(t.getBalanceAfterCents());
+        out.writeUTF(t.getNarration());
+    }
+
+    // An account with its most recent transactions and no PIN material.
+    static void writeView(DataOutput out, Account a, int history) throws IOException {
+        out.writeLong(a.getAccountNumber());
+        out.writeUTF(a.getOwnerName());
+        out.writeByte(a.getType().ordinal());
+        out.writeUTF(a.getCreatedAt().toString());
+        out.writeBoolean(a.isActive());
+        List<Transaction> txs = a.getLastNTransactions(history);
+        out.writeInt(txs.size());
+        for (Transaction t : txs)
+            writeTransaction(out, t);
+    }
+
+    /** A detached copy; its balance is the last transaction's, its history only what was sent. */
+    static Account readView(DataInput in) throws IOException {
+        Account a = new Account(in.readLong(), in.readUTF(), AccountType.values()[in.readByte()], "", "",
+                LocalDateTime.parse(in.readUTF()));
+        boolean active = in.readBoolean();
+        for (int n = in.readInt(); n > 0; n--)
+            a.addTransactionInternal(readTransaction(in));
+        if (!active)
+            a.setActive(false);
+        return a;
+    }
+
+    static void writeOperation(DataOutput out, Operation op) throws IOException {
+        out.writeByte(op.getKind().ordinal());
+        out.writeLong(op.getAccountNumber());
+        out.writeLong(op.getToAccountNumber());
+        out.writeDouble(op.getAmount());
+        writeNullable(out, op.getNarration());
+    }
+
+    static Operation readOperation(DataInput in) throws IOException {
+        Operation.Kind kind = Operation.Kind.values()[in.readByte()];
+        long acc = in.readLong();
+        long to = in.readLong();
+        double amount = in.readDouble();
+        String narration = readNullable(in);
+        switch (kind) {
+            case DEPOSIT:
+                return Operation.deposit(acc, amount, narration);
+            case WITHDRAW:
+                return Operation.withdraw(acc, amount, narration);
+            default:
+                return Operation.transfer(acc, to, amount, narration);
+        }
+    }
+
+    static Transaction readTransaction(DataInput in) throws IOException {
+        return new Transaction(in.readUTF(), LocalDateTime.parse(in.readUTF()),
+                TransactionType.values()[in.readByte()], in.readLong(), in.readLong(), in.readUTF());
+    }
+}
@@ -0,0 +1,560 @@
+package bankapp.net;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.Money;
+import bankapp.persistence.IntentLog;
+import bankapp.persistence.IntentLog.Intent;
+import bankapp.persistence.IntentLog.State;
+import bankapp.service.BankService;
+import bankapp.service.Operation;
+import bankapp.service.OperationResult;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link BankService} over a partitioned deployment: node {@code i} is a
+ * {@code BankApp --node i} process owning the account numbers
+ * [{@link #firstAccount}(i), {@link #firstAccount}(i + 1)), and each call
+ * goes to the node owning its account. A transfer between nodes runs two
+ * phases: this router logs its intent, has the source node hold the funds
+ * and the target node accept the credit, logs the decision, then tells both
+ * to commit or abort. Once the commit decision is logged the transfer has
+ * happened, even if a node misses the decision. Unfinished transfers are
+ * driven to their decision by {@link #recover()}, which runs on
+ * construction and then every second in the background until
+ * {@link #close()}; one that never reached a decision is aborted.
+ * <p>
+ * Accounts returned are detached copies carrying their latest transactions
+ * and no PIN material. The router is trusted with the nodes' admin
+ * credentials and logs in with them on every connection; callers are
+ * expected to have authenticated their users already.
+ */
+public final class RoutingBankService implements BankService, Closeable {
+    private static final long serialVersionUID = 1L;
+    public static final long FIRST_ACCOUNT = 1_000_000_000L;
+    public static final long RANGE = 100_000_000L;
+    // transactions carried by an account returned from getAccount
+    private static final int VIEW_HISTORY = 1_000;
+    private static final int PAGE = 1_000;
+    private static final long RECOVERY_MILLIS = 1_000L;
+
+    private final InetSocketAddress[] addresses;
+    private final BankClient[] nodes;
+    private final IntentLog intents;
+    // transfers this router is still running, which recovery must leave alone
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    // one recovery pass at a time
+    private final Object recovering = new Object();
+    private final Thread recovery;
+    // not an interrupt, which would close the intent log's channel under a write
+    private final CountDownLatch closing = new CountDownLatch(1);
+    private final AtomicInteger nextNode = new AtomicInteger();
+    private final LongAdder undelivered = new LongAdder();
+    private final double minOpeningDeposit;
+    private final double dailyWithdrawalLimit;
+    private final String adminUser;
+    private volatile String adminPass;
+
+    public RoutingBankService(List<InetSocketAddress> addresses, Path intentLog, String adminUser, String adminPass)
+            throws IOException {
+        this.adminUser = adminUser;
+        this.adminPass = adminPass;
+        this.addresses = addresses.toArray(new InetSocketAddress[0]);
+        this.nodes = new BankClient[this.addresses.length];
+        this.intents = new IntentLog(intentLog);
+        try {
+            double[] limits = node(0).limits();
+            minOpeningDeposit = limits[0];
+            dailyWithdrawalLimit = limits[1];
+        } catch (BankException e) {
+            throw new IOException(e.getMessage());
+        }
+        recover();
+        recovery = new Thread(this::retryUnfinished, "intent-recovery");
+        recovery.setDaemon(true);
+        recovery.start();
+    }
+
+    // Delivers decisions a node missed, so its held funds are not stuck until the router restarts.
+    private void retryUnfinished() {
+        try {
+            while (!closing.await(RECOVERY_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!intents.pending().isEmpty())
+                    recover();
+            }
+        } catch (InterruptedException e) {
+            // daemon thread; nobody else interrupts it
+        }
+    }
+
+    public static long firstAccount(int node) {
+        return FIRST_ACCOUNT + node * RANGE;
+    }
+
+    private int nodeOf(long accountNumber) {
+        long i = (accountNumber - FIRST_ACCOUNT) / RANGE;
+        return accountNumber < FIRST_ACCOUNT || i >= nodes.length ? -1 : (int) i;
+    }
+
+    // Admin session on a node, reopened if it dropped.
+    private synchronized BankClient node(int i) throws IOException {
+        BankClient c = nodes[i];
+        if (c == null || !c.isOpen()) {
+            c = new BankClient(addresses[i].getHostString(), addresses[i].getPort());
+            try {
+                c.adminLogin(adminUser, adminPass);
+            } catch (BankException e) {
+                c.close();
+                throw new IOException("Admin login refused: " + e.getMessage());
+            }
+            nodes[i] = c;
+        }
+        return c;
+    }
+
+    private BankClient owner(long accountNumber) throws BankException {
+        int i = nodeOf(accountNumber);
+        if (i < 0)
+            throw new BankException("Account not found");
+        try {
+            return node(i);
+        } catch (IOException e) {
+            throw unreachable(i, e);
+        }
+    }
+
+    private static BankException unreachable(int node, IOException e) {
+        return new BankException("Node " + node + " unreachable: " + e.getMessage());
+    }
+
+    private BankException unreachable(long accountNumber, IOException e) {
+        return unreachable(nodeOf(accountNumber), e);
+    }
+
+    // For the BankService methods that cannot throw a BankException.
+    private static UncheckedIOException unchecked(BankException e) {
+        return new UncheckedIOException(new IOException(e.getMessage(), e));
+    }
+
+    @Override
+    public Account createAccount(String owner, AccountType type, String pin, double openingDeposit)
+            throws BankException {
+        int i = Math.floorMod(nextNode.getAndIncrement(), nodes.length);
+        try {
+            BankClient c = node(i);
+            return c.getAccountView(c.createAccount(owner, type, pin, openingDeposit).getAccountNumber(), VIEW_HISTORY);
+        } catch (IOException e) {
+            throw unreachable(i, e);
+        }
+    }
+
+    @Override
+    public Account getAccount(long accountNumber) {
+        try {
+            return nodeOf(accountNumber) < 0 ? null : owner(accountNumber).getAccountView(accountNumber, VIEW_HISTORY);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (BankException e) {
+            throw unchecked(e);
+        }
+    }
+
+    @Override
+    public void deposit(long accountNumber, double amount, String narration) throws BankException {
+        try {
+            owner(accountNumber).deposit(accountNumber, amount, narration);
+        } catch (IOException e) {
+            throw unreachable(accountNumber, e);
+        }
+    }
+
+    @Override
+    public void withdraw(long accountNumber, double amount, String narration) throws BankException {
+        try {
+            owner(accountNumber).withdraw(accountNumber, amount, narration);
+        } catch (IOException e) {
+            throw unreachable(accountNumber, e);
+        }
+    }
+
+    /**
+     * Between nodes, returning normally means the commit decision is durable
+     * in the intent log, not that both nodes have applied it: a node that
+     * missed the decision gets it from {@link #recover()}, and until then the
+     * transfer counts in {@link #unfinished()} and
+     * {@link #getUndeliveredDecisions()}.
+     */
+    @Override
+    public void transfer(long fromAcc, long toAcc, double amount, String narration) throws BankException {
+        // by node, not connection: a node reconnected in between has a new client
+        if (nodeOf(fromAcc) == nodeOf(toAcc)) {
+            try {
+                owner(fromAcc).transfer(fromAcc, toAcc, amount, narration);
+            } catch (IOException e) {
+                throw unreachable(fromAcc, e);
+            }
+            return;
+        }
+        BankClient src = owner(fromAcc);
+        BankClient dst = owner(toAcc);
+        long cents = Money.toCents(amount);
+        if (cents <= 0)
+            throw new BankException("Amount must be positive");
+        Intent intent = new Intent(UUID.randomUUID().toString(), State.BEGUN, fromAcc, toAcc, cents, true, narration);
+        inFlight.add(intent.getTxId());
+        try {
+            twoPhase(intent, src, dst);
+        } finally {
+            inFlight.remove(intent.getTxId());
+        }
+    }
+
+    private void twoPhase(Intent intent, BankClient src, BankClient dst) throws BankException {
+        long fromAcc = intent.getAccountNumber();
+        long toAcc = intent.getCounterparty();
+        long cents = intent.getCents();
+        String narration = intent.getNarration();
+        record(intent, true);
+        CompletableFuture<Void> debit = src.prepareAsync(intent.getTxId(), fromAcc, toAcc, cents, true, narration);
+        CompletableFuture<Void> credit = dst.prepareAsync(intent.getTxId(), toAcc, fromAcc, cents, false, narration);
+        BankException refused = prepared(debit, fromAcc);
+        BankException creditRefused = prepared(credit, toAcc);
+        if (refused == null)
+            refused = creditRefused;
+        Intent decided = intent.withState(refused == null ? State.COMMIT : State.ABORT);
+        record(decided, true);
+        try {
+            finish(decided);
+        } catch (IOException | BankException e) {
+            // the decision is logged either way; recovery delivers it to the node that missed it
+            undelivered.increment();
+        }
+        if (refused != null)
+            throw refused;
+    }
+
+    private BankException prepared(CompletableFuture<Void> vote, long accountNumber) {
+        try {
+            BankClient.await(vote);
+            return null;
+        } catch (BankException e) {
+            return e;
+        } catch (IOException e) {
+            return unreachable(accountNumber, e);
+        }
+    }
+
+    private void record(Intent i, boolean force) throws BankException {
+        try {
+            intents.append(i, force);
+        } catch (IOException e) {
+            throw new BankException("Intent log write failed: " + e.getMessage());
+        }
+    }
+
+    // Sends a decision to both nodes; both treat a repeat as done.
+    private void finish(Intent decided) throws IOException, BankException {
+        boolean commit = decided.getState() == State.COMMIT;
+        String id = decided.getTxId();
+        int[] both = { nodeOf(decided.getAccountNumber()), nodeOf(decided.getCounterparty()) };
+        List<CompletableFuture<Void>> acks = new ArrayList<>(2);
+        for (int i : both) {
+            try {
+                acks.add(commit ? node(i).commitAsync(id) : node(i).abortAsync(id));
+            } catch (IOException e) {
+                throw new IOException(i + ": " + e.getMessage(), e);
+            }
+        }
+        for (int k = 0; k < acks.size(); k++) {
+            try {
+                BankClient.await(acks.get(k));
+            } catch (IOException e) {
+                throw new IOException(both[k] + ": " + e.getMessage(), e);
+            }
+        }
+        record(decided.withState(State.DONE), false);
+    }
+
+    /**
+     * Resends the decision of every unfinished cross-node transfer, aborting
+     * those that never reached one; returns how many remain unfinished
+     * because a node is unreachable.
+     */
+    public int recover() {
+        synchronized (recovering) {
+            int left = 0;
+            for (Intent pending : intents.pending()) {
+                if (inFlight.contains(pending.getTxId()))
+                    continue;
+                // the transfer may have moved on since the list was taken
+                Intent i = intents.get(pending.getTxId(), pending.getAccountNumber());
+                if (i == null)
+                    continue;
+                try {
+                    if (i.getState() == State.BEGUN) {
+                        i = i.withState(State.ABORT);
+                        record(i, true);
+                    }
+                    finish(i);
+                } catch (IOException | BankException e) {
+                    left++;
+                }
+            }
+            return left;
+        }
+    }
+
+    /** Cross-node transfers not yet finished on both nodes, including those in flight. */
+    public int unfinished() {
+        return intents.pending().size();
+    }
+
+    /**
+     * Cross-node transfers whose decision, commit or abort, did not reach
+     * both nodes when they ran and was left to recovery; never decreases.
+     */
+    public long getUndeliveredDecisions() {
+        return undelivered.sum();
+    }
+
+    @Override
+    public List<OperationResult> applyBatch(List<Operation> ops) throws BankException {
+        return applyBatch(ops, true);
+    }
+
+    /**
+     * A batch within one node goes to that node as a whole. A best-effort
+     * batch across nodes is applied one operation at a time; an
+     * all-or-nothing one is refused.
+     */
+    @Override
+    public List<OperationResult> applyBatch(List<Operation> ops, boolean allOrNothing) throws BankException {
+        Set<Integer> involved = new HashSet<>();
+        for (Operation op : ops) {
+            involved.add(nodeOf(op.getAccountNumber()));
+            if (op.getKind() == Operation.Kind.TRANSFER)
+                involved.add(nodeOf(op.getToAccountNumber()));
+        }
+        if (involved.size() == 1 && !involved.contains(-1)) {
+            long acc = ops.get(0).getAccountNumber();
+            try {
+                return owner(acc).applyBatch(ops, allOrNothing);
+            } catch (IOException e) {
+                throw unreachable(acc, e);
+            }
+        }
+        if (allOrNothing)
+            throw new BankException("An all-or-nothing batch must stay within one node");
+        List<OperationResult> results = new ArrayList<>(ops.size());
+        for (Operation op : ops) {
+            try {
+                switch (op.getKind()) {
+                    case DEPOSIT:
+                        deposit(op.getAccountNumber(), op.getAmount(), op.getNarration());
+                        break;
+                    case WITHDRAW:
+                        withdraw(op.getAccountNumber(), op.getAmount(), op.getNarration());
+                        break;
+                    case TRANSFER:
+                        transfer(op.getAccountNumber(), op.getToAccountNumber(), op.getAmount(), op.getNarration());
+                        break;
+                }
+                results.add(OperationResult.ok(op));
+            } catch (BankException e) {
+                results.add(OperationResult.failed(op, e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void reverseTransaction(long accountNumber, String txId) throws BankException {
+        try {
+            owner(accountNumber).reverseTransaction(accountNumber, txId);
+        } catch (IOException e) {
+            throw unreachable(accountNumber, e);
+        }
+    }
+
+    @Override
+    public void setAccountActive(long accountNumber, boolean active) throws BankException {
+        try {
+            owner(accountNumber).setAccountActive(accountNumber, active);
+        } catch (IOException e) {
+            throw unreachable(accountNumber, e);
+        }
+    }
+
+    @Override
+    public void changePin(long accountNumber, String currentPin, String newPin) throws BankException {
+        try {
+            owner(accountNumber).changePin(accountNumber, currentPin, newPin);
+        } catch (IOException e) {
+            throw unreachable(accountNumber, e);
+        }
+    }
+
+    // Matches from every node in node order, each node's oldest account first.
+    private List<Account> collect(String query, boolean prefix, int offset, int limit) {
+        List<Account> out = new ArrayList<>();
+        long skip = offset;
+        try {
+            for (int i = 0; i < nodes.length && out.size() < limit; i++) {
+                BankClient c = node(i);
+                int at = 0;
+                while (out.size() < limit) {
+                    int want = (int) Math.min(PAGE, skip + (limit - out.size()));
+                    List<Account> page = c.searchViews(query, prefix, at, want);
+                    at += page.size();
+                    for (Account a : page) {
+                        if (skip > 0)
+                            skip--;
+                        else if (out.size() < limit)
+                            out.add(a);
+                    }
+                    if (page.size() < want)
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (BankException e) {
+            throw unchecked(e);
+        }
+        return out;
+    }
+
+    @Override
+    public List<Account> listAccounts() {
+        return collect("", false, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Account> searchByOwner(String query) {
+        return collect(query, false, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Account> searchByOwner(String query, int offset, int limit) {
+        return collect(query, false, offset, limit);
+    }
+
+    @Override
+    public List<Account> searchByOwnerPrefix(String prefix, int offset, int limit) {
+        return collect(prefix, true, offset, limit);
+    }
+
+    // {accounts, balance in cents, active accounts} summed over the nodes.
+    private long[] totals() {
+        long[] sum = new long[3];
+        try {
+            for (int i = 0; i < nodes.length; i++) {
+                long[] t = node(i).totals();
+                for (int k = 0; k < 3; k++)
+                    sum[k] += t[k];
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (BankException e) {
+            throw unchecked(e);
+        }
+        return sum;
+    }
+
+    @Override
+    public int totalAccounts() {
+        return (int) totals()[0];
+    }
+
+    @Override
+    public double totalBalances() {
+        return Money.toAmount(totals()[1]);
+    }
+
+    @Override
+    public int countActiveAccounts() {
+        return (int) totals()[2];
+    }
+
+    @Override
+    public double getMinOpeningDeposit() {
+        return minOpeningDeposit;
+    }
+
+    @Override
+    public double getDailyWithdrawalLimit() {
+        return dailyWithdrawalLimit;
+    }
+
+    @Override
+    public boolean isAdminCredentials(String user, String pass) {
+        return isAdminCredentialsAsync(user, pass).join();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> verifyPinAsync(long accountNumber, String pin) {
+        try {
+            return nodeOf(accountNumber) < 0 ? CompletableFuture.completedFuture(false)
+                    : owner(accountNumber).verifyPinAsync(accountNumber, pin);
+        } catch (BankException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Node 0 holds the admin credentials of record; setAdminPassword keeps the others in step.
+    @Override
+    public CompletableFuture<Boolean> isAdminCredentialsAsync(String user, String pass) {
+        try {
+            return node(0).isAdminCredentialsAsync(user, pass);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Each node checks the router's current password; the router keeps the new one for its next logins.
+    @Override
+    public synchronized void setAdminPassword(String pass) {
+        try {
+            for (int i = 0; i < nodes.length; i++)
+                node(i).setAdminPassword(adminUser, adminPass, pass);
+            adminPass = pass;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (BankException e) {
+            throw unchecked(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closing.countDown();
+        try {
+            recovery.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (BankClient c : nodes)
+                if (c != null)
+                    c.close();
+        }
+        intents.close();
+    }
+}
@@ -0,0 +1,184 @@
+package bankapp.persistence;
+
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.TransactionLog;
+import bankapp.model.TransactionType;
+import bankapp.service.BankService;
+import bankapp.service.BankServiceImpl;
+import bankapp.service.BankSnapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Versioned binary snapshot format. Amounts are stored as cents, timestamps
+ * as epoch micros, tx ids as two longs and strings as length-prefixed UTF-8.
+ * Files written by {@link SerializationPersistence} are still read, so a
+ * legacy snapshot is converted by the next save.
+ */
+public class BinaryPersistence implements Persistence {
+    static final int MAGIC = 0x424E4B42; // "BNKB"
+    static final int VERSION = 1;
+    private static final int JAVA_SERIAL_MAGIC = 0xACED;
+    private static final int BUFFER = 1 << 16;
+
+    private final SerializationPersistence legacy = new SerializationPersistence();
+
+    @Override
+    public void save(BankService state, String filename) throws IOException {
+        if (!(state instanceof BankServiceImpl))
+            throw new IOException("Binary format supports BankServiceImpl only");
+        BankServiceImpl bank = (BankServiceImpl) state;
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), BUFFER))) {
+            writeHeader(out, bank);
+            List<Account> accounts = bank.listAccounts();
+            out.writeInt(accounts.size());
+            for (Account a : accounts)
+                writeAccount(out, a, a.isActive(), a.transactionCursor());
+        }
+    }
+
+    /**
+     * Writes the accounts as of {@code snapshot}. PINs and the admin password
+     * are not versioned and are written as they are now; the journal replays
+     * any later change to them over the file anyway.
+     */
+    @Override
+    public void save(BankServiceImpl bank, BankSnapshot snapshot, String filename) throws IOException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), BUFFER))) {
+            writeHeader(out, bank);
+            List<Account.Version> accounts = snapshot.listAccounts();
+            out.writeInt(accounts.size());
+            for (Account.Version v : accounts)
+                writeAccount(out, v.getAccount(), v.isActive(), v.transactionCursor());
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, BankServiceImpl bank) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeDouble(bank.getMinOpeningDeposit());
+        out.writeDouble(bank.getMinBalanceSavings());
+        out.writeDouble(bank.getMinBalanceCurrent());
+        out.writeDouble(bank.getDailyWithdrawalLimit());
+        writeString(out, bank.getAdminUser());
+        writeString(out, bank.getAdminPassHashBase64());
+        writeString(out, bank.getAdminSaltBase64());
+        out.writeLong(bank.getNextAccountNumber());
+    }
+
+    @Override
+    public Object load(String filename) throws IOException, ClassNotFoundException {
+        File f = new File(filename);
+        if (!f.exists())
+            return null;
+        try (InputStream raw = new BufferedInputStream(new FileInputStream(f), BUFFER)) {
+            raw.mark(4);
+            int head = (raw.read() << 8) | raw.read();
+            raw.reset();
+            if (head == JAVA_SERIAL_MAGIC)
+                return legacy.load(filename);
+            return read(new DataInputStream(raw));
+        }
+    }
+
+    /** Rewrites a snapshot in any supported format as a binary snapshot. */
+    public static void convert(String from, String to) throws IOException, ClassNotFoundException {
+        var p = new BinaryPersistence();
+        Object state = p.load(from);
+        if (!(state instanceof BankServiceImpl))
+            throw new IOException("No bank state in " + from);
+        p.save((BankServiceImpl) state, to);
+    }
+
+    private BankServiceImpl read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a binary bank snapshot");
+        int version = in.readUnsignedShort();
+        if (version != VERSION)
+            throw new IOException("Unsupported snapshot version " + version);
+        double minOpening = in.readDouble();
+        double minSavings = in.readDouble();
+        double minCurrent = in.readDouble();
+        double dailyLimit = in.readDouble();
+        String adminUser = readString(in);
+        String adminHash = readString(in);
+        String adminSalt = readString(in);
+        long nextAccount = in.readLong();
+        int count = in.readInt();
+        List<Account> accounts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            accounts.add(readAccount(in));
+        return BankServiceImpl.restore(minOpening, minSavings, minCurrent, dailyLimit, adminUser, adminHash, adminSalt,
+                nextAccount, accounts);
+    }
+
+    static void writeAccount(DataOutputStream out, Account a, boolean active, TransactionLog.Cursor c)
+            throws IOException {
+        out.writeLong(a.getAccountNumber());
+        writeString(out, a.getOwnerName());
+        out.writeByte(a.getType().ordinal());
+        out.writeBoolean(active);
+        out.writeLong(TransactionLog.toMicros(a.getCreatedAt()));
+        writeString(out, a.getPinHashBase64());
+        writeString(out, a.getPinSaltBase64());
+        out.writeInt(c.count());
+        while (c.next()) {
+            out.writeLong(c.idHigh());
+            out.writeLong(c.idLow());
+            out.writeLong(c.epochMicros());
+            out.writeByte(c.type().ordinal());
+            out.writeLong(c.amountCents());
+            out.writeLong(c.balanceAfterCents());
+            writeString(out, c.narration());
+        }
+    }
+
+    static Account readAccount(DataInputStream in) throws IOException {
+        long number = in.readLong();
+        String owner = readString(in);
+        AccountType type = AccountType.values()[in.readUnsignedByte()];
+        boolean active = in.readBoolean();
+        LocalDateTime createdAt = TransactionLog.fromMicros(in.readLong());
+        String hash = readString(in);
+        String salt = readString(in);
+        Account a = new Account(number, owner, type, hash, salt, createdAt);
+        a.setActive(active);
+        int txCount = in.readInt();
+        TransactionType[] types = TransactionType.values();
+        for (int i = 0; i < txCount; i++) {
+            long hi = in.readLong();
+            long lo = in.readLong();
+            long micros = in.readLong();
+            TransactionType tt = types[in.readUnsignedByte()];
+            long amount = in.readLong();
+            long balanceAfter = in.readLong();
+            a.addTransactionInternal(hi, lo, micros, tt, amount, balanceAfter, readString(in));
+        }
+        return a;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,148 @@
+package bankapp.persistence;
+
+import bankapp.service.BankServiceImpl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes checkpoints of a bank on a thread of its own (see
+ * {@link JournalPersistence#checkpoint}): once {@code interval} has passed
+ * or {@code everyCommits} changes have been committed since the last one,
+ * whichever comes first, and whenever {@link #requestCheckpoint()} asks.
+ * An idle bank is not rewritten. Writers are neither waited for nor
+ * signalled; the thread polls the bank's commit count.
+ * {@link #close()} writes a last checkpoint if anything changed.
+ */
+public final class Checkpointer implements Closeable {
+    // how often the triggers are checked
+    private static final long POLL_MILLIS = 50L;
+
+    private final BankServiceImpl bank;
+    private final JournalPersistence persistence;
+    private final String filename;
+    private final long intervalNanos;
+    private final long everyCommits;
+    private Thread writer;
+    // commit count when the last checkpoint was started
+    private volatile long savedAt;
+    private volatile long completed;
+    private volatile IOException lastFailure;
+    private boolean requested;
+    private boolean closed;
+
+    /**
+     * @param interval     longest time between checkpoints of a changing bank; 0 for none
+     * @param everyCommits committed changes that trigger a checkpoint; 0 for none
+     */
+    public Checkpointer(BankServiceImpl bank, JournalPersistence persistence, String filename, long interval,
+            TimeUnit unit, long everyCommits) {
+        if (interval < 0 || everyCommits < 0)
+            throw new IllegalArgumentException("Triggers must not be negative");
+        this.bank = bank;
+        this.persistence = persistence;
+        this.filename = filename;
+        this.intervalNanos = unit.toNanos(interval);
+        this.everyCommits = everyCommits;
+        this.savedAt = bank.getCommitCount();
+    }
+
+    public synchronized Checkpointer start() {
+        if (writer != null || closed)
+            return this;
+        Thread t = new Thread(this::run, "checkpointer");
+        t.setDaemon(true);
+        t.start();
+        writer = t;
+        return this;
+    }
+
+    /** Asks for a checkpoint as soon as the current one, if any, is done; returns at once. */
+    public synchronized void requestCheckpoint() {
+        requested = true;
+        notifyAll();
+    }
+
+    public long getCompletedCheckpoints() {
+        return completed;
+    }
+
+    /** Why the last checkpoint failed; null if it succeeded. */
+    public IOException getLastFailure() {
+        return lastFailure;
+    }
+
+    private void run() {
+        long last = System.nanoTime();
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (!closed && !requested && !due(last))
+                        wait(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed)
+                    return;
+                requested = false;
+            }
+            write();
+            last = System.nanoTime();
+        }
+    }
+
+    private boolean due(long last) {
+        long changes = bank.getCommitCount() - savedAt;
+        if (changes == 0)
+            return false;
+        return (everyCommits > 0 && changes >= everyCommits)
+                || (intervalNanos > 0 && System.nanoTime() - last >= intervalNanos);
+    }
+
+    private void write() {
+        long count = bank.getCommitCount();
+        try {
+            persistence.checkpoint(bank, filename);
+            savedAt = count;
+            lastFailure = null;
+        } catch (IOException e) {
+            lastFailure = e;
+            System.err.println("Checkpoint of " + filename + " failed: " + e.getMessage());
+        }
+        completed++;
+    }
+
+    /**
+     * Stops the thread, letting a checkpoint in progress finish, then writes
+     * a last one on the caller's thread if the bank changed since or one was
+     * requested.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread t;
+        boolean pending;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            notifyAll();
+            t = writer;
+        }
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            pending = requested;
+        }
+        if (pending || bank.getCommitCount() != savedAt)
+            write();
+        IOException failure = lastFailure;
+        if (failure != null)
+            throw failure;
+    }
+}
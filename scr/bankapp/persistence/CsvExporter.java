@@ -0,0 +1,173 @@
+package bankapp.persistence;
+
+import bankapp.model.Account;
+import bankapp.model.CsvRowWriter;
+import bankapp.model.TransactionLog;
+import bankapp.service.BankSnapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streams account histories to CSV, optionally limited to a time range.
+ * Bulk exports run on a fixed pool: per-account files are written
+ * independently, and a combined file is written as one part per slice of
+ * accounts, then stitched together in account-list order.
+ */
+public final class CsvExporter {
+    private final long fromMicros;
+    private final long toMicros;
+    private final int threads;
+
+    /** Everything, on one thread per core. */
+    public CsvExporter() {
+        this(null, null, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Transactions with {@code from <= timestamp < to}; a null bound is open. */
+    public CsvExporter(LocalDateTime from, LocalDateTime to, int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads must be positive");
+        this.fromMicros = from == null ? Long.MIN_VALUE : TransactionLog.toMicros(from);
+        this.toMicros = to == null ? Long.MAX_VALUE : TransactionLog.toMicros(to);
+        this.threads = threads;
+    }
+
+    /** Writes the account's rows in range; returns how many. */
+    public long export(Account a, CsvRowWriter csv, boolean withAccountNumber) throws IOException {
+        return export(a.getAccountNumber(), a.transactionCursor(), csv, withAccountNumber);
+    }
+
+    private long export(long accountNumber, TransactionLog.Cursor c, CsvRowWriter csv, boolean withAccountNumber)
+            throws IOException {
+        long n = 0;
+        while (c.next()) {
+            long t = c.epochMicros();
+            if (t < fromMicros || t >= toMicros)
+                continue;
+            if (withAccountNumber)
+                csv.row(accountNumber, c);
+            else
+                csv.row(c);
+            n++;
+        }
+        return n;
+    }
+
+    public long exportToFile(Account a, Path file) throws IOException {
+        try (var csv = new CsvRowWriter(Files.newOutputStream(file))) {
+            csv.header(false);
+            return export(a, csv, false);
+        }
+    }
+
+    /** One {@code account_<number>.csv} per account in {@code dir}; returns the total row count. */
+    public long exportPerAccount(List<Account> accounts, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        List<Slice> tasks = new ArrayList<>();
+        for (Account a : accounts)
+            tasks.add(() -> exportToFile(a, dir.resolve("account_" + a.getAccountNumber() + ".csv")));
+        return runAll(tasks);
+    }
+
+    /** All accounts into one file with a leading accountNumber column; returns the row count. */
+    public long exportCombined(List<Account> accounts, Path file) throws IOException {
+        return combine(accounts, (a, csv) -> export(a, csv, true), file);
+    }
+
+    /**
+     * Like {@link #exportCombined(List, Path)} for the accounts of a
+     * snapshot, each with the history it had then, so the file is one
+     * consistent point in time.
+     */
+    public long exportCombined(BankSnapshot snapshot, Path file) throws IOException {
+        return combine(snapshot.listAccounts(),
+                (v, csv) -> export(v.getAccount().getAccountNumber(), v.transactionCursor(), csv, true), file);
+    }
+
+    private interface Rows<T> {
+        long write(T account, CsvRowWriter csv) throws IOException;
+    }
+
+    private <T> long combine(List<T> accounts, Rows<T> rows, Path file) throws IOException {
+        int slices = Math.min(accounts.size(), threads * 4);
+        List<Path> parts = new ArrayList<>();
+        List<Slice> tasks = new ArrayList<>();
+        try {
+            for (int s = 0; s < slices; s++) {
+                List<T> slice = accounts.subList(accounts.size() * s / slices,
+                        accounts.size() * (s + 1) / slices);
+                Path part = file.resolveSibling(file.getFileName() + ".part" + s);
+                parts.add(part);
+                tasks.add(() -> {
+                    long n = 0;
+                    try (var csv = new CsvRowWriter(Files.newOutputStream(part))) {
+                        for (T a : slice)
+                            n += rows.write(a, csv);
+                    }
+                    return n;
+                });
+            }
+            long total = runAll(tasks);
+            try (var csv = new CsvRowWriter(Files.newOutputStream(file))) {
+                csv.header(true);
+            }
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                for (Path part : parts)
+                    try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                        long size = in.size();
+                        for (long done = 0; done < size;)
+                            done += in.transferTo(done, size - done, out);
+                    }
+            }
+            return total;
+        } finally {
+            for (Path part : parts)
+                Files.deleteIfExists(part);
+        }
+    }
+
+    private interface Slice {
+        long run() throws IOException;
+    }
+
+    private long runAll(List<Slice> tasks) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (Slice t : tasks)
+                results.add(pool.submit(() -> {
+                    try {
+                        return t.run();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            long total = 0;
+            for (Future<Long> f : results)
+                total += f.get();
+            return total;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException)
+                throw ((UncheckedIOException) cause).getCause();
+            throw new IOException("Export failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
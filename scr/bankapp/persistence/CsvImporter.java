@@ -0,0 +1,639 @@
+package bankapp.persistence;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.model.CsvRowWriter;
+import bankapp.model.Money;
+import bankapp.model.TransactionType;
+import bankapp.service.BankServiceImpl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+
+/**
+ * Bulk loader for the CSV written by {@link CsvExporter} and
+ * {@link Account#exportToCSV}. The file is cut into newline-aligned chunks
+ * that are parsed in parallel, a wave of chunks at a time; the parsed rows
+ * are then applied by one worker per partition of account numbers, so each
+ * account receives its rows in file order from a single thread. Every row
+ * must continue its account's {@code balanceAfter} chain and carry a new tx
+ * id; rows that do not are rejected and reported, and later rows are
+ * checked against the last accepted balance. Rows go straight into the
+ * account history, without service validation or journaling, so a snapshot
+ * should be saved after an import.
+ */
+public final class CsvImporter {
+    private static final int MAX_REPORTED = 1_000;
+    private static final TransactionType[] TYPES = TransactionType.values();
+    private static final byte[][] TYPE_NAMES = new byte[TYPES.length][];
+    static {
+        for (int i = 0; i < TYPES.length; i++)
+            TYPE_NAMES[i] = TYPES[i].name().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private final BankServiceImpl bank;
+    private final LongFunction<Account> newAccount;
+    private final int threads;
+    private final int chunkBytes;
+
+    /**
+     * @param newAccount builds the account for a number the bank does not know yet;
+     *                   rows for such numbers are rejected when it returns null
+     */
+    public CsvImporter(BankServiceImpl bank, LongFunction<Account> newAccount) {
+        this(bank, newAccount, Runtime.getRuntime().availableProcessors(), 8 << 20);
+    }
+
+    public CsvImporter(BankServiceImpl bank, LongFunction<Account> newAccount, int threads, int chunkBytes) {
+        if (threads <= 0 || chunkBytes < 4096)
+            throw new IllegalArgumentException("threads must be positive and chunks at least 4 KiB");
+        this.bank = bank;
+        this.newAccount = newAccount;
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /** Imports a file with a leading accountNumber column, as written by {@link CsvExporter#exportCombined}. */
+    public Report importFile(Path file) throws IOException {
+        return run(file, -1L);
+    }
+
+    /** Imports a single-account export into {@code accountNumber}. */
+    public Report importAccountFile(Path file, long accountNumber) throws IOException {
+        return run(file, accountNumber);
+    }
+
+    private Report run(Path file, long fixedAccount) throws IOException {
+        long start = System.nanoTime();
+        Report report = new Report();
+        Map<Long, Account> created = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = boundaries(ch);
+            long line = 1;
+            for (int w = 0; w + 1 < bounds.length; w += threads) {
+                int waveEnd = Math.min(bounds.length - 1, w + threads);
+                List<Callable<Chunk>> parses = new ArrayList<>();
+                for (int c = w; c < waveEnd; c++) {
+                    long from = bounds[c];
+                    long to = bounds[c + 1];
+                    boolean first = c == 0;
+                    parses.add(() -> parse(read(ch, from, to), first, fixedAccount));
+                }
+                List<Chunk> wave = all(pool, parses);
+                for (Chunk chunk : wave) {
+                    chunk.firstLine = line;
+                    line += chunk.lines;
+                    for (int i = 0; i < chunk.errors.size(); i++)
+                        report.reject(chunk.firstLine + chunk.errorLines.get(i), chunk.errors.get(i),
+                                chunk.text(chunk.errorStarts.get(i)));
+                }
+                List<Callable<Void>> applies = new ArrayList<>();
+                for (int p = 0; p < threads; p++) {
+                    int part = p;
+                    applies.add(() -> {
+                        apply(wave, part, created, report);
+                        return null;
+                    });
+                }
+                all(pool, applies);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        List<Account> kept = new ArrayList<>();
+        for (Account a : created.values())
+            if (a.getTransactionCount() > 0)
+                kept.add(a);
+        try {
+            bank.addImportedAccounts(kept);
+        } catch (BankException e) {
+            throw new IOException("Cannot register imported accounts: " + e.getMessage(), e);
+        }
+        report.accountsCreated = kept.size();
+        report.nanos = System.nanoTime() - start;
+        report.rejected.sort(Comparator.comparingLong(Rejected::getLine));
+        return report;
+    }
+
+    private void apply(List<Chunk> wave, int part, Map<Long, Account> created, Report report) {
+        for (Chunk c : wave) {
+            for (int i = 0; i < c.rows; i++) {
+                long accNo = c.account[i];
+                if (Math.floorMod(accNo, threads) != part)
+                    continue;
+                String reason = null;
+                Account a = bank.getAccount(accNo);
+                if (a == null)
+                    a = created.computeIfAbsent(accNo, n -> newAccount.apply(n));
+                if (a == null) {
+                    reason = "Account not found";
+                } else {
+                    synchronized (a) {
+                        long before = a.getBalanceCents();
+                        TransactionType type = TYPES[c.type[i]];
+                        if (!chains(type, before, c.amount[i], c.balanceAfter[i]))
+                            reason = String.format("balanceAfter %.2f does not follow balance %.2f",
+                                    Money.toAmount(c.balanceAfter[i]), Money.toAmount(before));
+                        else if (a.hasTransaction(c.idHigh[i], c.idLow[i]))
+                            reason = "Duplicate transaction";
+                        else
+                            a.addTransactionInternal(c.idHigh[i], c.idLow[i], c.micros[i], type, c.amount[i],
+                                    c.balanceAfter[i], c.narration[i]);
+                    }
+                }
+                if (reason == null)
+                    report.accepted();
+                else
+                    report.reject(c.firstLine + c.line[i], reason, c.text(c.start[i]));
+            }
+        }
+    }
+
+    // Deposits and interest add, withdrawals and fees subtract; transfers and reversals may go either way.
+    private static boolean chains(TransactionType type, long before, long amount, long after) {
+        if (amount < 0)
+            return false;
+        switch (type) {
+            case DEPOSIT:
+            case INTEREST:
+                return after == before + amount;
+            case WITHDRAWAL:
+            case FEE:
+                return after == before - amount;
+            default:
+                return after == before + amount || after == before - amount;
+        }
+    }
+
+    // Chunk start offsets, each just after a newline, followed by the file size.
+    private long[] boundaries(FileChannel ch) throws IOException {
+        long size = ch.size();
+        List<Long> out = new ArrayList<>();
+        out.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long next = chunkBytes;
+        while (next < size) {
+            long pos = next;
+            long found = -1;
+            while (found < 0 && pos < size) {
+                probe.clear();
+                int n = ch.read(probe, pos);
+                if (n <= 0)
+                    break;
+                for (int i = 0; i < n; i++)
+                    if (probe.get(i) == '\n') {
+                        found = pos + i + 1;
+                        break;
+                    }
+                pos += n;
+            }
+            if (found < 0 || found >= size)
+                break;
+            out.add(found);
+            next = found + chunkBytes;
+        }
+        out.add(size);
+        long[] b = new long[out.size()];
+        for (int i = 0; i < b.length; i++)
+            b[i] = out.get(i);
+        return b;
+    }
+
+    private static byte[] read(FileChannel ch, long from, long to) throws IOException {
+        byte[] b = new byte[(int) (to - from)];
+        ByteBuffer buf = ByteBuffer.wrap(b);
+        while (buf.hasRemaining())
+            if (ch.read(buf, from + buf.position()) < 0)
+                throw new EOFException("File shrank during import");
+        return b;
+    }
+
+    private static <T> List<T> all(ExecutorService pool, List<Callable<T>> tasks) throws IOException {
+        try {
+            List<T> out = new ArrayList<>(tasks.size());
+            for (Future<T> f : pool.invokeAll(tasks))
+                out.add(f.get());
+            return out;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Import failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        }
+    }
+
+    private static Chunk parse(byte[] b, boolean first, long fixedAccount) {
+        Chunk c = new Chunk(b);
+        int p = 0;
+        boolean withAccount = fixedAccount < 0;
+        while (p < b.length) {
+            int end = p;
+            while (end < b.length && b[end] != '\n')
+                end++;
+            int lineEnd = end > p && b[end - 1] == '\r' ? end - 1 : end;
+            int lineNo = c.lines++;
+            if (lineEnd > p && !(first && lineNo == 0 && isHeader(b, p, lineEnd))) {
+                try {
+                    c.add(new Fields(b, p, lineEnd).row(withAccount, fixedAccount), lineNo, p);
+                } catch (BadRow e) {
+                    c.errors.add(e.getMessage());
+                    c.errorLines.add(lineNo);
+                    c.errorStarts.add(p);
+                }
+            }
+            p = end + 1;
+        }
+        return c;
+    }
+
+    private static boolean isHeader(byte[] b, int from, int to) {
+        return startsWith(b, from, to, CsvRowWriter.HEADER) || startsWith(b, from, to, CsvRowWriter.ACCOUNT_HEADER);
+    }
+
+    private static boolean startsWith(byte[] b, int from, int to, String s) {
+        if (to - from < s.length())
+            return false;
+        for (int i = 0; i < s.length(); i++)
+            if (b[from + i] != s.charAt(i))
+                return false;
+        return true;
+    }
+
+    private static final class BadRow extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        BadRow(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    // Field-by-field reader over one line.
+    private static final class Fields {
+        private final byte[] b;
+        private final int end;
+        private int p;
+        private long account;
+        private long hi;
+        private long lo;
+        private long micros;
+        private int type;
+        private long amount;
+        private long balanceAfter;
+        private String narration;
+
+        Fields(byte[] b, int from, int end) {
+            this.b = b;
+            this.p = from;
+            this.end = end;
+        }
+
+        Fields row(boolean withAccount, long fixedAccount) throws BadRow {
+            account = withAccount ? number() : fixedAccount;
+            if (withAccount)
+                comma();
+            uuid();
+            comma();
+            timestamp();
+            comma();
+            type();
+            comma();
+            amount = cents();
+            comma();
+            balanceAfter = cents();
+            comma();
+            narration();
+            return this;
+        }
+
+        private void comma() throws BadRow {
+            if (p >= end || b[p] != ',')
+                throw new BadRow("Expected ',' at column " + p);
+            p++;
+        }
+
+        private long number() throws BadRow {
+            int from = p;
+            long v = 0;
+            while (p < end && b[p] >= '0' && b[p] <= '9') {
+                if (v > (Long.MAX_VALUE - 9) / 10)
+                    throw new BadRow("Number too large");
+                v = v * 10 + (b[p++] - '0');
+            }
+            if (p == from)
+                throw new BadRow("Expected a number");
+            return v;
+        }
+
+        private int digits(int n) throws BadRow {
+            int v = 0;
+            for (int i = 0; i < n; i++) {
+                if (p >= end || b[p] < '0' || b[p] > '9')
+                    throw new BadRow("Bad timestamp");
+                v = v * 10 + (b[p++] - '0');
+            }
+            return v;
+        }
+
+        private void expect(char ch, String what) throws BadRow {
+            if (p >= end || b[p] != ch)
+                throw new BadRow("Bad " + what);
+            p++;
+        }
+
+        private void uuid() throws BadRow {
+            if (end - p < 36)
+                throw new BadRow("Bad txId");
+            long a = hex(8);
+            expect('-', "txId");
+            long b1 = hex(4);
+            expect('-', "txId");
+            long c = hex(4);
+            expect('-', "txId");
+            long d = hex(4);
+            expect('-', "txId");
+            hi = (a << 32) | (b1 << 16) | c;
+            lo = (d << 48) | hex(12);
+        }
+
+        private long hex(int n) throws BadRow {
+            long v = 0;
+            for (int i = 0; i < n; i++) {
+                int ch = b[p++];
+                int d = ch >= '0' && ch <= '9' ? ch - '0' : ch >= 'a' && ch <= 'f' ? ch - 'a' + 10
+                        : ch >= 'A' && ch <= 'F' ? ch - 'A' + 10 : -1;
+                if (d < 0)
+                    throw new BadRow("Bad txId");
+                v = (v << 4) | d;
+            }
+            return v;
+        }
+
+        // yyyy-MM-ddTHH:mm[:ss[.fraction]], as LocalDateTime.toString() writes it
+        private void timestamp() throws BadRow {
+            int year = digits(4);
+            expect('-', "timestamp");
+            int month = digits(2);
+            expect('-', "timestamp");
+            int day = digits(2);
+            expect('T', "timestamp");
+            int hour = digits(2);
+            expect(':', "timestamp");
+            int minute = digits(2);
+            int second = 0;
+            long fraction = 0;
+            if (p < end && b[p] == ':') {
+                p++;
+                second = digits(2);
+                if (p < end && b[p] == '.') {
+                    p++;
+                    int n = 0;
+                    while (p < end && b[p] >= '0' && b[p] <= '9') {
+                        if (n < 6)
+                            fraction = fraction * 10 + (b[p] - '0');
+                        p++;
+                        n++;
+                    }
+                    if (n == 0)
+                        throw new BadRow("Bad timestamp");
+                    for (; n < 6; n++)
+                        fraction *= 10;
+                }
+            }
+            if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59)
+                throw new BadRow("Bad timestamp");
+            long epochDay;
+            try {
+                epochDay = LocalDate.of(year, month, day).toEpochDay();
+            } catch (RuntimeException e) {
+                throw new BadRow("Bad timestamp");
+            }
+            micros = (epochDay * 86_400L + hour * 3600L + minute * 60L + second) * 1_000_000L + fraction;
+        }
+
+        private void type() throws BadRow {
+            for (int t = 0; t < TYPE_NAMES.length; t++) {
+                byte[] name = TYPE_NAMES[t];
+                if (end - p > name.length && b[p + name.length] == ',') {
+                    int i = 0;
+                    while (i < name.length && b[p + i] == name[i])
+                        i++;
+                    if (i == name.length) {
+                        type = t;
+                        p += name.length;
+                        return;
+                    }
+                }
+            }
+            throw new BadRow("Unknown transaction type");
+        }
+
+        // [-]units[.c[c]] as cents
+        private long cents() throws BadRow {
+            boolean negative = p < end && b[p] == '-';
+            if (negative)
+                p++;
+            long v = number() * 100;
+            if (p < end && b[p] == '.') {
+                p++;
+                int n = 0;
+                long frac = 0;
+                while (p < end && b[p] >= '0' && b[p] <= '9') {
+                    if (n == 2)
+                        throw new BadRow("More than two decimals");
+                    frac = frac * 10 + (b[p++] - '0');
+                    n++;
+                }
+                v += n == 1 ? frac * 10 : frac;
+            }
+            return negative ? -v : v;
+        }
+
+        private void narration() throws BadRow {
+            if (p >= end || b[p] != '"') {
+                narration = new String(b, p, end - p, StandardCharsets.UTF_8);
+                return;
+            }
+            int from = ++p;
+            boolean escaped = false;
+            while (true) {
+                if (p >= end)
+                    throw new BadRow("Unterminated narration");
+                if (b[p] == '"') {
+                    if (p + 1 < end && b[p + 1] == '"') {
+                        escaped = true;
+                        p += 2;
+                        continue;
+                    }
+                    break;
+                }
+                p++;
+            }
+            String s = new String(b, from, p - from, StandardCharsets.UTF_8);
+            narration = escaped ? s.replace("\"\"", "\"") : s;
+            if (++p != end)
+                throw new BadRow("Text after narration");
+        }
+    }
+
+    // Parsed rows of one chunk, in file order.
+    private static final class Chunk {
+        final byte[] bytes;
+        int rows;
+        int lines;
+        long firstLine;
+        long[] account = new long[256];
+        long[] idHigh = new long[256];
+        long[] idLow = new long[256];
+        long[] micros = new long[256];
+        long[] amount = new long[256];
+        long[] balanceAfter = new long[256];
+        byte[] type = new byte[256];
+        String[] narration = new String[256];
+        int[] line = new int[256];
+        int[] start = new int[256];
+        final List<String> errors = new ArrayList<>();
+        final List<Integer> errorLines = new ArrayList<>();
+        final List<Integer> errorStarts = new ArrayList<>();
+
+        Chunk(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        void add(Fields f, int lineNo, int offset) {
+            if (rows == account.length) {
+                int n = rows * 2;
+                account = Arrays.copyOf(account, n);
+                idHigh = Arrays.copyOf(idHigh, n);
+                idLow = Arrays.copyOf(idLow, n);
+                micros = Arrays.copyOf(micros, n);
+                amount = Arrays.copyOf(amount, n);
+                balanceAfter = Arrays.copyOf(balanceAfter, n);
+                type = Arrays.copyOf(type, n);
+                narration = Arrays.copyOf(narration, n);
+                line = Arrays.copyOf(line, n);
+                start = Arrays.copyOf(start, n);
+            }
+            account[rows] = f.account;
+            idHigh[rows] = f.hi;
+            idLow[rows] = f.lo;
+            micros[rows] = f.micros;
+            amount[rows] = f.amount;
+            balanceAfter[rows] = f.balanceAfter;
+            type[rows] = (byte) f.type;
+            narration[rows] = f.narration;
+            line[rows] = lineNo;
+            start[rows] = offset;
+            rows++;
+        }
+
+        String text(int offset) {
+            int end = offset;
+            while (end < bytes.length && bytes[end] != '\n' && bytes[end] != '\r')
+                end++;
+            return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** A row that was not imported, with its 1-based line number in the file. */
+    public static final class Rejected {
+        private final long line;
+        private final String reason;
+        private final String text;
+
+        Rejected(long line, String reason, String text) {
+            this.line = line;
+            this.reason = reason;
+            this.text = text;
+        }
+
+        public long getLine() {
+            return line;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + line + ": " + reason + " | " + text;
+        }
+    }
+
+    /** Outcome of an import; only the first rejections are kept in detail. */
+    public static final class Report {
+        private final LongAdder accepted = new LongAdder();
+        private final LongAdder rejectedCount = new LongAdder();
+        private final List<Rejected> rejected = Collections.synchronizedList(new ArrayList<>());
+        private int accountsCreated;
+        private long nanos;
+
+        void accepted() {
+            accepted.increment();
+        }
+
+        void reject(long line, String reason, String text) {
+            rejectedCount.increment();
+            if (rejected.size() < MAX_REPORTED)
+                rejected.add(new Rejected(line, reason, text));
+        }
+
+        public long getRowsImported() {
+            return accepted.sum();
+        }
+
+        public long getRowsRejected() {
+            return rejectedCount.sum();
+        }
+
+        /** Up to the first thousand rejected rows, by line. */
+        public List<Rejected> getRejected() {
+            return Collections.unmodifiableList(rejected);
+        }
+
+        public int getAccountsCreated() {
+            return accountsCreated;
+        }
+
+        public double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        public double rowsPerSecond() {
+            return nanos == 0 ? 0 : (getRowsImported() + getRowsRejected()) * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows imported, %d rejected, %d accounts created in %.2f s (%.0f rows/s)",
+                    getRowsImported(), getRowsRejected(), accountsCreated, getSeconds(), rowsPerSecond());
+        }
+    }
+}
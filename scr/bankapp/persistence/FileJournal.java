@@ -0,0 +1,173 @@
+package bankapp.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal file. Each record is framed as
+ * {@code [int length][int crc32][payload]}; replay stops at the first torn
+ * or corrupt frame, which is cut off when the journal is reopened.
+ */
+public class FileJournal implements Journal {
+    static final int HEADER_BYTES = 8;
+
+    private final Path path;
+    private FileChannel channel;
+    private final boolean forceEachAppend;
+    private long appended;
+
+    public FileJournal(Path path, boolean forceEachAppend) throws IOException {
+        this.path = path;
+        this.forceEachAppend = forceEachAppend;
+        long valid = replay(path, r -> {
+        });
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(valid);
+        channel.position(valid);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized long append(JournalRecord record) throws IOException {
+        write(new ByteBuffer[] { frame(record) });
+        if (forceEachAppend)
+            channel.force(false);
+        return ++appended;
+    }
+
+    /**
+     * Moves every record appended so far to {@code segment} and carries on
+     * in a new, empty file at the journal's path. Appends are held off only
+     * for the rename.
+     */
+    public synchronized void rotate(Path segment) throws IOException {
+        switchTo(openSegment(segment));
+    }
+
+    // Renames the current file away and opens a fresh one in its place.
+    FileChannel openSegment(Path segment) throws IOException {
+        Files.move(path, segment, StandardCopyOption.ATOMIC_MOVE);
+        return FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    // Overridable so a check can make the file fail.
+    protected void write(ByteBuffer[] frames) throws IOException {
+        ByteBuffer last = frames[frames.length - 1];
+        while (last.hasRemaining())
+            channel.write(frames);
+    }
+
+    protected void force() throws IOException {
+        channel.force(false);
+    }
+
+    // Switches writes to a channel from openSegment; the caller makes sure no write is running.
+    void switchTo(FileChannel next) throws IOException {
+        FileChannel old = channel;
+        channel = next;
+        old.close();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    static ByteBuffer frame(JournalRecord record) throws IOException {
+        byte[] payload = record.encode();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buf.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        return buf;
+    }
+
+    /**
+     * Feeds every intact record of the journal to {@code sink}.
+     *
+     * @return the byte length of the intact prefix
+     */
+    public static long replay(Path path, Consumer<JournalRecord> sink) throws IOException {
+        return replay(path, 0L, sink);
+    }
+
+    /**
+     * Like {@link #replay(Path, Consumer)}, starting at byte {@code from},
+     * which must be a frame boundary; used to follow a journal as it grows.
+     *
+     * @return the position after the last intact record
+     */
+    public static long replay(Path path, long from, Consumer<JournalRecord> sink) throws IOException {
+        if (!Files.exists(path))
+            return from;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long pos = from;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            while (pos + HEADER_BYTES <= size) {
+                header.clear();
+                ch.read(header, pos);
+                header.flip();
+                int len = header.getInt();
+                int sum = header.getInt();
+                if (len <= 0 || pos + HEADER_BYTES + len > size)
+                    break;
+                ByteBuffer payload = ByteBuffer.allocate(len);
+                while (payload.hasRemaining() && ch.read(payload, pos + HEADER_BYTES + payload.position()) > 0)
+                    ;
+                crc.reset();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != sum)
+                    break;
+                sink.accept(JournalRecord.decode(new DataInputStream(new ByteArrayInputStream(payload.array()))));
+                pos += HEADER_BYTES + len;
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * True when the frame at {@code pos} is complete but unreadable. A
+     * writer only ever leaves an incomplete frame at the tail, so for a
+     * reader following the file this means it was truncated and rewritten.
+     */
+    public static boolean corruptAt(Path path, long pos) throws IOException {
+        if (!Files.exists(path))
+            return false;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (pos + HEADER_BYTES > size)
+                return false;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && ch.read(header, pos + header.position()) > 0)
+                ;
+            header.flip();
+            int len = header.getInt();
+            int sum = header.getInt();
+            if (len <= 0)
+                return true;
+            if (pos + HEADER_BYTES + len > size)
+                return false;
+            // complete: either bad, or written since the reader last looked
+            ByteBuffer payload = ByteBuffer.allocate(len);
+            while (payload.hasRemaining() && ch.read(payload, pos + HEADER_BYTES + payload.position()) > 0)
+                ;
+            CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            return (int) crc.getValue() != sum;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package bankapp.persistence;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal that batches fsyncs. Callers queue records; one flusher thread
+ * writes whatever is queued (up to {@code maxBatch} records, waiting at most
+ * {@code maxDelay} for a batch to fill) and forces it once, then wakes every
+ * caller whose ticket the batch covered.
+ * <p>
+ * {@link #rotate} does not stop appends: records queued before it are
+ * still written to the old file, and the flusher moves to the new one once
+ * they are durable.
+ */
+public class GroupCommitJournal extends FileJournal {
+    private final long maxDelayNanos;
+    private final int maxBatch;
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+    private final Thread flusher;
+    private long appendedSeq;
+    private long durableSeq;
+    // set by rotate(): the file to write records after rotateAfter to
+    private FileChannel rotateTo;
+    private long rotateAfter;
+    private boolean closed;
+    private IOException failure;
+
+    public GroupCommitJournal(Path path, long maxDelay, TimeUnit unit, int maxBatch) throws IOException {
+        super(path, false);
+        if (maxBatch <= 0)
+            throw new IllegalArgumentException("maxBatch must be positive");
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.maxBatch = maxBatch;
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public synchronized long append(JournalRecord record) throws IOException {
+        ByteBuffer frame = frame(record);
+        if (closed)
+            throw new IOException("Journal closed");
+        if (failure != null)
+            throw failure;
+        pending.add(frame);
+        if (pending.size() == 1 || pending.size() >= maxBatch)
+            notifyAll();
+        return ++appendedSeq;
+    }
+
+    @Override
+    public synchronized void awaitDurable(long ticket) throws IOException {
+        while (durableSeq < ticket) {
+            if (failure != null)
+                throw failure;
+            await(0L);
+        }
+    }
+
+    @Override
+    public synchronized void rotate(Path segment) throws IOException {
+        if (closed)
+            throw new IOException("Journal closed");
+        if (failure != null)
+            throw failure;
+        rotateTo = openSegment(segment);
+        rotateAfter = appendedSeq;
+        notifyAll();
+        while (rotateTo != null) {
+            if (failure != null)
+                throw failure;
+            await(0L);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        super.close();
+    }
+
+    private void flushLoop() {
+        try {
+            flushBatches();
+        } catch (Throwable e) {
+            // whatever ends this thread fails the callers waiting on it, or they would wait forever
+            synchronized (this) {
+                if (failure == null)
+                    failure = e instanceof IOException ? (IOException) e : new IOException("Journal flusher failed", e);
+                notifyAll();
+            }
+        }
+    }
+
+    private void flushBatches() throws InterruptedIOException {
+        while (true) {
+            ByteBuffer[] batch;
+            long upTo;
+            synchronized (this) {
+                while (pending.isEmpty() && !closed && rotateTo == null)
+                    await(0L);
+                if (rotateTo != null && durableSeq >= rotateAfter) {
+                    try {
+                        switchTo(rotateTo);
+                    } catch (IOException e) {
+                        failure = e;
+                        notifyAll();
+                        return;
+                    }
+                    rotateTo = null;
+                    notifyAll();
+                    continue;
+                }
+                if (pending.isEmpty())
+                    return;
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (pending.size() < maxBatch && !closed) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0)
+                        break;
+                    await(left);
+                }
+                int n = Math.min(pending.size(), maxBatch);
+                // a batch never spans a rotation
+                if (rotateTo != null)
+                    n = (int) Math.min(n, rotateAfter - durableSeq);
+                batch = new ByteBuffer[n];
+                for (int i = 0; i < batch.length; i++)
+                    batch[i] = pending.poll();
+                upTo = appendedSeq - pending.size();
+            }
+            try {
+                write(batch);
+                force();
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                durableSeq = upTo;
+                notifyAll();
+            }
+        }
+    }
+
+    private void await(long nanos) throws InterruptedIOException {
+        try {
+            if (nanos <= 0)
+                wait();
+            else
+                TimeUnit.NANOSECONDS.timedWait(this, nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for journal");
+        }
+    }
+}
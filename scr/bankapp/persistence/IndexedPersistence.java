@@ -0,0 +1,470 @@
+package bankapp.persistence;
+
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.ColdBlock;
+import bankapp.model.ColdStore;
+import bankapp.model.TransactionLog;
+import bankapp.service.BankService;
+import bankapp.service.BankServiceImpl;
+import bankapp.service.BankSnapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Snapshot format for a fast start: every account's history is written as
+ * one block to a history file, and the snapshot itself holds an index of
+ * the accounts (number, owner, type, status, creation time, PIN hash and
+ * salt, balance, and where its history block is). {@link #load} reads only
+ * the index and maps the history file; an account reads its block the first
+ * time its history is needed (see {@link Account#restore}), so startup time
+ * follows the number of accounts, not the number of transactions.
+ * <p>
+ * Each save writes a new history file, {@code <file>.history.<n>}, and never
+ * writes to or renames over an existing one, so a checkpoint can replace the
+ * snapshot while a loaded bank still maps the history of the one before.
+ * History files no snapshot of that name refers to any more are deleted by
+ * the next save; one the platform will not delete while it is mapped is
+ * left for a later save. A snapshot written to {@code <file>.tmp}, to be
+ * renamed into place, names its history file after {@code <file>}.
+ * <p>
+ * Snapshot layout: {@code [int magic][short version][index]
+ * [long index offset][int magic]}, the index starting with the name of the
+ * history file. History layout: {@code [int magic][short version]
+ * [history blocks]}, in the cold tier's row layout. Files in the
+ * {@link BinaryPersistence} or legacy formats are still read, eagerly.
+ */
+public class IndexedPersistence implements Persistence {
+    static final int MAGIC = 0x424E4B49; // "BNKI"
+    static final int HISTORY_MAGIC = 0x424E4B48; // "BNKH"
+    static final int VERSION = 2;
+    private static final String HISTORY = ".history.";
+    private static final int HEADER_BYTES = 6;
+    private static final int TRAILER_BYTES = 12;
+    private static final int BUFFER = 1 << 16;
+    private static final AccountType[] TYPES = AccountType.values();
+    // history is mapped in windows of this size, each overlapping the next by the largest block
+    private static final long WINDOW = 1L << 30;
+    // the index is written in runs of this many accounts, which load parses in parallel
+    private static final int CHUNK = 1 << 16;
+
+    private final BinaryPersistence eager = new BinaryPersistence();
+
+    @Override
+    public void save(BankService state, String filename) throws IOException {
+        if (!(state instanceof BankServiceImpl))
+            throw new IOException("Indexed format supports BankServiceImpl only");
+        BankServiceImpl bank = (BankServiceImpl) state;
+        try (BankSnapshot snapshot = bank.openSnapshot()) {
+            save(bank, snapshot, filename);
+        }
+    }
+
+    @Override
+    public void save(BankServiceImpl bank, BankSnapshot snapshot, String filename) throws IOException {
+        String base = base(filename);
+        deleteUnreferenced(base);
+        TreeMap<Long, Path> histories = JournalPersistence.numbered(base + HISTORY);
+        Path history = Paths.get(base + HISTORY + ((histories.isEmpty() ? 0L : histories.lastKey()) + 1));
+        List<Account.Version> accounts = snapshot.listAccounts();
+        int n = accounts.size();
+        long[] offsets = new long[n];
+        int[] lengths = new int[n];
+        long[] lastMicros = new long[n];
+        int largest = 0;
+        try (var out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(history, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), BUFFER))) {
+            out.writeInt(HISTORY_MAGIC);
+            out.writeShort(VERSION);
+            long pos = HEADER_BYTES;
+            var block = new ByteArrayOutputStream(4096);
+            var blockOut = new DataOutputStream(block);
+            for (int i = 0; i < n; i++) {
+                block.reset();
+                lastMicros[i] = SegmentFileStore.writeRows(blockOut, accounts.get(i).transactionCursor());
+                blockOut.flush();
+                block.writeTo(out);
+                offsets[i] = pos;
+                lengths[i] = block.size();
+                largest = Math.max(largest, block.size());
+                pos += block.size();
+            }
+        }
+        // the snapshot must not be installed ahead of the history it refers to
+        try (FileChannel ch = FileChannel.open(history, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), BUFFER))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            BinaryPersistence.writeString(out, history.getFileName().toString());
+            out.writeDouble(bank.getMinOpeningDeposit());
+            out.writeDouble(bank.getMinBalanceSavings());
+            out.writeDouble(bank.getMinBalanceCurrent());
+            out.writeDouble(bank.getDailyWithdrawalLimit());
+            BinaryPersistence.writeString(out, bank.getAdminUser());
+            BinaryPersistence.writeString(out, bank.getAdminPassHashBase64());
+            BinaryPersistence.writeString(out, bank.getAdminSaltBase64());
+            out.writeLong(bank.getNextAccountNumber());
+            out.writeInt(largest);
+            out.writeInt(n);
+            var chunk = new ByteArrayOutputStream(1 << 20);
+            var chunkOut = new DataOutputStream(chunk);
+            for (int from = 0; from < n; from += CHUNK) {
+                int to = Math.min(n, from + CHUNK);
+                chunk.reset();
+                for (int i = from; i < to; i++) {
+                    Account.Version v = accounts.get(i);
+                    Account a = v.getAccount();
+                    chunkOut.writeLong(a.getAccountNumber());
+                    BinaryPersistence.writeString(chunkOut, a.getOwnerName());
+                    chunkOut.writeByte(a.getType().ordinal());
+                    chunkOut.writeBoolean(v.isActive());
+                    chunkOut.writeLong(TransactionLog.toMicros(a.getCreatedAt()));
+                    BinaryPersistence.writeString(chunkOut, a.getPinHashBase64());
+                    BinaryPersistence.writeString(chunkOut, a.getPinSaltBase64());
+                    chunkOut.writeLong(v.getBalanceCents());
+                    chunkOut.writeInt(v.getTransactionCount());
+                    chunkOut.writeLong(offsets[i]);
+                    chunkOut.writeInt(lengths[i]);
+                    chunkOut.writeLong(lastMicros[i]);
+                }
+                chunkOut.flush();
+                out.writeInt(to - from);
+                out.writeInt(chunk.size());
+                chunk.writeTo(out);
+            }
+            out.writeLong(HEADER_BYTES);
+            out.writeInt(MAGIC);
+        }
+    }
+
+    /**
+     * Deletes the snapshot {@code filename} and the history files that no
+     * other snapshot of that name refers to.
+     */
+    public static void delete(String filename) throws IOException {
+        Files.deleteIfExists(Paths.get(filename));
+        deleteUnreferenced(base(filename));
+    }
+
+    // The name history files are called after: a temp file's is the file it will be renamed to.
+    private static String base(String filename) {
+        return filename.endsWith(".tmp") ? filename.substring(0, filename.length() - 4) : filename;
+    }
+
+    // History files of base that neither base nor any file named base.* (a temp file, a kept checkpoint) uses.
+    private static void deleteUnreferenced(String base) throws IOException {
+        TreeMap<Long, Path> histories = JournalPersistence.numbered(base + HISTORY);
+        if (histories.isEmpty())
+            return;
+        Path p = Paths.get(base).toAbsolutePath();
+        String name = p.getFileName().toString();
+        Set<String> used = new HashSet<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(p.getParent(), name + "*")) {
+            for (Path f : dir) {
+                String n = f.getFileName().toString();
+                if ((n.equals(name) || n.startsWith(name + ".")) && !n.startsWith(name + HISTORY)) {
+                    String h = historyOf(f);
+                    if (h != null)
+                        used.add(h);
+                }
+            }
+        }
+        for (Path h : histories.values()) {
+            if (used.contains(h.getFileName().toString()))
+                continue;
+            try {
+                Files.deleteIfExists(h);
+            } catch (IOException e) {
+                // still mapped where that forbids deleting; a later save tries again
+            }
+        }
+    }
+
+    // The history file an indexed snapshot refers to; null for any other file.
+    private static String historyOf(Path snapshot) throws IOException {
+        try (FileChannel ch = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_BYTES + 4 + TRAILER_BYTES)
+                return null;
+            ByteBuffer header = read(ch, 0L, HEADER_BYTES + 4);
+            if (header.getInt() != MAGIC || (header.getShort() & 0xFFFF) != VERSION)
+                return null;
+            int n = header.getInt();
+            if (n < 0 || n > ch.size() - HEADER_BYTES - 4)
+                return null;
+            return readString(read(ch, HEADER_BYTES, 4 + n));
+        }
+    }
+
+    @Override
+    public Object load(String filename) throws IOException, ClassNotFoundException {
+        Path p = Paths.get(filename);
+        if (!Files.exists(p))
+            return null;
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES + TRAILER_BYTES || read(ch, 0L, 4).getInt() != MAGIC)
+                return eager.load(filename);
+            int version = read(ch, 4L, 2).getShort() & 0xFFFF;
+            if (version != VERSION)
+                throw new IOException("Unsupported snapshot version " + version);
+            ByteBuffer trailer = read(ch, size - TRAILER_BYTES, TRAILER_BYTES);
+            long indexAt = trailer.getLong();
+            if (trailer.getInt() != MAGIC || indexAt < HEADER_BYTES || indexAt > size - TRAILER_BYTES)
+                throw new IOException("Truncated indexed snapshot");
+            return read(ch, new IndexReader(ch, indexAt, size - TRAILER_BYTES), p);
+        }
+    }
+
+    private static BankServiceImpl read(FileChannel ch, IndexReader in, Path snapshot) throws IOException {
+        Path historyFile = snapshot.resolveSibling(in.getString());
+        double minOpening = in.getDouble();
+        double minSavings = in.getDouble();
+        double minCurrent = in.getDouble();
+        double dailyLimit = in.getDouble();
+        String adminUser = in.getString();
+        String adminHash = in.getString();
+        String adminSalt = in.getString();
+        long nextAccount = in.getLong();
+        SavedHistory history = new SavedHistory(historyFile, in.getInt());
+        int count = in.getInt();
+        Account[] accounts = new Account[count];
+        List<Chunk> chunks = new ArrayList<>();
+        long at = in.position();
+        for (int first = 0; first < count;) {
+            ByteBuffer head = read(ch, at, 8);
+            int rows = head.getInt();
+            Chunk c = new Chunk(at + 8, head.getInt(), first, rows);
+            if (c.rows <= 0 || c.rows > count - first || c.bytes < 0 || c.at + c.bytes > in.end)
+                throw new IOException("Corrupt snapshot index");
+            chunks.add(c);
+            first += c.rows;
+            at = c.at + c.bytes;
+        }
+        parseAll(ch, chunks, accounts, history);
+        return BankServiceImpl.restore(minOpening, minSavings, minCurrent, dailyLimit, adminUser, adminHash,
+                adminSalt, nextAccount, Arrays.asList(accounts));
+    }
+
+    // One run of index entries, parsed on its own.
+    private static final class Chunk {
+        final long at;
+        final int bytes;
+        final int first;
+        final int rows;
+
+        Chunk(long at, int bytes, int first, int rows) {
+            this.at = at;
+            this.rows = rows;
+            this.first = first;
+            this.bytes = bytes;
+        }
+    }
+
+    // Parses the chunks in parallel where there is more than one processor to do it.
+    private static void parseAll(FileChannel ch, List<Chunk> chunks, Account[] into, SavedHistory history)
+            throws IOException {
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), chunks.size());
+        if (threads <= 1) {
+            for (Chunk c : chunks)
+                parse(ch, c, into, history);
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (Chunk c : chunks)
+                results.add(pool.submit(() -> {
+                    try {
+                        parse(ch, c, into, history);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            for (Future<?> f : results)
+                f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException)
+                throw ((UncheckedIOException) cause).getCause();
+            throw new IOException("Snapshot load failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Snapshot load interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void parse(FileChannel ch, Chunk c, Account[] into, SavedHistory history) throws IOException {
+        IndexReader in = new IndexReader(ch, c.at, c.at + c.bytes);
+        for (int i = c.first; i < c.first + c.rows; i++) {
+            long number = in.getLong();
+            String owner = in.getString();
+            AccountType type = TYPES[in.get()];
+            boolean active = in.get() != 0;
+            long createdMicros = in.getLong();
+            String hash = in.getString();
+            String salt = in.getString();
+            long balance = in.getLong();
+            int rows = in.getInt();
+            long offset = in.getLong();
+            int bytes = in.getInt();
+            long lastMicros = in.getLong();
+            ColdBlock block = rows == 0 ? null : new ColdBlock(0, offset, bytes, 0, rows, lastMicros);
+            into[i] = Account.restore(number, owner, type, hash, salt, TransactionLog.fromMicros(createdMicros),
+                    active, balance, block, history);
+        }
+        if (in.position() != c.at + c.bytes)
+            throw new IOException("Corrupt snapshot index");
+    }
+
+    // Strings decode straight from a heap buffer's array.
+    private static String readString(ByteBuffer in) {
+        return readString(in, in.getInt());
+    }
+
+    private static String readString(ByteBuffer in, int n) {
+        String s = new String(in.array(), in.position(), n, StandardCharsets.UTF_8);
+        in.position(in.position() + n);
+        return s;
+    }
+
+    private static ByteBuffer read(FileChannel ch, long at, int n) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(n);
+        while (buf.hasRemaining())
+            if (ch.read(buf, at + buf.position()) < 0)
+                throw new IOException("Unexpected end of snapshot");
+        return buf.flip();
+    }
+
+    /**
+     * Reads the index a buffer at a time, so loading a large bank never holds
+     * the whole index on the heap at once. Strings decode straight from the
+     * buffer's array.
+     */
+    private static final class IndexReader {
+        private final FileChannel ch;
+        final long end;
+        private long at;
+        private ByteBuffer buf = ByteBuffer.allocate(BUFFER).limit(0);
+
+        IndexReader(FileChannel ch, long from, long to) {
+            this.ch = ch;
+            this.at = from;
+            this.end = to;
+        }
+
+        // The buffer, holding at least n unread bytes.
+        private ByteBuffer need(int n) throws IOException {
+            if (buf.remaining() >= n)
+                return buf;
+            if (n > buf.remaining() + (end - at))
+                throw new IOException("Truncated snapshot index");
+            if (n > buf.capacity())
+                buf = ByteBuffer.allocate(n).put(buf);
+            else
+                buf.compact();
+            buf.limit((int) Math.min(buf.capacity(), buf.position() + (end - at)));
+            while (buf.hasRemaining()) {
+                int r = ch.read(buf, at);
+                if (r < 0)
+                    throw new IOException("Unexpected end of snapshot");
+                at += r;
+            }
+            return buf.flip();
+        }
+
+        // File position of the next unread byte.
+        long position() {
+            return at - buf.remaining();
+        }
+
+        byte get() throws IOException {
+            return need(1).get();
+        }
+
+        int getInt() throws IOException {
+            return need(4).getInt();
+        }
+
+        long getLong() throws IOException {
+            return need(8).getLong();
+        }
+
+        double getDouble() throws IOException {
+            return need(8).getDouble();
+        }
+
+        String getString() throws IOException {
+            int n = getInt();
+            if (n < 0)
+                throw new IOException("Corrupt snapshot index");
+            return readString(need(n), n);
+        }
+    }
+
+    /**
+     * The history file of one snapshot, mapped read-only so that a reader
+     * being interrupted cannot close it for everyone else. No block is longer
+     * than the overlap between windows, so each lies whole inside the window
+     * its offset falls in.
+     */
+    private static final class SavedHistory implements ColdStore {
+        private final ByteBuffer[] windows;
+
+        SavedHistory(Path file, int largestBlock) throws IOException {
+            if (largestBlock > Integer.MAX_VALUE - WINDOW)
+                throw new IOException("History block too large: " + largestBlock + " bytes");
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                long end = ch.size();
+                ByteBuffer header = IndexedPersistence.read(ch, 0L, HEADER_BYTES);
+                if (header.getInt() != HISTORY_MAGIC || (header.getShort() & 0xFFFF) != VERSION)
+                    throw new IOException("Not a snapshot history file: " + file);
+                windows = new ByteBuffer[(int) ((end + WINDOW - 1) / WINDOW)];
+                for (int i = 0; i < windows.length; i++) {
+                    long from = i * WINDOW;
+                    long to = Math.min(end, from + WINDOW + largestBlock);
+                    windows[i] = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+                }
+            }
+        }
+
+        @Override
+        public ColdBlock write(long accountNumber, TransactionLog.Cursor rows) throws IOException {
+            throw new IOException("Saved history is read-only");
+        }
+
+        @Override
+        public void read(ColdBlock block, TransactionLog into) {
+            int at = (int) (block.getOffset() % WINDOW);
+            ByteBuffer buf = windows[(int) (block.getOffset() / WINDOW)].duplicate();
+            buf.limit(at + block.getBytes()).position(at);
+            SegmentFileStore.readRows(buf, block.getRows(), into);
+        }
+    }
+}
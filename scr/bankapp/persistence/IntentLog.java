@@ -0,0 +1,214 @@
+package bankapp.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Durable record of cross-node transfers in progress, kept by the
+ * coordinating router and by every node taking part. Records are framed
+ * like the journal's ({@code [int length][int crc32][payload]}). Opening the
+ * log replays it to the latest state of each transfer, stopping at a torn
+ * frame, and rewrites it with only the unfinished ones. Intents are kept
+ * per leg, by transfer id and account, so one node can hold both legs of
+ * a transfer.
+ */
+public final class IntentLog implements Closeable {
+    public enum State {
+        // coordinator: about to prepare
+        BEGUN,
+        // participant: checks passed, funds held
+        PREPARED,
+        // coordinator decisions
+        COMMIT, ABORT,
+        // finished everywhere this log cares about
+        DONE
+    }
+
+    public static final class Intent {
+        private final String txId;
+        private final State state;
+        private final long accountNumber;
+        private final long counterparty;
+        private final long cents;
+        private final boolean debit;
+        private final String narration;
+
+        public Intent(String txId, State state, long accountNumber, long counterparty, long cents, boolean debit,
+                String narration) {
+            this.txId = txId;
+            this.state = state;
+            this.accountNumber = accountNumber;
+            this.counterparty = counterparty;
+            this.cents = cents;
+            this.debit = debit;
+            this.narration = narration;
+        }
+
+        public Intent withState(State s) {
+            return new Intent(txId, s, accountNumber, counterparty, cents, debit, narration);
+        }
+
+        public String getTxId() {
+            return txId;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /** The debited account for the coordinator; this node's account for a participant. */
+        public long getAccountNumber() {
+            return accountNumber;
+        }
+
+        public long getCounterparty() {
+            return counterparty;
+        }
+
+        public long getCents() {
+            return cents;
+        }
+
+        public boolean isDebit() {
+            return debit;
+        }
+
+        public String getNarration() {
+            return narration;
+        }
+    }
+
+    private final Path path;
+    // by key(txId, accountNumber)
+    private final Map<String, Intent> pending = new LinkedHashMap<>();
+    private FileChannel channel;
+
+    public IntentLog(Path path) throws IOException {
+        this.path = path;
+        if (Files.exists(path))
+            replay();
+        Path tmp = Paths.get(path + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Intent i : pending.values())
+                write(out, i);
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void replay() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int len = in.readInt();
+                int crc = in.readInt();
+                if (len <= 0 || len > 1 << 16)
+                    return;
+                byte[] payload = new byte[len];
+                in.readFully(payload);
+                CRC32 c = new CRC32();
+                c.update(payload);
+                if ((int) c.getValue() != crc)
+                    return;
+                Intent i = decode(payload);
+                if (i.state == State.DONE)
+                    pending.remove(key(i.txId, i.accountNumber));
+                else
+                    pending.put(key(i.txId, i.accountNumber), i);
+            }
+        } catch (IOException e) {
+            // torn tail: keep what replayed cleanly
+        }
+    }
+
+    /** Records the new state of a transfer; {@code force} makes it durable before returning. */
+    public synchronized void append(Intent i, boolean force) throws IOException {
+        write(channel, i);
+        if (force)
+            channel.force(false);
+        if (i.state == State.DONE)
+            pending.remove(key(i.txId, i.accountNumber));
+        else
+            pending.put(key(i.txId, i.accountNumber), i);
+    }
+
+    /** Identifies one leg of a transfer. */
+    public static String key(String txId, long accountNumber) {
+        return txId + ":" + accountNumber;
+    }
+
+    public synchronized Intent get(String txId, long accountNumber) {
+        return pending.get(key(txId, accountNumber));
+    }
+
+    /** Unfinished legs of one transfer. */
+    public synchronized List<Intent> legs(String txId) {
+        List<Intent> out = new ArrayList<>(2);
+        for (Intent i : pending.values())
+            if (i.txId.equals(txId))
+                out.add(i);
+        return out;
+    }
+
+    /** Latest state of every unfinished transfer, oldest first. */
+    public synchronized Collection<Intent> pending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    private static void write(FileChannel ch, Intent i) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(i.txId);
+        out.writeByte(i.state.ordinal());
+        out.writeLong(i.accountNumber);
+        out.writeLong(i.counterparty);
+        out.writeLong(i.cents);
+        out.writeBoolean(i.debit);
+        out.writeBoolean(i.narration != null);
+        if (i.narration != null)
+            out.writeUTF(i.narration);
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        while (frame.hasRemaining())
+            ch.write(frame);
+    }
+
+    private static Intent decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String txId = in.readUTF();
+        State state = State.values()[in.readUnsignedByte()];
+        long acc = in.readLong();
+        long other = in.readLong();
+        long cents = in.readLong();
+        boolean debit = in.readBoolean();
+        String narration = in.readBoolean() ? in.readUTF() : null;
+        return new Intent(txId, state, acc, other, cents, debit, narration);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,17 @@
+package bankapp.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface Journal extends Closeable {
+    /**
+     * Queues or writes the record.
+     *
+     * @return a ticket to pass to {@link #awaitDurable(long)}
+     */
+    long append(JournalRecord record) throws IOException;
+
+    /** Blocks until the record behind {@code ticket}, and every one before it, is durable. */
+    default void awaitDurable(long ticket) throws IOException {
+    }
+}
@@ -0,0 +1,212 @@
+package bankapp.persistence;
+
+import bankapp.exceptions.BankException;
+import bankapp.service.BankService;
+import bankapp.service.BankServiceImpl;
+import bankapp.service.BankSnapshot;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot plus write-ahead journal. Between snapshots each state change is
+ * appended to {@code <file>.journal}, and {@link #load} replays it over the
+ * snapshot. With a positive group-commit batch size the journal fsyncs in
+ * batches (see {@link GroupCommitJournal}).
+ * <p>
+ * A checkpoint ({@link #checkpoint}, or {@link #save} of a
+ * {@link BankServiceImpl}) does not stop writers. It renames the journal to
+ * a numbered segment {@code <file>.journal.<n>} and carries on in a new one,
+ * which starts with the debits of transfers between shards still in flight;
+ * writes the accounts as of a snapshot that holds every record of the
+ * segment to a temp file; forces it and renames it over {@code <file>}; and
+ * only then deletes the segment. After a crash part way through, the
+ * segment is replayed over the previous snapshot. Replaying a record a
+ * snapshot already holds changes nothing, so the order of these steps is
+ * all that matters.
+ */
+public class JournalPersistence implements Persistence {
+    private final Persistence snapshots;
+    private final boolean forceEachAppend;
+    private final long groupCommitDelayMicros;
+    private final int groupCommitBatch;
+    private FileJournal journal;
+    // one checkpoint at a time; the journal itself stays open to writers throughout
+    private final Object checkpointLock = new Object();
+    private volatile int retainedCheckpoints = 1;
+    private long generation;
+
+    public JournalPersistence() {
+        this(new IndexedPersistence(), false);
+    }
+
+    public JournalPersistence(Persistence snapshots, boolean forceEachAppend) {
+        this.snapshots = snapshots;
+        this.forceEachAppend = forceEachAppend;
+        this.groupCommitDelayMicros = 0L;
+        this.groupCommitBatch = 0;
+    }
+
+    public JournalPersistence(Persistence snapshots, long groupCommitDelayMicros, int groupCommitBatch) {
+        if (groupCommitBatch <= 0)
+            throw new IllegalArgumentException("Batch size must be positive");
+        this.snapshots = snapshots;
+        this.forceEachAppend = true;
+        this.groupCommitDelayMicros = groupCommitDelayMicros;
+        this.groupCommitBatch = groupCommitBatch;
+    }
+
+    public static Path journalPath(String filename) {
+        return Paths.get(filename + ".journal");
+    }
+
+    /**
+     * Journal segments a checkpoint has rotated out but not yet deleted,
+     * oldest first; they are replayed before {@link #journalPath}.
+     */
+    public static List<Path> journalSegments(String filename) throws IOException {
+        return new ArrayList<>(numbered(filename + ".journal.").values());
+    }
+
+    /**
+     * Keeps the newest {@code count} checkpoints as {@code <file>.ckpt.<n>}
+     * besides {@code <file>} itself (as hard links where the file system
+     * has them); 1, the default, keeps none.
+     */
+    public void setRetainedCheckpoints(int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("At least the current checkpoint is kept");
+        retainedCheckpoints = count;
+    }
+
+    public synchronized Journal openJournal(String filename) throws IOException {
+        Path p = journalPath(filename);
+        if (journal != null) {
+            if (journal.getPath().equals(p))
+                return journal;
+            journal.close();
+        }
+        journal = groupCommitBatch > 0
+                ? new GroupCommitJournal(p, groupCommitDelayMicros, TimeUnit.MICROSECONDS, groupCommitBatch)
+                : new FileJournal(p, forceEachAppend);
+        return journal;
+    }
+
+    @Override
+    public void save(BankService state, String filename) throws IOException {
+        if (state instanceof BankServiceImpl) {
+            checkpoint((BankServiceImpl) state, filename);
+            return;
+        }
+        synchronized (checkpointLock) {
+            Path tmp = Paths.get(filename + ".tmp");
+            snapshots.save(state, tmp.toString());
+            install(tmp, Paths.get(filename));
+            Files.deleteIfExists(journalPath(filename));
+        }
+    }
+
+    /**
+     * Writes a checkpoint of {@code bank} to {@code filename} as described
+     * above, on the calling thread; writers carry on meanwhile.
+     */
+    public void checkpoint(BankServiceImpl bank, String filename) throws IOException {
+        synchronized (checkpointLock) {
+            FileJournal j;
+            synchronized (this) {
+                j = (journal != null && journal.getPath().equals(journalPath(filename))) ? journal : null;
+            }
+            TreeMap<Long, Path> kept = numbered(filename + ".ckpt.");
+            TreeMap<Long, Path> segments = numbered(filename + ".journal.");
+            generation = Math.max(generation, Math.max(last(kept), last(segments))) + 1;
+            if (j != null) {
+                j.rotate(Paths.get(filename + ".journal." + generation));
+                try {
+                    bank.rejournalPendingTransfers();
+                } catch (BankException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+            Path tmp = Paths.get(filename + ".tmp");
+            try (BankSnapshot snapshot = bank.openSnapshotCoveringJournal()) {
+                snapshots.save(bank, snapshot, tmp.toString());
+            }
+            if (retainedCheckpoints > 1) {
+                Path copy = Paths.get(filename + ".ckpt." + generation);
+                try {
+                    Files.createLink(copy, tmp);
+                } catch (UnsupportedOperationException | IOException e) {
+                    Files.copy(tmp, copy, StandardCopyOption.REPLACE_EXISTING);
+                }
+                kept.put(generation, copy);
+            }
+            install(tmp, Paths.get(filename));
+            // everything rotated out so far is in the snapshot now
+            for (Path segment : numbered(filename + ".journal.").values())
+                Files.deleteIfExists(segment);
+            if (j == null)
+                Files.deleteIfExists(journalPath(filename));
+            int excess = kept.size() - (retainedCheckpoints > 1 ? retainedCheckpoints : 0);
+            for (Path old : kept.values()) {
+                if (excess-- <= 0)
+                    break;
+                Files.deleteIfExists(old);
+            }
+        }
+    }
+
+    // Forces the temp file, renames it into place and forces the directory, so the rename survives a crash too.
+    private static void install(Path tmp, Path target) throws IOException {
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Path dir = target.toAbsolutePath().getParent();
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+            // not every platform can open a directory; the rename is still atomic
+        }
+    }
+
+    // Files named prefix + number, by number.
+    static TreeMap<Long, Path> numbered(String prefix) throws IOException {
+        Path p = Paths.get(prefix).toAbsolutePath();
+        String name = p.getFileName().toString();
+        TreeMap<Long, Path> out = new TreeMap<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(p.getParent(), name + "*")) {
+            for (Path f : dir) {
+                String n = f.getFileName().toString().substring(name.length());
+                if (!n.isEmpty() && n.chars().allMatch(Character::isDigit) && n.length() < 19)
+                    out.put(Long.parseLong(n), f);
+            }
+        }
+        return out;
+    }
+
+    private static long last(TreeMap<Long, Path> numbered) {
+        return numbered.isEmpty() ? 0L : numbered.lastKey();
+    }
+
+    @Override
+    public Object load(String filename) throws IOException, ClassNotFoundException {
+        Object base = snapshots.load(filename);
+        if (base instanceof BankServiceImpl) {
+            BankServiceImpl bank = (BankServiceImpl) base;
+            for (Path segment : journalSegments(filename))
+                FileJournal.replay(segment, bank::applyJournalRecord);
+            FileJournal.replay(journalPath(filename), bank::applyJournalRecord);
+        }
+        return base;
+    }
+}
@@ -0,0 +1,271 @@
+package bankapp.persistence;
+
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.Transaction;
+import bankapp.model.TransactionType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One state change of the bank, as written to the journal. Records carry
+ * final values (balance after, hashes) so replaying them is idempotent.
+ * A {@link Kind#BATCH} record holds several transaction records written as
+ * one frame, so they are replayed all together or not at all. A transfer
+ * between shards is journaled in two legs: {@link Kind#TRANSFER_DEBIT}
+ * names the account the money is going to, and the
+ * {@link Kind#TRANSFER_CREDIT} that credits or refunds it names the debit,
+ * so a replay can tell which transfers a crash left half done.
+ */
+public final class JournalRecord {
+    public enum Kind {
+        CREATE_ACCOUNT, TRANSACTION, ACCOUNT_STATUS, PIN_CHANGE, ADMIN_PASSWORD, BATCH, TRANSFER_DEBIT, TRANSFER_CREDIT
+    }
+
+    private final Kind kind;
+    private final long accountNumber;
+    private final Account account;
+    private final Transaction transaction;
+    private final boolean active;
+    private final String hashBase64;
+    private final String saltBase64;
+    private final List<JournalRecord> parts;
+    private final long toAccountNumber;
+    private final String debitTxId;
+
+    private JournalRecord(Kind kind, long accountNumber, Account account, Transaction transaction, boolean active,
+            String hashBase64, String saltBase64) {
+        this(kind, accountNumber, account, transaction, active, hashBase64, saltBase64, null, 0L, null);
+    }
+
+    private JournalRecord(Kind kind, long accountNumber, Transaction transaction, long toAccountNumber,
+            String debitTxId) {
+        this(kind, accountNumber, null, transaction, true, null, null, null, toAccountNumber, debitTxId);
+    }
+
+    private JournalRecord(Kind kind, long accountNumber, Account account, Transaction transaction, boolean active,
+            String hashBase64, String saltBase64, List<JournalRecord> parts, long toAccountNumber,
+            String debitTxId) {
+        this.kind = kind;
+        this.accountNumber = accountNumber;
+        this.account = account;
+        this.transaction = transaction;
+        this.active = active;
+        this.hashBase64 = hashBase64;
+        this.saltBase64 = saltBase64;
+        this.parts = parts;
+        this.toAccountNumber = toAccountNumber;
+        this.debitTxId = debitTxId;
+    }
+
+    public static JournalRecord createAccount(Account a) {
+        return new JournalRecord(Kind.CREATE_ACCOUNT, a.getAccountNumber(), a, null, true, a.getPinHashBase64(),
+                a.getPinSaltBase64());
+    }
+
+    public static JournalRecord transaction(long accountNumber, Transaction t) {
+        return new JournalRecord(Kind.TRANSACTION, accountNumber, null, t, true, null, null);
+    }
+
+    public static JournalRecord accountStatus(long accountNumber, boolean active) {
+        return new JournalRecord(Kind.ACCOUNT_STATUS, accountNumber, null, null, active, null, null);
+    }
+
+    public static JournalRecord pinChange(long accountNumber, String hashBase64, String saltBase64) {
+        return new JournalRecord(Kind.PIN_CHANGE, accountNumber, null, null, true, hashBase64, saltBase64);
+    }
+
+    public static JournalRecord adminPassword(String hashBase64, String saltBase64) {
+        return new JournalRecord(Kind.ADMIN_PASSWORD, 0L, null, null, true, hashBase64, saltBase64);
+    }
+
+    /** Transaction records that must be applied together; each must be of {@link Kind#TRANSACTION}. */
+    public static JournalRecord batch(List<JournalRecord> parts) {
+        for (JournalRecord r : parts)
+            if (r.kind != Kind.TRANSACTION)
+                throw new IllegalArgumentException("Only transactions can be batched");
+        return new JournalRecord(Kind.BATCH, 0L, null, null, true, null, null, List.copyOf(parts), 0L, null);
+    }
+
+    /** The debit leg of a transfer between shards, whose credit is still to come. */
+    public static JournalRecord transferDebit(long accountNumber, Transaction t, long toAccountNumber) {
+        return new JournalRecord(Kind.TRANSFER_DEBIT, accountNumber, t, toAccountNumber, null);
+    }
+
+    /** The credit, or the refund, that completes the transfer whose debit was {@code debitTxId}. */
+    public static JournalRecord transferCredit(long accountNumber, Transaction t, String debitTxId) {
+        return new JournalRecord(Kind.TRANSFER_CREDIT, accountNumber, t, 0L, debitTxId);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public long getAccountNumber() {
+        return accountNumber;
+    }
+
+    /** The freshly created account, without history; only for {@link Kind#CREATE_ACCOUNT}. */
+    public Account getAccount() {
+        return account;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public String getHashBase64() {
+        return hashBase64;
+    }
+
+    public String getSaltBase64() {
+        return saltBase64;
+    }
+
+    /** The transaction records of a {@link Kind#BATCH}, in the order they were applied. */
+    public List<JournalRecord> getParts() {
+        return parts;
+    }
+
+    /** Where a {@link Kind#TRANSFER_DEBIT} sends the money. */
+    public long getToAccountNumber() {
+        return toAccountNumber;
+    }
+
+    /** The debit a {@link Kind#TRANSFER_CREDIT} completes. */
+    public String getDebitTxId() {
+        return debitTxId;
+    }
+
+    public byte[] encode() throws IOException {
+        var bytes = new ByteArrayOutputStream(96);
+        var out = new DataOutputStream(bytes);
+        out.writeByte(kind.ordinal());
+        out.writeLong(accountNumber);
+        switch (kind) {
+            case CREATE_ACCOUNT:
+                out.writeUTF(account.getOwnerName());
+                out.writeByte(account.getType().ordinal());
+                writeTime(out, account.getCreatedAt());
+                out.writeUTF(hashBase64);
+                out.writeUTF(saltBase64);
+                break;
+            case TRANSACTION:
+                writeTransaction(out, transaction);
+                break;
+            case ACCOUNT_STATUS:
+                out.writeBoolean(active);
+                break;
+            case PIN_CHANGE:
+            case ADMIN_PASSWORD:
+                out.writeUTF(hashBase64);
+                out.writeUTF(saltBase64);
+                break;
+            case BATCH:
+                out.writeInt(parts.size());
+                for (JournalRecord r : parts) {
+                    out.writeLong(r.accountNumber);
+                    writeTransaction(out, r.transaction);
+                }
+                break;
+            case TRANSFER_DEBIT:
+                writeTransaction(out, transaction);
+                out.writeLong(toAccountNumber);
+                break;
+            case TRANSFER_CREDIT:
+                writeTransaction(out, transaction);
+                writeId(out, debitTxId);
+                break;
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static JournalRecord decode(DataInputStream in) throws IOException {
+        Kind kind = Kind.values()[in.readUnsignedByte()];
+        long accNo = in.readLong();
+        switch (kind) {
+            case CREATE_ACCOUNT: {
+                String owner = in.readUTF();
+                AccountType type = AccountType.values()[in.readUnsignedByte()];
+                LocalDateTime createdAt = readTime(in);
+                String hash = in.readUTF();
+                String salt = in.readUTF();
+                return createAccount(new Account(accNo, owner, type, hash, salt, createdAt));
+            }
+            case TRANSACTION:
+                return transaction(accNo, readTransaction(in));
+            case ACCOUNT_STATUS:
+                return accountStatus(accNo, in.readBoolean());
+            case PIN_CHANGE:
+                return pinChange(accNo, in.readUTF(), in.readUTF());
+            case ADMIN_PASSWORD:
+                return adminPassword(in.readUTF(), in.readUTF());
+            case BATCH: {
+                int n = in.readInt();
+                List<JournalRecord> parts = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    long account = in.readLong();
+                    parts.add(transaction(account, readTransaction(in)));
+                }
+                return batch(parts);
+            }
+            case TRANSFER_DEBIT:
+                return transferDebit(accNo, readTransaction(in), in.readLong());
+            default:
+                return transferCredit(accNo, readTransaction(in), readId(in));
+        }
+    }
+
+    private static void writeId(DataOutputStream out, String txId) throws IOException {
+        UUID id = UUID.fromString(txId);
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static String readId(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong()).toString();
+    }
+
+    private static void writeTransaction(DataOutputStream out, Transaction t) throws IOException {
+        writeId(out, t.getTxId());
+        writeTime(out, t.getTimestamp());
+        out.writeByte(t.getType().ordinal());
+        out.writeLong(t.getAmountCents());
+        out.writeLong(t.getBalanceAfterCents());
+        out.writeUTF(t.getNarration());
+    }
+
+    private static Transaction readTransaction(DataInputStream in) throws IOException {
+        String txId = readId(in);
+        LocalDateTime ts = readTime(in);
+        TransactionType type = TransactionType.values()[in.readUnsignedByte()];
+        long amount = in.readLong();
+        long balanceAfter = in.readLong();
+        String narration = in.readUTF();
+        return new Transaction(txId, ts, type, amount, balanceAfter, narration);
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime t) throws IOException {
+        out.writeLong(t.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(t.getNano());
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        long seconds = in.readLong();
+        int nanos = in.readInt();
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+}
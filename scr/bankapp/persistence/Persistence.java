@@ -1,10 +1,21 @@
 package bankapp.persistence;
 
 import bankapp.service.BankService;
+import bankapp.service.BankServiceImpl;
+import bankapp.service.BankSnapshot;
 import java.io.IOException;
 
 public interface Persistence {
     void save(BankService state, String filename) throws IOException;
 
+    /**
+     * Saves the accounts as they were at {@code snapshot}, with the rest of
+     * {@code bank}'s state as it is now, while the bank keeps changing.
+     * Formats that can only write a bank at rest do not support this.
+     */
+    default void save(BankServiceImpl bank, BankSnapshot snapshot, String filename) throws IOException {
+        throw new IOException(getClass().getSimpleName() + " cannot save from a snapshot");
+    }
+
     Object load(String filename) throws IOException, ClassNotFoundException;
 }
@@ -0,0 +1,130 @@
+package bankapp.persistence;
+
+import bankapp.model.ColdBlock;
+import bankapp.model.ColdStore;
+import bankapp.model.TransactionLog;
+import bankapp.model.TransactionType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cold history tier shared by all accounts: blocks of old transactions are
+ * appended to fixed-size, memory-mapped segment files in one directory and
+ * read back through the mapping. The segments only back the heap for the
+ * life of the process; snapshots still carry the full history, so any
+ * segments left from an earlier run are deleted on open.
+ */
+public class SegmentFileStore implements ColdStore {
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private MappedByteBuffer current;
+
+    public SegmentFileStore(Path dir) throws IOException {
+        this(dir, 64 << 20);
+    }
+
+    public SegmentFileStore(Path dir, int segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(dir, "history-*.seg")) {
+            for (Path p : old)
+                Files.delete(p);
+        }
+    }
+
+    @Override
+    public ColdBlock write(long accountNumber, TransactionLog.Cursor rows) throws IOException {
+        var bytes = new ByteArrayOutputStream(rows.count() * 64);
+        var out = new DataOutputStream(bytes);
+        // the cursor has not moved yet, so row() is one before its first row
+        int firstRow = rows.count() == 0 ? -1 : rows.row() + 1;
+        long lastMicros = writeRows(out, rows);
+        out.flush();
+        byte[] block = bytes.toByteArray();
+        synchronized (this) {
+            if (current == null || current.remaining() < block.length)
+                current = newSegment(Math.max(segmentBytes, block.length));
+            int offset = current.position();
+            current.put(block);
+            return new ColdBlock(segments.size() - 1, offset, block.length, firstRow, rows.count(), lastMicros);
+        }
+    }
+
+    @Override
+    public void read(ColdBlock block, TransactionLog into) throws IOException {
+        ByteBuffer buf;
+        synchronized (this) {
+            buf = segments.get(block.getSegment()).duplicate();
+        }
+        buf.limit((int) block.getOffset() + block.getBytes());
+        buf.position((int) block.getOffset());
+        readRows(buf, block.getRows(), into);
+    }
+
+    /**
+     * Writes every row under the cursor in the block layout shared by the
+     * cold tier and {@link IndexedPersistence}.
+     *
+     * @return the newest timestamp written, in epoch micros
+     */
+    static long writeRows(DataOutputStream out, TransactionLog.Cursor rows) throws IOException {
+        long lastMicros = Long.MIN_VALUE;
+        while (rows.next()) {
+            out.writeLong(rows.idHigh());
+            out.writeLong(rows.idLow());
+            out.writeLong(rows.epochMicros());
+            out.writeByte(rows.type().ordinal());
+            out.writeLong(rows.amountCents());
+            out.writeLong(rows.balanceAfterCents());
+            byte[] narr = rows.narration().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(narr.length);
+            out.write(narr);
+            lastMicros = Math.max(lastMicros, rows.epochMicros());
+        }
+        return lastMicros;
+    }
+
+    /** Appends {@code count} rows written by {@link #writeRows} from {@code buf} to {@code into}. */
+    static void readRows(ByteBuffer buf, int count, TransactionLog into) {
+        byte[] narr = new byte[64];
+        for (int i = 0; i < count; i++) {
+            long hi = buf.getLong();
+            long lo = buf.getLong();
+            long micros = buf.getLong();
+            TransactionType type = TYPES[buf.get()];
+            long amount = buf.getLong();
+            long balanceAfter = buf.getLong();
+            int len = buf.getInt();
+            if (len > narr.length)
+                narr = new byte[len];
+            buf.get(narr, 0, len);
+            into.append(hi, lo, micros, type, amount, balanceAfter, new String(narr, 0, len, StandardCharsets.UTF_8));
+        }
+    }
+
+    private MappedByteBuffer newSegment(int size) throws IOException {
+        Path p = dir.resolve(String.format("history-%05d.seg", segments.size()));
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            segments.add(m);
+            return m;
+        }
+    }
+}
@@ -1,11 +1,32 @@
 package bankapp.security;
 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Base64;
+import javax.crypto.Mac;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 
 public final class AuthProvider_2 implements AuthProvider {
+    // Provider lookups are costly; each thread keeps its own instances, which are not thread-safe.
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    });
+    private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 unavailable", e);
+        }
+    });
+
     private final int iterations;
     private final int keyLength;
     private final SecureRandom rng = new SecureRandom();
@@ -31,15 +52,45 @@ public final class AuthProvider_2 implements AuthProvider {
         if (pin == null)
             pin = "";
         try {
-            PBEKeySpec spec = new PBEKeySpec(pin.toCharArray(), salt, iterations, keyLength);
-            SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-            byte[] dk = skf.generateSecret(spec).getEncoded();
+            byte[] dk;
+            if (pin.isEmpty()) {
+                // an HMAC key cannot be empty, so the JCE implementation handles this case
+                PBEKeySpec spec = new PBEKeySpec(pin.toCharArray(), salt, iterations, keyLength);
+                dk = FACTORY.get().generateSecret(spec).getEncoded();
+            } else {
+                dk = pbkdf2(pin.getBytes(StandardCharsets.UTF_8), salt);
+            }
             return Base64.getEncoder().encodeToString(dk);
         } catch (Exception e) {
             throw new RuntimeException("PBKDF2 failure", e);
         }
     }
 
+    // PBKDF2-HMAC-SHA256 (RFC 8018) on this thread's Mac; same output as SecretKeyFactory for the same inputs.
+    private byte[] pbkdf2(byte[] password, byte[] salt) throws GeneralSecurityException {
+        Mac mac = MAC.get();
+        mac.init(new SecretKeySpec(password, "HmacSHA256"));
+        Arrays.fill(password, (byte) 0);
+        int hLen = mac.getMacLength();
+        byte[] dk = new byte[keyLength / 8];
+        byte[] u = new byte[hLen];
+        byte[] t = new byte[hLen];
+        for (int block = 1, off = 0; off < dk.length; block++, off += hLen) {
+            mac.update(salt);
+            mac.update(new byte[] { (byte) (block >>> 24), (byte) (block >>> 16), (byte) (block >>> 8), (byte) block });
+            mac.doFinal(u, 0);
+            System.arraycopy(u, 0, t, 0, hLen);
+            for (int i = 1; i < iterations; i++) {
+                mac.update(u);
+                mac.doFinal(u, 0);
+                for (int j = 0; j < hLen; j++)
+                    t[j] ^= u[j];
+            }
+            System.arraycopy(t, 0, dk, off, Math.min(hLen, dk.length - off));
+        }
+        return dk;
+    }
+
     @Override
     public boolean verifyPin(String pin, String storedBase64Hash, byte[] salt) {
         String computed = hashPin(pin, salt);
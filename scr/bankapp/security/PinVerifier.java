@@ -0,0 +1,68 @@
+package bankapp.security;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs PIN and password checks on a small pool of below-normal-priority
+ * threads, so a burst of logins uses the spare cores without taking the
+ * caller threads or starving transaction processing. At most
+ * {@code maxQueued} checks wait for a worker; beyond that a check fails
+ * at once with {@link RejectedExecutionException}.
+ */
+public final class PinVerifier implements AutoCloseable {
+    private final AuthProvider provider;
+    private final ThreadPoolExecutor pool;
+
+    public PinVerifier(AuthProvider provider) {
+        this(provider, Math.max(1, Runtime.getRuntime().availableProcessors() - 1), 1024);
+    }
+
+    public PinVerifier(AuthProvider provider, int threads, int maxQueued) {
+        if (provider == null)
+            throw new IllegalArgumentException("AuthProvider required");
+        if (threads <= 0 || maxQueued <= 0)
+            throw new IllegalArgumentException("threads and maxQueued must be positive");
+        this.provider = provider;
+        AtomicInteger seq = new AtomicInteger();
+        ThreadFactory tf = r -> {
+            Thread t = new Thread(r, "pin-verifier-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        };
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueued), tf, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public CompletableFuture<Boolean> verifyAsync(String pin, String storedBase64Hash, byte[] salt) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        try {
+            pool.execute(() -> {
+                try {
+                    result.complete(provider.verifyPin(pin, storedBase64Hash, salt));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /** Checks waiting for a worker. */
+    public int queued() {
+        return pool.getQueue().size();
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -4,6 +4,7 @@ import bankapp.exceptions.BankException;
 import bankapp.model.Account;
 import bankapp.model.AccountType;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface BankService extends java.io.Serializable {
     Account createAccount(String owner, AccountType type, String pin, double openingDeposit) throws BankException;
@@ -16,12 +17,31 @@ public interface BankService extends java.io.Serializable {
 
     void transfer(long fromAcc, long toAcc, double amount, String narration) throws BankException;
 
+    /** Applies {@code ops} all-or-nothing, with one durability wait; results are in submission order. */
+    List<OperationResult> applyBatch(List<Operation> ops) throws BankException;
+
+    /**
+     * Like {@link #applyBatch(List)}; with {@code allOrNothing} false each
+     * operation is applied or rejected on its own.
+     */
+    List<OperationResult> applyBatch(List<Operation> ops, boolean allOrNothing) throws BankException;
+
     void reverseTransaction(long accountNumber, String txId) throws BankException;
 
+    void setAccountActive(long accountNumber, boolean active) throws BankException;
+
+    void changePin(long accountNumber, String currentPin, String newPin) throws BankException;
+
     List<Account> listAccounts();
 
     List<Account> searchByOwner(String query);
 
+    /** Owners containing {@code query}, case-insensitively; skips {@code offset} matches, returns at most {@code limit}. */
+    List<Account> searchByOwner(String query, int offset, int limit);
+
+    /** Owners whose name starts with {@code prefix}, case-insensitively; paged like {@link #searchByOwner(String, int, int)}. */
+    List<Account> searchByOwnerPrefix(String prefix, int offset, int limit);
+
     int totalAccounts();
 
     double totalBalances();
@@ -34,5 +54,10 @@ public interface BankService extends java.io.Serializable {
 
     boolean isAdminCredentials(String user, String pass);
 
+    /** Off-thread PIN check; false for an unknown account, exceptional if the verifier is saturated. */
+    CompletableFuture<Boolean> verifyPinAsync(long accountNumber, String pin);
+
+    CompletableFuture<Boolean> isAdminCredentialsAsync(String user, String pass);
+
     void setAdminPassword(String pass);
 }
@@ -3,33 +3,68 @@ package bankapp.service;
 import bankapp.exceptions.BankException;
 import bankapp.model.Account;
 import bankapp.model.AccountType;
+import bankapp.model.ColdStore;
+import bankapp.model.Money;
 import bankapp.model.Transaction;
 import bankapp.model.TransactionType;
+import bankapp.metrics.LatencyHistogram;
+import bankapp.metrics.Metrics;
 import bankapp.security.AuthProvider;
+import bankapp.security.PinVerifier;
+import bankapp.persistence.Journal;
+import bankapp.persistence.JournalRecord;
 import bankapp.persistence.Persistence;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.Base64;
 
 public class BankServiceImpl implements BankService {
     private static final long serialVersionUID = 4L;
 
-    private final Map<Long, Account> accounts = new HashMap<>();
+    // Not final: readObject swaps in a concurrent copy, as older snapshots hold a HashMap here
+    private Map<Long, Account> accounts = new ConcurrentHashMap<>();
     private final AtomicLong nextAccount = new AtomicLong(1_000_000_000L);
     private double minOpeningDeposit = 100.0;
     private double minBalanceSavings = 100.0;
     private double minBalanceCurrent = 0.0;
     private double dailyWithdrawalLimit = 50_000.0;
     private String adminUser = "admin";
-    private String adminPassHashBase64;
-    private String adminSaltBase64;
+    private volatile String adminPassHashBase64;
+    private volatile String adminSaltBase64;
+    // Cent values of the limits above, used on the hot path
+    private transient long minBalanceSavingsCents;
+    private transient long minBalanceCurrentCents;
+    private transient long dailyWithdrawalLimitCents;
 
     // Transient dependencies
     private transient AuthProvider authProvider;
+    private transient PinVerifier pinVerifier;
+    private transient LatencyHistogram lockWait;
+    private transient volatile Metrics metrics;
     private transient Persistence persistence;
+    private transient Journal journal;
+    private transient ColdStore coldStore;
+    private transient int hotHistoryRows;
+    private transient OwnerIndex ownerIndex = new OwnerIndex(Collections.emptyList());
+    // Bank-wide totals kept up to date by every mutation, so reports never walk the accounts
+    private transient LongAdder totalBalanceCents = new LongAdder();
+    private transient LongAdder activeAccounts = new LongAdder();
+    // Debits promised to prepared cross-node transfers (see TransferParticipant); nothing else may spend them
+    private transient Map<Long, Long> heldCents = new ConcurrentHashMap<>();
+    // Transfers between shards whose debit is journaled but whose credit or refund is not yet, by debit id
+    private transient Map<String, PendingTransfer> pendingTransfers = new ConcurrentHashMap<>();
+    // End of the account-number range this node may hand out
+    private transient long accountLimit = Long.MAX_VALUE;
+    // Commit sequence of the account versions read by BankSnapshot
+    private transient VersionClock versions = new VersionClock();
 
     public BankServiceImpl(AuthProvider authProvider) {
         if (authProvider == null)
@@ -38,6 +73,95 @@ public class BankServiceImpl implements BankService {
         var salt = authProvider.generateSalt();
         this.adminSaltBase64 = Base64.getEncoder().encodeToString(salt);
         this.adminPassHashBase64 = authProvider.hashPin("admin123", salt);
+        deriveLimits();
+    }
+
+    private BankServiceImpl() {
+    }
+
+    private void deriveLimits() {
+        minBalanceSavingsCents = Money.toCents(minBalanceSavings);
+        minBalanceCurrentCents = Money.toCents(minBalanceCurrent);
+        dailyWithdrawalLimitCents = Money.toCents(dailyWithdrawalLimit);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        accounts = new ConcurrentHashMap<>(accounts);
+        deriveLimits();
+        ownerIndex = OwnerIndex.inBackground(accounts.values());
+        totalBalanceCents = new LongAdder();
+        activeAccounts = new LongAdder();
+        heldCents = new ConcurrentHashMap<>();
+        pendingTransfers = new ConcurrentHashMap<>();
+        accountLimit = Long.MAX_VALUE;
+        versions = new VersionClock();
+        recomputeAggregates();
+    }
+
+    /**
+     * Rebuilds a service from a snapshot format other than Java serialization.
+     * Transients must be set with {@link #initTransients} before use.
+     */
+    public static BankServiceImpl restore(double minOpeningDeposit, double minBalanceSavings, double minBalanceCurrent,
+            double dailyWithdrawalLimit, String adminUser, String adminPassHashBase64, String adminSaltBase64,
+            long nextAccountNumber, Collection<Account> accounts) {
+        BankServiceImpl s = new BankServiceImpl();
+        s.minOpeningDeposit = minOpeningDeposit;
+        s.minBalanceSavings = minBalanceSavings;
+        s.minBalanceCurrent = minBalanceCurrent;
+        s.dailyWithdrawalLimit = dailyWithdrawalLimit;
+        s.adminUser = adminUser;
+        s.adminPassHashBase64 = adminPassHashBase64;
+        s.adminSaltBase64 = adminSaltBase64;
+        s.nextAccount.set(nextAccountNumber);
+        s.deriveLimits();
+        s.accounts = new ConcurrentHashMap<>(Math.max(16, accounts.size() * 4 / 3 + 1));
+        for (Account a : accounts)
+            s.accounts.put(a.getAccountNumber(), a);
+        // snapshots list accounts in number order, which the index sorts by, far faster than the map's order
+        s.ownerIndex = OwnerIndex.inBackground(accounts);
+        s.recomputeAggregates();
+        return s;
+    }
+
+    /**
+     * Registers accounts built outside the service by a bulk import and
+     * refreshes the bank totals, which imported rows on existing accounts
+     * also bypass. Nothing here is journaled: save a snapshot afterwards.
+     */
+    public void addImportedAccounts(Collection<Account> imported) throws BankException {
+        List<Account> sorted = new ArrayList<>(imported);
+        sorted.sort(Comparator.comparingLong(Account::getAccountNumber));
+        for (Account a : sorted) {
+            synchronized (a) {
+                commit(a);
+            }
+            if (accounts.putIfAbsent(a.getAccountNumber(), a) != null)
+                throw new BankException("Account already exists: " + a.getAccountNumber());
+            if (coldStore != null)
+                a.setColdStore(coldStore, hotHistoryRows);
+            ownerIndex.add(a);
+            nextAccount.accumulateAndGet(a.getAccountNumber() + 1, Math::max);
+        }
+        // imported rows on existing accounts need a version too
+        for (Account a : accounts.values()) {
+            synchronized (a) {
+                commit(a);
+            }
+        }
+        recomputeAggregates();
+    }
+
+    /**
+     * Restricts new account numbers to [{@code first}, {@code limit}), for a
+     * node of a partitioned deployment. Numbers already handed out are kept.
+     */
+    public void setAccountRange(long first, long limit) {
+        if (first >= limit)
+            throw new IllegalArgumentException("Empty account range");
+        nextAccount.accumulateAndGet(first, Math::max);
+        accountLimit = limit;
     }
 
     public void initTransients(AuthProvider authProvider, Persistence persistence) {
@@ -48,7 +172,7 @@ public class BankServiceImpl implements BankService {
     }
 
     @Override
-    public synchronized Account createAccount(String owner, AccountType type, String pin, double openingDeposit)
+    public Account createAccount(String owner, AccountType type, String pin, double openingDeposit)
             throws BankException {
         if (owner == null || owner.trim().isEmpty())
             throw new BankException("Owner required");
@@ -56,14 +180,29 @@ public class BankServiceImpl implements BankService {
             throw new BankException("PIN must be 4 digits");
         if (openingDeposit < minOpeningDeposit)
             throw new BankException("Opening deposit below minimum");
+        long openingCents = Money.toCents(openingDeposit);
         byte[] salt = authProvider.generateSalt();
         String saltB64 = Base64.getEncoder().encodeToString(salt);
         String hash = authProvider.hashPin(pin, salt);
         long accNo = nextAccount.getAndIncrement();
+        if (accNo >= accountLimit)
+            throw new BankException("Account number range exhausted");
         Account acc = new Account(accNo, owner.trim(), type, hash, saltB64);
-        if (openingDeposit > 0)
-            acc.deposit(openingDeposit, "Opening deposit");
-        accounts.put(accNo, acc);
+        if (coldStore != null)
+            acc.setColdStore(coldStore, hotHistoryRows);
+        long ticket;
+        synchronized (acc) {
+            Transaction opening = openingCents > 0 ? acc.depositCents(openingCents, "Opening deposit") : null;
+            accounts.put(accNo, acc);
+            activeAccounts.increment();
+            totalBalanceCents.add(openingCents);
+            commit(acc);
+            ticket = log(JournalRecord.createAccount(acc));
+            if (opening != null)
+                ticket = log(JournalRecord.transaction(accNo, opening));
+        }
+        ownerIndex.add(acc);
+        awaitDurable(ticket);
         return acc;
     }
 
@@ -73,38 +212,43 @@ public class BankServiceImpl implements BankService {
     }
 
     @Override
-    public synchronized void deposit(long accountNumber, double amount, String narration) throws BankException {
-        if (amount <= 0)
+    public void deposit(long accountNumber, double amount, String narration) throws BankException {
+        long cents = Money.toCents(amount);
+        if (cents <= 0)
             throw new BankException("Amount must be positive");
         Account a = accounts.get(accountNumber);
         if (a == null)
             throw new BankException("Account not found");
-        if (!a.isActive())
-            throw new BankException("Account frozen");
-        a.deposit(amount, narration == null ? "Deposit" : narration);
+        long ticket;
+        long t0 = lockWaitStart();
+        synchronized (a) {
+            lockAcquired(t0);
+            ticket = depositLocked(a, cents, narration);
+        }
+        awaitDurable(ticket);
     }
 
     @Override
-    public synchronized void withdraw(long accountNumber, double amount, String narration) throws BankException {
-        if (amount <= 0)
+    public void withdraw(long accountNumber, double amount, String narration) throws BankException {
+        long cents = Money.toCents(amount);
+        if (cents <= 0)
             throw new BankException("Amount must be positive");
         Account a = accounts.get(accountNumber);
         if (a == null)
             throw new BankException("Account not found");
-        if (!a.isActive())
-            throw new BankException("Account frozen");
-        double withdrawn = a.withdrawnToday();
-        if (withdrawn + amount > dailyWithdrawalLimit)
-            throw new BankException("Daily withdrawal limit exceeded");
-        double minBal = (a.getType() == AccountType.SAVINGS) ? minBalanceSavings : minBalanceCurrent;
-        if (a.getBalance() - amount < minBal)
-            throw new BankException("Insufficient funds to maintain minimum balance");
-        a.withdraw(amount, narration == null ? "Withdrawal" : narration);
+        long ticket;
+        long t0 = lockWaitStart();
+        synchronized (a) {
+            lockAcquired(t0);
+            ticket = withdrawLocked(a, cents, narration);
+        }
+        awaitDurable(ticket);
     }
 
     @Override
-    public synchronized void transfer(long fromAcc, long toAcc, double amount, String narration) throws BankException {
-        if (amount <= 0)
+    public void transfer(long fromAcc, long toAcc, double amount, String narration) throws BankException {
+        long cents = Money.toCents(amount);
+        if (cents <= 0)
             throw new BankException("Amount must be positive");
         if (fromAcc == toAcc)
             throw new BankException("Cannot transfer to same account");
@@ -112,26 +256,489 @@ public class BankServiceImpl implements BankService {
         Account to = accounts.get(toAcc);
         if (from == null || to == null)
             throw new BankException("Account not found");
-        if (!from.isActive() || !to.isActive())
-            throw new BankException("One of the accounts is frozen");
         Account first = (fromAcc < toAcc) ? from : to;
         Account second = (first == from) ? to : from;
+        long ticket;
+        long t0 = lockWaitStart();
         synchronized (first) {
             synchronized (second) {
-                double minBal = (from.getType() == AccountType.SAVINGS) ? minBalanceSavings : minBalanceCurrent;
-                if (from.getBalance() - amount < minBal)
-                    throw new BankException("Insufficient funds");
-                double withdrawn = from.withdrawnToday();
-                if (withdrawn + amount > dailyWithdrawalLimit)
-                    throw new BankException("Daily withdrawal limit exceeded for source");
-                from.withdraw(amount, "Transfer to " + toAcc + (narration == null ? "" : " | " + narration));
-                to.deposit(amount, "Transfer from " + fromAcc + (narration == null ? "" : " | " + narration));
+                lockAcquired(t0);
+                ticket = transferLocked(from, to, cents, narration);
             }
         }
+        awaitDurable(ticket);
+    }
+
+    // Lock-wait timing for the money operations; free when no metrics are attached.
+    private long lockWaitStart() {
+        return lockWait == null ? 0L : System.nanoTime();
+    }
+
+    private void lockAcquired(long t0) {
+        LatencyHistogram h = lockWait;
+        if (h != null && t0 != 0L)
+            h.recordSince(t0);
+    }
+
+    // Bodies of deposit, withdraw and transfer; the caller holds the account locks, or is the
+    // ShardedBankService thread that owns the accounts, and awaits the ticket.
+    long depositLocked(Account a, long cents, String narration) throws BankException {
+        if (!a.isActive())
+            throw new BankException("Account frozen");
+        var t = a.depositCents(cents, narration == null ? "Deposit" : narration);
+        totalBalanceCents.add(cents);
+        commit(a);
+        return log(JournalRecord.transaction(a.getAccountNumber(), t));
+    }
+
+    long withdrawLocked(Account a, long cents, String narration) throws BankException {
+        checkWithdrawal(a, availableCents(a), withdrawnTodayCents(a), cents);
+        var t = a.withdrawCents(cents, narration == null ? "Withdrawal" : narration);
+        totalBalanceCents.add(-cents);
+        commit(a);
+        return log(JournalRecord.transaction(a.getAccountNumber(), t));
+    }
+
+    long transferLocked(Account from, Account to, long cents, String narration) throws BankException {
+        checkTransfer(from, to, availableCents(from), withdrawnTodayCents(from), cents);
+        long fromAcc = from.getAccountNumber();
+        long toAcc = to.getAccountNumber();
+        var debit = from.withdrawCents(cents, "Transfer to " + toAcc + (narration == null ? "" : " | " + narration));
+        var credit = to.depositCents(cents, "Transfer from " + fromAcc + (narration == null ? "" : " | " + narration));
+        commit(from, to);
+        log(JournalRecord.transaction(fromAcc, debit));
+        return log(JournalRecord.transaction(toAcc, credit));
+    }
+
+    /**
+     * A transfer between accounts owned by different shard threads, between
+     * its debit on the source's thread and its credit on the target's; if the
+     * credit fails, a refund undoes the debit. The bank total is short by the
+     * amount while it is in flight. The debit is journaled with the account
+     * the money goes to, so a replay knows which transfers a crash cut short.
+     */
+    static final class PendingTransfer {
+        final long fromAcc;
+        final long toAcc;
+        final long cents;
+        // the caller's narration as it follows "Transfer to/from n"
+        final String suffix;
+        final Transaction debit;
+        // rebuilt by a replay rather than begun by this process
+        final boolean replayed;
+        // guarded by this
+        private boolean settled;
+
+        PendingTransfer(long fromAcc, long toAcc, long cents, String suffix, Transaction debit, boolean replayed) {
+            this.fromAcc = fromAcc;
+            this.toAcc = toAcc;
+            this.cents = cents;
+            this.suffix = suffix;
+            this.debit = debit;
+            this.replayed = replayed;
+        }
+    }
+
+    PendingTransfer debitLocked(Account from, Account to, long cents, String narration) throws BankException {
+        checkTransfer(from, to, availableCents(from), withdrawnTodayCents(from), cents);
+        String suffix = narration == null ? "" : " | " + narration;
+        var t = from.withdrawCents(cents, "Transfer to " + to.getAccountNumber() + suffix);
+        totalBalanceCents.add(-cents);
+        commit(from);
+        // registered before it is journaled, so a checkpoint rotating the journal meanwhile journals it again
+        var p = new PendingTransfer(from.getAccountNumber(), to.getAccountNumber(), cents, suffix, t, false);
+        pendingTransfers.put(t.getTxId(), p);
+        log(JournalRecord.transferDebit(p.fromAcc, t, p.toAcc));
+        return p;
+    }
+
+    long creditLocked(Account to, PendingTransfer p) throws BankException {
+        if (!to.isActive())
+            throw new BankException("One of the accounts is frozen");
+        var t = to.depositCents(p.cents, "Transfer from " + p.fromAcc + p.suffix);
+        totalBalanceCents.add(p.cents);
+        commit(to);
+        return settle(p, to, t);
+    }
+
+    long refundLocked(Account from, PendingTransfer p) throws BankException {
+        var t = from.depositCents(p.cents, "Refund of transfer to " + p.toAcc);
+        totalBalanceCents.add(p.cents);
+        commit(from);
+        return settle(p, from, t);
+    }
+
+    private long settle(PendingTransfer p, Account a, Transaction t) throws BankException {
+        try {
+            synchronized (p) {
+                p.settled = true;
+                return log(JournalRecord.transferCredit(a.getAccountNumber(), t, p.debit.getTxId()));
+            }
+        } finally {
+            pendingTransfers.remove(p.debit.getTxId());
+        }
+    }
+
+    /**
+     * Journals again the debit of every transfer between shards still in
+     * flight. A checkpoint calls this right after rotating the journal, so the
+     * new segment names the transfers whose debit went out with the old one.
+     */
+    public void rejournalPendingTransfers() throws BankException {
+        for (PendingTransfer p : pendingTransfers.values()) {
+            synchronized (p) {
+                if (!p.settled)
+                    log(JournalRecord.transferDebit(p.fromAcc, p.debit, p.toAcc));
+            }
+        }
+    }
+
+    // Credits, or if the target is gone or frozen refunds, the transfers a replayed journal left half done.
+    private void finishInterruptedTransfers() {
+        for (PendingTransfer p : pendingTransfers.values()) {
+            if (!p.replayed)
+                continue;
+            Account to = accounts.get(p.toAcc);
+            Account from = accounts.get(p.fromAcc);
+            try {
+                long ticket;
+                if (to != null && to.isActive()) {
+                    synchronized (to) {
+                        ticket = creditLocked(to, p);
+                    }
+                } else {
+                    synchronized (from) {
+                        ticket = refundLocked(from, p);
+                    }
+                }
+                awaitDurable(ticket);
+            } catch (BankException e) {
+                // still pending: the next checkpoint journals its debit again and the next start retries it
+                reportUnattended("finishTransfer", e);
+            }
+        }
+    }
+
+    private long availableCents(Account a) {
+        Long held = heldCents.get(a.getAccountNumber());
+        return held == null ? a.getBalanceCents() : a.getBalanceCents() - held;
+    }
+
+    // Held debits count towards the daily limit as if already withdrawn.
+    private long withdrawnTodayCents(Account a) {
+        Long held = heldCents.get(a.getAccountNumber());
+        return held == null ? a.withdrawnTodayCents() : a.withdrawnTodayCents() + held;
+    }
+
+    // Prepare and finish of the legs of a cross-node transfer; the caller holds the account lock.
+    void holdLocked(Account from, long cents) throws BankException {
+        checkWithdrawal(from, availableCents(from), withdrawnTodayCents(from), cents);
+        heldCents.merge(from.getAccountNumber(), cents, Long::sum);
+    }
+
+    // A hold recorded before a restart; checked when it was first placed.
+    void restoreHoldLocked(Account from, long cents) {
+        heldCents.merge(from.getAccountNumber(), cents, Long::sum);
+    }
+
+    void releaseLocked(Account from, long cents) {
+        heldCents.computeIfPresent(from.getAccountNumber(), (k, v) -> v == cents ? null : v - cents);
+    }
+
+    // Applies a prepared leg under a transaction id derived from the transfer.
+    long applyLegLocked(Account a, UUID txId, boolean debit, long cents, String narration) throws BankException {
+        long after = debit ? a.getBalanceCents() - cents : a.getBalanceCents() + cents;
+        var t = new Transaction(txId.toString(), LocalDateTime.now(),
+                debit ? TransactionType.WITHDRAWAL : TransactionType.DEPOSIT, cents, after, narration);
+        a.addTransactionInternal(t);
+        totalBalanceCents.add(debit ? -cents : cents);
+        commit(a);
+        return log(JournalRecord.transaction(a.getAccountNumber(), t));
+    }
+
+    private void checkWithdrawal(Account a, long balanceCents, long withdrawnTodayCents, long cents)
+            throws BankException {
+        if (!a.isActive())
+            throw new BankException("Account frozen");
+        if (withdrawnTodayCents + cents > dailyWithdrawalLimitCents)
+            throw new BankException("Daily withdrawal limit exceeded");
+        if (balanceCents - cents < minBalanceCents(a))
+            throw new BankException("Insufficient funds to maintain minimum balance");
+    }
+
+    private void checkTransfer(Account from, Account to, long fromBalanceCents, long fromWithdrawnCents, long cents)
+            throws BankException {
+        if (!from.isActive() || !to.isActive())
+            throw new BankException("One of the accounts is frozen");
+        if (fromBalanceCents - cents < minBalanceCents(from))
+            throw new BankException("Insufficient funds");
+        if (fromWithdrawnCents + cents > dailyWithdrawalLimitCents)
+            throw new BankException("Daily withdrawal limit exceeded for source");
     }
 
     @Override
-    public synchronized void reverseTransaction(long accountNumber, String txId) throws BankException {
+    public List<OperationResult> applyBatch(List<Operation> ops) throws BankException {
+        return applyBatch(ops, true);
+    }
+
+    /**
+     * Resolves and checks every operation up front. All-or-nothing visits the
+     * accounts in account order, one lock at a time: it checks each account's
+     * share of the batch in submission order and holds the money the batch
+     * will take from it, as a prepared cross-node transfer does. Only if every
+     * account passes does it lock them all, again in account order, and apply
+     * the batch under one commit and as one journal record, so neither a
+     * snapshot nor a replay ever sees part of it; otherwise, or if one of the
+     * accounts was frozen meanwhile, the holds are released. Best-effort groups the operations by
+     * the accounts they lock, so each group takes its locks once and its
+     * operations run in submission order. Either way the journal is awaited
+     * once, after the last lock is released.
+     */
+    @Override
+    public List<OperationResult> applyBatch(List<Operation> ops, boolean allOrNothing) throws BankException {
+        int n = ops.size();
+        Batch b = new Batch(ops);
+        for (int i = 0; i < n; i++) {
+            try {
+                b.resolve(i);
+            } catch (BankException e) {
+                if (allOrNothing)
+                    return b.abort(i, e.getMessage());
+                b.results[i] = OperationResult.failed(ops.get(i), e.getMessage());
+            }
+        }
+        awaitDurable(allOrNothing ? b.applyAll() : b.applyGroups());
+        return Arrays.asList(b.results);
+    }
+
+    // Working state of one applyBatch call.
+    private final class Batch {
+        final List<Operation> ops;
+        final Account[] from;
+        final Account[] to;
+        final long[] cents;
+        final OperationResult[] results;
+
+        Batch(List<Operation> ops) {
+            this.ops = ops;
+            int n = ops.size();
+            this.from = new Account[n];
+            this.to = new Account[n];
+            this.cents = new long[n];
+            this.results = new OperationResult[n];
+        }
+
+        void resolve(int i) throws BankException {
+            Operation op = ops.get(i);
+            long c = Money.toCents(op.getAmount());
+            if (c <= 0)
+                throw new BankException("Amount must be positive");
+            Account a = accounts.get(op.getAccountNumber());
+            if (a == null)
+                throw new BankException("Account not found");
+            if (op.getKind() == Operation.Kind.TRANSFER) {
+                if (op.getToAccountNumber() == op.getAccountNumber())
+                    throw new BankException("Cannot transfer to same account");
+                Account dest = accounts.get(op.getToAccountNumber());
+                if (dest == null)
+                    throw new BankException("Account not found");
+                to[i] = dest;
+            }
+            from[i] = a;
+            cents[i] = c;
+        }
+
+        List<OperationResult> abort(int failed, String reason) {
+            for (int i = 0; i < results.length; i++)
+                results[i] = OperationResult.failed(ops.get(i), i == failed ? reason : "Batch aborted");
+            return Arrays.asList(results);
+        }
+
+        long applyAll() throws BankException {
+            // each account's part in the batch: the operations touching it, in submission order
+            TreeMap<Long, List<Integer>> legs = new TreeMap<>();
+            for (int i = 0; i < results.length; i++) {
+                legs.computeIfAbsent(from[i].getAccountNumber(), k -> new ArrayList<>()).add(i);
+                if (to[i] != null)
+                    legs.computeIfAbsent(to[i].getAccountNumber(), k -> new ArrayList<>()).add(i);
+            }
+            Map<Account, Long> held = new HashMap<>();
+            int failed = results.length;
+            String reason = null;
+            for (Map.Entry<Long, List<Integer>> e : legs.entrySet()) {
+                Account a = accounts.get(e.getKey());
+                synchronized (a) {
+                    long balance = availableCents(a);
+                    long withdrawn = withdrawnTodayCents(a);
+                    long debits = 0L;
+                    int at = -1;
+                    try {
+                        for (int i : e.getValue()) {
+                            at = i;
+                            if (from[i] != a || ops.get(i).getKind() == Operation.Kind.DEPOSIT) {
+                                if (to[i] == null && !a.isActive())
+                                    throw new BankException("Account frozen");
+                                balance += cents[i];
+                                continue;
+                            }
+                            if (to[i] == null)
+                                checkWithdrawal(a, balance, withdrawn, cents[i]);
+                            else
+                                checkTransfer(a, to[i], balance, withdrawn, cents[i]);
+                            balance -= cents[i];
+                            withdrawn += cents[i];
+                            debits += cents[i];
+                        }
+                    } catch (BankException ex) {
+                        // the other accounts are still checked, so the batch reports its earliest failure
+                        if (at < failed) {
+                            failed = at;
+                            reason = ex.getMessage();
+                        }
+                        continue;
+                    }
+                    if (debits > 0L) {
+                        heldCents.merge(a.getAccountNumber(), debits, Long::sum);
+                        held.put(a, debits);
+                    }
+                }
+            }
+            if (failed < results.length) {
+                for (Map.Entry<Account, Long> h : held.entrySet()) {
+                    synchronized (h.getKey()) {
+                        releaseLocked(h.getKey(), h.getValue());
+                    }
+                }
+                abort(failed, reason);
+                return 0L;
+            }
+            Account[] locks = new Account[legs.size()];
+            int k = 0;
+            for (Long number : legs.keySet())
+                locks[k++] = accounts.get(number);
+            // nothing committed after this becomes visible to snapshots until the whole batch is in
+            long barrier = versions.begin();
+            try {
+                return applyLocked(locks, 0, legs, held);
+            } finally {
+                versions.end(barrier);
+            }
+        }
+
+        // Locks the batch's accounts in account order and applies it with all of them held, so its journal
+        // record goes in ahead of any later change to one of them.
+        private long applyLocked(Account[] locks, int k, TreeMap<Long, List<Integer>> legs, Map<Account, Long> held)
+                throws BankException {
+            if (k < locks.length) {
+                synchronized (locks[k]) {
+                    return applyLocked(locks, k + 1, legs, held);
+                }
+            }
+            for (Map.Entry<Account, Long> h : held.entrySet())
+                releaseLocked(h.getKey(), h.getValue());
+            // an account frozen since its checks fails the batch at the first operation touching it
+            int failed = results.length;
+            for (Account a : locks) {
+                if (!a.isActive())
+                    failed = Math.min(failed, legs.get(a.getAccountNumber()).get(0));
+            }
+            if (failed < results.length) {
+                abort(failed, to[failed] == null ? "Account frozen" : "One of the accounts is frozen");
+                return 0L;
+            }
+            List<JournalRecord> parts = new ArrayList<>();
+            for (Account a : locks) {
+                for (int i : legs.get(a.getAccountNumber()))
+                    parts.add(JournalRecord.transaction(a.getAccountNumber(), applyLeg(a, i)));
+                commit(a);
+            }
+            for (int i = 0; i < results.length; i++)
+                results[i] = OperationResult.ok(ops.get(i));
+            return log(JournalRecord.batch(parts));
+        }
+
+        // Applies operation i's part on a, whose checks passed; the caller holds the batch's locks.
+        private Transaction applyLeg(Account a, int i) throws BankException {
+            String narration = ops.get(i).getNarration();
+            Transaction t;
+            if (ops.get(i).getKind() == Operation.Kind.DEPOSIT) {
+                t = a.depositCents(cents[i], narration == null ? "Deposit" : narration);
+            } else if (to[i] == null) {
+                t = a.withdrawCents(cents[i], narration == null ? "Withdrawal" : narration);
+            } else if (from[i] == a) {
+                t = a.withdrawCents(cents[i],
+                        "Transfer to " + to[i].getAccountNumber() + (narration == null ? "" : " | " + narration));
+            } else {
+                t = a.depositCents(cents[i],
+                        "Transfer from " + from[i].getAccountNumber() + (narration == null ? "" : " | " + narration));
+            }
+            totalBalanceCents.add(t.getType() == TransactionType.DEPOSIT ? cents[i] : -cents[i]);
+            return t;
+        }
+
+        long applyGroups() {
+            Integer[] order = new Integer[results.length];
+            int m = 0;
+            for (int i = 0; i < results.length; i++)
+                if (results[i] == null)
+                    order[m++] = i;
+            Arrays.sort(order, 0, m, Comparator.comparingLong((Integer i) -> lowAccount(i))
+                    .thenComparingLong(i -> highAccount(i)));
+            long ticket = 0L;
+            for (int g = 0; g < m;) {
+                int end = g + 1;
+                while (end < m && lowAccount(order[end]) == lowAccount(order[g])
+                        && highAccount(order[end]) == highAccount(order[g]))
+                    end++;
+                Account first = from[order[g]];
+                Account second = to[order[g]];
+                if (second != null && second.getAccountNumber() < first.getAccountNumber()) {
+                    first = second;
+                    second = from[order[g]];
+                }
+                synchronized (first) {
+                    synchronized (second == null ? first : second) {
+                        for (int k = g; k < end; k++) {
+                            int i = order[k];
+                            try {
+                                ticket = Math.max(ticket, apply(i));
+                                results[i] = OperationResult.ok(ops.get(i));
+                            } catch (BankException e) {
+                                results[i] = OperationResult.failed(ops.get(i), e.getMessage());
+                            }
+                        }
+                    }
+                }
+                g = end;
+            }
+            return ticket;
+        }
+
+        private long lowAccount(int i) {
+            long a = from[i].getAccountNumber();
+            return to[i] == null ? a : Math.min(a, to[i].getAccountNumber());
+        }
+
+        private long highAccount(int i) {
+            long a = from[i].getAccountNumber();
+            return to[i] == null ? a : Math.max(a, to[i].getAccountNumber());
+        }
+
+        private long apply(int i) throws BankException {
+            Operation op = ops.get(i);
+            switch (op.getKind()) {
+                case DEPOSIT:
+                    return depositLocked(from[i], cents[i], op.getNarration());
+                case WITHDRAW:
+                    return withdrawLocked(from[i], cents[i], op.getNarration());
+                default:
+                    return transferLocked(from[i], to[i], cents[i], op.getNarration());
+            }
+        }
+    }
+
+    @Override
+    public void reverseTransaction(long accountNumber, String txId) throws BankException {
         Account a = accounts.get(accountNumber);
         if (a == null)
             throw new BankException("Account not found");
@@ -140,17 +747,75 @@ public class BankServiceImpl implements BankService {
             throw new BankException("Transaction not found");
         if (!tx.isReversible())
             throw new BankException("Transaction not reversible");
+        long ticket;
+        long t0 = lockWaitStart();
         synchronized (a) {
-            if (tx.getType() == TransactionType.DEPOSIT) {
-                if (a.getBalance() - tx.getAmount() < 0)
-                    throw new BankException("Cannot reverse deposit due to insufficient balance");
-                a.withdraw(tx.getAmount(), "Reversal of " + txId);
-            } else if (tx.getType() == TransactionType.WITHDRAWAL) {
-                a.deposit(tx.getAmount(), "Reversal of " + txId);
-            } else {
-                throw new BankException("Only simple deposits/withdrawals reversible");
-            }
+            lockAcquired(t0);
+            ticket = reverseLocked(a, tx);
+        }
+        awaitDurable(ticket);
+    }
+
+    long reverseLocked(Account a, Transaction tx) throws BankException {
+        Transaction t;
+        if (tx.getType() == TransactionType.DEPOSIT) {
+            if (availableCents(a) - tx.getAmountCents() < 0)
+                throw new BankException("Cannot reverse deposit due to insufficient balance");
+            t = a.withdrawCents(tx.getAmountCents(), "Reversal of " + tx.getTxId());
+            totalBalanceCents.add(-tx.getAmountCents());
+        } else if (tx.getType() == TransactionType.WITHDRAWAL) {
+            t = a.depositCents(tx.getAmountCents(), "Reversal of " + tx.getTxId());
+            totalBalanceCents.add(tx.getAmountCents());
+        } else {
+            throw new BankException("Only simple deposits/withdrawals reversible");
+        }
+        commit(a);
+        return log(JournalRecord.transaction(a.getAccountNumber(), t));
+    }
+
+    private long minBalanceCents(Account a) {
+        return a.getType() == AccountType.SAVINGS ? minBalanceSavingsCents : minBalanceCurrentCents;
+    }
+
+    @Override
+    public void setAccountActive(long accountNumber, boolean active) throws BankException {
+        Account a = accounts.get(accountNumber);
+        if (a == null)
+            throw new BankException("Account not found");
+        long ticket;
+        synchronized (a) {
+            ticket = setActiveLocked(a, active);
         }
+        awaitDurable(ticket);
+    }
+
+    long setActiveLocked(Account a, boolean active) throws BankException {
+        if (a.setActive(active))
+            activeAccounts.add(active ? 1 : -1);
+        commit(a);
+        return log(JournalRecord.accountStatus(a.getAccountNumber(), active));
+    }
+
+    @Override
+    public void changePin(long accountNumber, String currentPin, String newPin) throws BankException {
+        Account a = accounts.get(accountNumber);
+        if (a == null)
+            throw new BankException("Account not found");
+        if (newPin == null || !newPin.matches("\\d{4}"))
+            throw new BankException("PIN must be 4 digits");
+        var salt = Base64.getDecoder().decode(a.getPinSaltBase64());
+        if (!authProvider.verifyPin(currentPin, a.getPinHashBase64(), salt))
+            throw new BankException("Wrong PIN");
+        var newSalt = authProvider.generateSalt();
+        var newHash = authProvider.hashPin(newPin, newSalt);
+        String newSaltB64 = Base64.getEncoder().encodeToString(newSalt);
+        long ticket;
+        synchronized (a) {
+            a.setPin(newHash, newSaltB64);
+            commit(a);
+            ticket = log(JournalRecord.pinChange(accountNumber, newHash, newSaltB64));
+        }
+        awaitDurable(ticket);
     }
 
     @Override
@@ -160,12 +825,17 @@ public class BankServiceImpl implements BankService {
 
     @Override
     public List<Account> searchByOwner(String query) {
-        String q = query == null ? "" : query.toLowerCase();
-        var res = new ArrayList<Account>();
-        for (Account a : accounts.values())
-            if (a.getOwnerName().toLowerCase().contains(q))
-                res.add(a);
-        return res;
+        return ownerIndex.contains(query, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Account> searchByOwner(String query, int offset, int limit) {
+        return ownerIndex.contains(query, offset, limit);
+    }
+
+    @Override
+    public List<Account> searchByOwnerPrefix(String prefix, int offset, int limit) {
+        return ownerIndex.startsWith(prefix, offset, limit);
     }
 
     @Override
@@ -175,12 +845,90 @@ public class BankServiceImpl implements BankService {
 
     @Override
     public double totalBalances() {
-        return Math.round(accounts.values().stream().mapToDouble(Account::getBalance).sum() * 100.0) / 100.0;
+        return Money.toAmount(totalBalanceCents.sum());
     }
 
     @Override
     public int countActiveAccounts() {
-        return (int) accounts.values().stream().filter(Account::isActive).count();
+        return activeAccounts.intValue();
+    }
+
+    /**
+     * Opens a consistent view of every account as of the latest commit,
+     * which stays fixed while writers carry on; close it when done so the
+     * versions it pins can be dropped.
+     */
+    public BankSnapshot openSnapshot() {
+        return new BankSnapshot(versions, accounts);
+    }
+
+    /**
+     * Like {@link #openSnapshot()}, but first waits for every commit already
+     * begun to end, so the snapshot holds every change journaled before the
+     * call. Only the caller waits; writers are not held up.
+     */
+    public BankSnapshot openSnapshotCoveringJournal() {
+        long latest = versions.latest();
+        while (versions.stable() < latest)
+            Thread.yield();
+        return new BankSnapshot(versions, accounts);
+    }
+
+    /** Number of commits so far; grows by one for every change to an account, its PIN or the admin password. */
+    public long getCommitCount() {
+        return versions.latest();
+    }
+
+    // A commit that publishes no account, for bank-wide changes the checkpointer must still see.
+    private void commit() {
+        versions.end(versions.begin());
+    }
+
+    // Publishes the accounts' current state as one commit; the caller holds their locks.
+    private void commit(Account a) {
+        long seq = versions.begin();
+        a.publish(seq, versions.horizon());
+        versions.end(seq);
+    }
+
+    private void commit(Account a, Account b) {
+        long seq = versions.begin();
+        long horizon = versions.horizon();
+        a.publish(seq, horizon);
+        b.publish(seq, horizon);
+        versions.end(seq);
+    }
+
+    /**
+     * Walks every account and checks the live totals against it. Only exact
+     * while no operation is running; a concurrent update can show as a mismatch.
+     */
+    public boolean verifyAggregates() {
+        long sum = 0L;
+        int active = 0;
+        for (Account a : accounts.values()) {
+            sum += a.getBalanceCents();
+            if (a.isActive())
+                active++;
+        }
+        return sum == totalBalanceCents.sum() && active == activeAccounts.intValue();
+    }
+
+    // Resets the live totals from the accounts and gives each a first version; used after a load.
+    private void recomputeAggregates() {
+        long sum = 0L;
+        int active = 0;
+        for (Account a : accounts.values()) {
+            if (a.versionAt(Long.MAX_VALUE) == null)
+                a.publish(0L, 0L);
+            sum += a.getBalanceCents();
+            if (a.isActive())
+                active++;
+        }
+        totalBalanceCents.reset();
+        totalBalanceCents.add(sum);
+        activeAccounts.reset();
+        activeAccounts.add(active);
     }
 
     @Override
@@ -193,6 +941,30 @@ public class BankServiceImpl implements BankService {
         return dailyWithdrawalLimit;
     }
 
+    public double getMinBalanceSavings() {
+        return minBalanceSavings;
+    }
+
+    public double getMinBalanceCurrent() {
+        return minBalanceCurrent;
+    }
+
+    public long getNextAccountNumber() {
+        return nextAccount.get();
+    }
+
+    public String getAdminUser() {
+        return adminUser;
+    }
+
+    public String getAdminPassHashBase64() {
+        return adminPassHashBase64;
+    }
+
+    public String getAdminSaltBase64() {
+        return adminSaltBase64;
+    }
+
     @Override
     public boolean isAdminCredentials(String user, String pass) {
         if (user == null || pass == null)
@@ -203,17 +975,199 @@ public class BankServiceImpl implements BankService {
         return authProvider.verifyPin(pass, adminPassHashBase64, salt);
     }
 
+    @Override
+    public CompletableFuture<Boolean> verifyPinAsync(long accountNumber, String pin) {
+        Account a = accounts.get(accountNumber);
+        if (a == null)
+            return CompletableFuture.completedFuture(false);
+        String hash;
+        String salt;
+        synchronized (a) {
+            hash = a.getPinHashBase64();
+            salt = a.getPinSaltBase64();
+        }
+        return verifyAsync(pin, hash, salt);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isAdminCredentialsAsync(String user, String pass) {
+        if (user == null || pass == null || !adminUser.equals(user))
+            return CompletableFuture.completedFuture(false);
+        return verifyAsync(pass, adminPassHashBase64, adminSaltBase64);
+    }
+
+    // Runs on the verifier pool when one is set, else on the caller thread.
+    private CompletableFuture<Boolean> verifyAsync(String secret, String hashBase64, String saltBase64) {
+        byte[] salt = Base64.getDecoder().decode(saltBase64);
+        PinVerifier v = pinVerifier;
+        if (v != null)
+            return v.verifyAsync(secret, hashBase64, salt);
+        return CompletableFuture.completedFuture(authProvider.verifyPin(secret, hashBase64, salt));
+    }
+
     @Override
     public void setAdminPassword(String pass) {
         var salt = authProvider.generateSalt();
         this.adminSaltBase64 = Base64.getEncoder().encodeToString(salt);
         this.adminPassHashBase64 = authProvider.hashPin(pass == null ? "admin123" : pass, salt);
+        commit();
+        try {
+            awaitDurable(log(JournalRecord.adminPassword(adminPassHashBase64, adminSaltBase64)));
+        } catch (BankException ignored) {
+            // the next snapshot still carries the new password
+        }
     }
 
     public void setPersistence(Persistence p) {
         this.persistence = p;
     }
 
+    /**
+     * Records time spent waiting for account locks into {@code m}'s "lockWait"
+     * histogram, and counts among its rejections the failures no caller is
+     * waiting for, such as a replayed transfer that cannot be finished; null
+     * stops both.
+     */
+    public void setMetrics(Metrics m) {
+        this.metrics = m;
+        this.lockWait = m == null ? null : m.histogram("lockWait");
+    }
+
+    void reportUnattended(String operation, BankException e) {
+        Metrics m = metrics;
+        if (m != null)
+            m.reject(operation, e);
+    }
+
+    public void setPinVerifier(PinVerifier v) {
+        this.pinVerifier = v;
+    }
+
+    /**
+     * Journals every change to {@code j} from now on. Transfers between shards
+     * that the replayed journal shows debited but neither credited nor
+     * refunded were cut short by a crash; they are finished first, so their
+     * completion is journaled before anything that follows it. One that
+     * cannot be finished stays pending and is counted under the "finishTransfer"
+     * rejections of the metrics given to {@link #setMetrics}, so set those first.
+     */
+    public void setJournal(Journal j) {
+        this.journal = j;
+        if (j != null)
+            finishInterruptedTransfers();
+    }
+
+    /**
+     * Keeps only the newest {@code hotRows} transactions of each account on the
+     * heap and moves older history to {@code store}; null turns tiering off.
+     */
+    public void setColdStore(ColdStore store, int hotRows) {
+        this.coldStore = store;
+        this.hotHistoryRows = hotRows;
+        for (Account a : accounts.values())
+            a.setColdStore(store, hotRows);
+    }
+
+    // Appends under the account lock keep per-account journal order; durability is awaited after release.
+    // A change is committed before it is journaled, which JournalPersistence#checkpoint relies on.
+    private long log(JournalRecord r) throws BankException {
+        Journal j = journal;
+        if (j == null)
+            return 0L;
+        try {
+            return j.append(r);
+        } catch (IOException e) {
+            throw new BankException("Journal write failed: " + e.getMessage());
+        }
+    }
+
+    void awaitDurable(long ticket) throws BankException {
+        Journal j = journal;
+        if (j == null || ticket == 0L)
+            return;
+        try {
+            j.awaitDurable(ticket);
+        } catch (IOException e) {
+            throw new BankException("Journal sync failed: " + e.getMessage());
+        }
+    }
+
+    /** Re-applies a journal record on top of a loaded snapshot; records already reflected are skipped. */
+    public void applyJournalRecord(JournalRecord r) {
+        Account a = accounts.get(r.getAccountNumber());
+        switch (r.getKind()) {
+            case CREATE_ACCOUNT:
+                synchronized (r.getAccount()) {
+                    commit(r.getAccount());
+                }
+                if (accounts.putIfAbsent(r.getAccountNumber(), r.getAccount()) == null) {
+                    if (coldStore != null)
+                        r.getAccount().setColdStore(coldStore, hotHistoryRows);
+                    ownerIndex.add(r.getAccount());
+                    if (r.getAccount().isActive())
+                        activeAccounts.increment();
+                }
+                nextAccount.accumulateAndGet(r.getAccountNumber() + 1, Math::max);
+                break;
+            case TRANSACTION:
+                replayTransaction(a, r.getTransaction());
+                break;
+            case BATCH: {
+                // one commit around the parts, so a snapshot sees all of the batch or none of it
+                long barrier = versions.begin();
+                try {
+                    for (JournalRecord part : r.getParts())
+                        replayTransaction(accounts.get(part.getAccountNumber()), part.getTransaction());
+                } finally {
+                    versions.end(barrier);
+                }
+                break;
+            }
+            case TRANSFER_DEBIT: {
+                Transaction t = r.getTransaction();
+                replayTransaction(a, t);
+                String prefix = "Transfer to " + r.getToAccountNumber();
+                String suffix = t.getNarration().startsWith(prefix) ? t.getNarration().substring(prefix.length()) : "";
+                if (a != null)
+                    pendingTransfers.putIfAbsent(t.getTxId(), new PendingTransfer(r.getAccountNumber(),
+                            r.getToAccountNumber(), t.getAmountCents(), suffix, t, true));
+                break;
+            }
+            case TRANSFER_CREDIT:
+                replayTransaction(a, r.getTransaction());
+                pendingTransfers.remove(r.getDebitTxId());
+                break;
+            case ACCOUNT_STATUS:
+                if (a != null) {
+                    synchronized (a) {
+                        if (a.setActive(r.isActive()))
+                            activeAccounts.add(r.isActive() ? 1 : -1);
+                        commit(a);
+                    }
+                }
+                break;
+            case PIN_CHANGE:
+                if (a != null)
+                    a.setPin(r.getHashBase64(), r.getSaltBase64());
+                break;
+            case ADMIN_PASSWORD:
+                this.adminPassHashBase64 = r.getHashBase64();
+                this.adminSaltBase64 = r.getSaltBase64();
+                break;
+        }
+    }
+
+    private void replayTransaction(Account a, Transaction t) {
+        if (a != null && !a.containsTransaction(t.getTxId(), t.getTimestamp())) {
+            synchronized (a) {
+                long before = a.getBalanceCents();
+                a.addTransactionInternal(t);
+                totalBalanceCents.add(a.getBalanceCents() - before);
+                commit(a);
+            }
+        }
+    }
+
     public void saveTo(String filename) throws IOException {
         if (persistence == null)
             throw new IOException("No persistence configured");
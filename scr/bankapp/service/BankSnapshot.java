@@ -0,0 +1,93 @@
+package bankapp.service;
+
+import bankapp.model.Account;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point-in-time view of a bank, opened with
+ * {@link BankServiceImpl#openSnapshot()}: every account as of one commit
+ * sequence, so a report sees each transfer either whole or not at all and
+ * the balances always add up. Nothing is copied up front and writers carry
+ * on meanwhile; they keep the versions this snapshot needs until it is
+ * closed.
+ * <p>
+ * A transfer {@link ShardedBankService} runs between two shards commits its
+ * debit and its credit separately, so a snapshot may fall between them.
+ */
+public final class BankSnapshot implements AutoCloseable {
+    private final VersionClock clock;
+    private final Map<Long, Account> byNumber;
+    private final Collection<Account> accounts;
+    private final long seq;
+    private boolean closed;
+
+    BankSnapshot(VersionClock clock, Map<Long, Account> accounts) {
+        this.clock = clock;
+        this.byNumber = accounts;
+        this.accounts = accounts.values();
+        this.seq = clock.open();
+    }
+
+    public long getSequence() {
+        return seq;
+    }
+
+    /** The account as of this snapshot; null if it did not exist yet. */
+    public Account.Version getAccount(long accountNumber) {
+        Account a = byNumber.get(accountNumber);
+        return a == null ? null : a.versionAt(seq);
+    }
+
+    /** Every account that existed at this snapshot, in account-number order. */
+    public List<Account.Version> listAccounts() {
+        List<Account.Version> out = new ArrayList<>(accounts.size());
+        for (Account a : accounts) {
+            Account.Version v = a.versionAt(seq);
+            if (v != null)
+                out.add(v);
+        }
+        out.sort(Comparator.comparingLong(v -> v.getAccount().getAccountNumber()));
+        return out;
+    }
+
+    public long totalBalanceCents() {
+        long sum = 0L;
+        for (Account a : accounts) {
+            Account.Version v = a.versionAt(seq);
+            if (v != null)
+                sum += v.getBalanceCents();
+        }
+        return sum;
+    }
+
+    public int totalAccounts() {
+        int n = 0;
+        for (Account a : accounts)
+            if (a.versionAt(seq) != null)
+                n++;
+        return n;
+    }
+
+    public int countActiveAccounts() {
+        int n = 0;
+        for (Account a : accounts) {
+            Account.Version v = a.versionAt(seq);
+            if (v != null && v.isActive())
+                n++;
+        }
+        return n;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        clock.close(seq);
+    }
+}
@@ -0,0 +1,53 @@
+package bankapp.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded ring of commands with many producers and one consumer. Producers
+ * claim a sequence number with a CAS on the tail and publish by filling the
+ * slot; the consumer takes slots in sequence order and clears them, so a
+ * claimed but not yet filled slot simply reads as empty for a moment.
+ */
+final class CommandRing {
+    private final AtomicReferenceArray<Runnable> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // written only by the consumer
+    private volatile long head;
+
+    CommandRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /** False when the ring is full. */
+    boolean offer(Runnable command) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head > mask)
+                return false;
+        } while (!tail.compareAndSet(t, t + 1));
+        slots.lazySet((int) t & mask, command);
+        return true;
+    }
+
+    /** Consumer only; null when the next command is not published yet. */
+    Runnable poll() {
+        long h = head;
+        int i = (int) h & mask;
+        Runnable r = slots.get(i);
+        if (r == null)
+            return null;
+        slots.lazySet(i, null);
+        head = h + 1;
+        return r;
+    }
+
+    int size() {
+        return (int) (tail.get() - head);
+    }
+}
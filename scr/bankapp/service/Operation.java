@@ -0,0 +1,61 @@
+package bankapp.service;
+
+/** One money movement submitted through {@link BankService#applyBatch}. */
+public final class Operation {
+    public enum Kind {
+        DEPOSIT, WITHDRAW, TRANSFER
+    }
+
+    private final Kind kind;
+    private final long accountNumber;
+    private final long toAccountNumber;
+    private final double amount;
+    private final String narration;
+
+    private Operation(Kind kind, long accountNumber, long toAccountNumber, double amount, String narration) {
+        this.kind = kind;
+        this.accountNumber = accountNumber;
+        this.toAccountNumber = toAccountNumber;
+        this.amount = amount;
+        this.narration = narration;
+    }
+
+    public static Operation deposit(long accountNumber, double amount, String narration) {
+        return new Operation(Kind.DEPOSIT, accountNumber, 0L, amount, narration);
+    }
+
+    public static Operation withdraw(long accountNumber, double amount, String narration) {
+        return new Operation(Kind.WITHDRAW, accountNumber, 0L, amount, narration);
+    }
+
+    public static Operation transfer(long fromAcc, long toAcc, double amount, String narration) {
+        return new Operation(Kind.TRANSFER, fromAcc, toAcc, amount, narration);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /** The account for a deposit or withdrawal, the source for a transfer. */
+    public long getAccountNumber() {
+        return accountNumber;
+    }
+
+    /** The destination of a transfer; 0 otherwise. */
+    public long getToAccountNumber() {
+        return toAccountNumber;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public String getNarration() {
+        return narration;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + accountNumber + (kind == Kind.TRANSFER ? " -> " + toAccountNumber : "") + " " + amount;
+    }
+}
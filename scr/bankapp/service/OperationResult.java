@@ -0,0 +1,38 @@
+package bankapp.service;
+
+/** Outcome of one {@link Operation} of a batch: success, or the reason it was not applied. */
+public final class OperationResult {
+    private final Operation operation;
+    private final String error;
+
+    private OperationResult(Operation operation, String error) {
+        this.operation = operation;
+        this.error = error;
+    }
+
+    public static OperationResult ok(Operation op) {
+        return new OperationResult(op, null);
+    }
+
+    public static OperationResult failed(Operation op, String error) {
+        return new OperationResult(op, error);
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /** The {@code BankException} message when the operation was not applied, else null. */
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return operation + (error == null ? ": ok" : ": " + error);
+    }
+}
@@ -0,0 +1,258 @@
+package bankapp.service;
+
+import bankapp.model.Account;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Trigram inverted index over owner names. Each account gets a dense doc id
+ * in creation order; every trigram of the lower-cased name (plus a leading
+ * start marker, for prefix queries) maps to an ascending posting list of doc
+ * ids. A query intersects the lists of its own trigrams and verifies the few
+ * candidates against the stored lower-case name.
+ * <p>
+ * An index made with {@link #inBackground} is filled on a thread of its
+ * own, so a large bank is usable before its names are indexed; searches and
+ * additions wait until it is complete.
+ */
+final class OwnerIndex {
+    private static final char START = '\u0001';
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final PostingsTable postings = new PostingsTable();
+    private Account[] docs = new Account[1024];
+    private String[] names = new String[1024];
+    private int size;
+    private final CountDownLatch built = new CountDownLatch(1);
+
+    OwnerIndex(Collection<Account> accounts) {
+        fill(new ArrayList<>(accounts));
+    }
+
+    private OwnerIndex() {
+    }
+
+    /** An index of {@code accounts} as they are now, filled on a background thread. */
+    static OwnerIndex inBackground(Collection<Account> accounts) {
+        OwnerIndex index = new OwnerIndex();
+        List<Account> copy = new ArrayList<>(accounts);
+        Thread t = new Thread(() -> index.fill(copy), "owner-index");
+        t.setDaemon(true);
+        t.start();
+        return index;
+    }
+
+    private void fill(List<Account> accounts) {
+        // searches and additions wait for the fill, so it holds the lock throughout rather than per account
+        lock.writeLock().lock();
+        try {
+            accounts.sort(Comparator.comparingLong(Account::getAccountNumber));
+            for (Account a : accounts)
+                index(a);
+        } finally {
+            lock.writeLock().unlock();
+            built.countDown();
+        }
+    }
+
+    private void awaitBuilt() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                built.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    void add(Account a) {
+        awaitBuilt();
+        put(a);
+    }
+
+    private void put(Account a) {
+        lock.writeLock().lock();
+        try {
+            index(a);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Caller holds the write lock.
+    private void index(Account a) {
+        String name = a.getOwnerName().toLowerCase(Locale.ROOT);
+        if (size == docs.length) {
+            docs = Arrays.copyOf(docs, size * 2);
+            names = Arrays.copyOf(names, size * 2);
+        }
+        int doc = size;
+        docs[doc] = a;
+        names[doc] = name;
+        String padded = START + name;
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            Postings p = postings.getOrAdd(trigram(padded, i));
+            if (p.size == 0 || p.docs[p.size - 1] != doc)
+                p.add(doc);
+        }
+        size = doc + 1;
+    }
+
+    /** Accounts whose owner name contains {@code query}, oldest account first. */
+    List<Account> contains(String query, int offset, int limit) {
+        String q = query == null ? "" : query.toLowerCase(Locale.ROOT);
+        return search(q, q, false, offset, limit);
+    }
+
+    /** Accounts whose owner name starts with {@code prefix}, oldest account first. */
+    List<Account> startsWith(String prefix, int offset, int limit) {
+        String q = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
+        return search(q, START + q, true, offset, limit);
+    }
+
+    private List<Account> search(String q, String grams, boolean prefix, int offset, int limit) {
+        if (offset < 0 || limit < 0)
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        if (limit == 0)
+            return Collections.emptyList();
+        awaitBuilt();
+        lock.readLock().lock();
+        try {
+            Postings[] lists = new Postings[Math.max(grams.length() - 2, 0)];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = postings.get(trigram(grams, i));
+                if (lists[i] == null)
+                    return Collections.emptyList();
+            }
+            Arrays.sort(lists, Comparator.comparingInt(p -> p.size));
+            // Walk the shortest list and probe the others, stopping once the page is full.
+            int count = lists.length == 0 ? size : lists[0].size;
+            int[] at = new int[lists.length];
+            List<Account> out = new ArrayList<>(Math.min(limit, 64));
+            int skipped = 0;
+            candidates:
+            for (int i = 0; i < count && out.size() < limit; i++) {
+                int doc = lists.length == 0 ? i : lists[0].docs[i];
+                for (int l = 1; l < lists.length; l++) {
+                    at[l] = lists[l].seek(doc, at[l]);
+                    if (at[l] == lists[l].size)
+                        break candidates;
+                    if (lists[l].docs[at[l]] != doc)
+                        continue candidates;
+                }
+                String name = names[doc];
+                if (prefix ? name.startsWith(q) : name.contains(q)) {
+                    if (skipped < offset)
+                        skipped++;
+                    else
+                        out.add(docs[doc]);
+                }
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    /**
+     * Posting lists by packed trigram in an open-addressed table: no boxed key
+     * per trigram of every name, and a multiplicative hash, as
+     * {@code Long.hashCode} folds the packed chars onto each other.
+     */
+    private static final class PostingsTable {
+        private long[] keys = new long[1 << 12];
+        private Postings[] values = new Postings[1 << 12];
+        private int size;
+
+        Postings get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask)
+                if (keys[i] == key)
+                    return values[i];
+            return null;
+        }
+
+        Postings getOrAdd(long key) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            for (; values[i] != null; i = (i + 1) & mask)
+                if (keys[i] == key)
+                    return values[i];
+            Postings p = new Postings();
+            keys[i] = key;
+            values[i] = p;
+            if (++size * 2 > keys.length)
+                grow();
+            return p;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Postings[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] == null)
+                    continue;
+                int i = slot(oldKeys[j], mask);
+                while (values[i] != null)
+                    i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+    }
+
+    private static final class Postings {
+        int[] docs = new int[4];
+        int size;
+
+        void add(int doc) {
+            if (size == docs.length)
+                docs = Arrays.copyOf(docs, size * 2);
+            docs[size++] = doc;
+        }
+
+        // First index at or after from whose doc is >= target (galloping search).
+        int seek(int target, int from) {
+            int step = 1;
+            int hi = from;
+            while (hi < size && docs[hi] < target) {
+                from = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            hi = Math.min(hi, size);
+            int lo = from;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (docs[mid] < target)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package bankapp.service;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.persistence.FileJournal;
+import bankapp.persistence.JournalPersistence;
+import bankapp.persistence.Persistence;
+import bankapp.security.AuthProvider;
+
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-only copy of a bank kept current by following the primary's files:
+ * it loads the snapshot, then applies journal records as the primary
+ * appends them. When the primary checkpoints (the journal rotated out, then
+ * a new snapshot) the replica reloads: from the snapshot, any journal
+ * segments not yet deleted, and the new journal. Reads are served from
+ * the copy without touching the primary; every write is rejected.
+ * <p>
+ * {@link #poll()} applies whatever is new; {@link #start} does so
+ * periodically on a daemon thread.
+ */
+public final class ReadReplica implements BankService, ReadReplicaMBean, AutoCloseable {
+    private static final long serialVersionUID = 1L;
+    private static final String READ_ONLY = "Read-only replica";
+
+    private final String filename;
+    private final Path snapshot;
+    private final Path journal;
+    private final Persistence snapshots;
+    private final AuthProvider auth;
+    private volatile BankServiceImpl bank;
+    // identity of the snapshot and journal files the current copy was loaded from
+    private String snapshotKey;
+    private Object journalKey;
+    private long position;
+    private final AtomicLong applied = new AtomicLong();
+    private volatile long lagBytes;
+    private volatile long caughtUpNanos;
+    private volatile long reloads;
+    private volatile Thread tailer;
+
+    /**
+     * @param filename  the primary's save file; its journal is {@code <filename>.journal}, with
+     *                  segments a checkpoint has rotated out at {@code <filename>.journal.<n>}
+     * @param snapshots the snapshot format the primary saves with (not a {@link JournalPersistence})
+     */
+    public ReadReplica(String filename, Persistence snapshots, AuthProvider auth) throws IOException {
+        this.filename = filename;
+        this.snapshot = Paths.get(filename);
+        this.journal = JournalPersistence.journalPath(filename);
+        this.snapshots = snapshots;
+        this.auth = auth;
+        poll();
+    }
+
+    /** The copy queries are currently answered from. */
+    public BankServiceImpl getTarget() {
+        return bank;
+    }
+
+    /** Applies every record the primary has journaled since the last poll. */
+    public synchronized void poll() throws IOException {
+        long started = System.nanoTime();
+        String key = fileKey(snapshot);
+        if (bank == null || !key.equals(snapshotKey) || !Objects.equals(inode(journal), journalKey)
+                || size(journal) < position) {
+            reload(key);
+        } else {
+            BankServiceImpl b = bank;
+            position = FileJournal.replay(journal, position, r -> {
+                b.applyJournalRecord(r);
+                applied.incrementAndGet();
+            });
+            if (FileJournal.corruptAt(journal, position) || !Objects.equals(inode(journal), journalKey))
+                reload(fileKey(snapshot));
+        }
+        lagBytes = Math.max(0L, size(journal) - position);
+        if (lagBytes == 0L)
+            caughtUpNanos = started;
+    }
+
+    private void reload(String key) throws IOException {
+        while (true) {
+            BankServiceImpl b;
+            try {
+                Object o = snapshots.load(filename);
+                if (!(o instanceof BankServiceImpl))
+                    throw new IOException("Saved object is not BankServiceImpl");
+                b = (BankServiceImpl) o;
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            b.initTransients(auth, null);
+            // taken first: a rotation after this makes the next poll reload
+            Object journalAt = inode(journal);
+            for (Path segment : JournalPersistence.journalSegments(filename))
+                FileJournal.replay(segment, r -> {
+                    b.applyJournalRecord(r);
+                    applied.incrementAndGet();
+                });
+            long pos = FileJournal.replay(journal, r -> {
+                b.applyJournalRecord(r);
+                applied.incrementAndGet();
+            });
+            // a checkpoint landed while loading: the journal read may belong to the next snapshot
+            String after = fileKey(snapshot);
+            if (after.equals(key)) {
+                if (bank != null)
+                    reloads++;
+                bank = b;
+                snapshotKey = key;
+                journalKey = journalAt;
+                position = pos;
+                return;
+            }
+            key = after;
+        }
+    }
+
+    private static String fileKey(Path p) throws IOException {
+        try {
+            BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+            return a.fileKey() + "@" + a.lastModifiedTime() + "/" + a.size();
+        } catch (NoSuchFileException e) {
+            throw new IOException("No snapshot at " + p, e);
+        }
+    }
+
+    // Changes when the journal is rotated, even if the new file has since outgrown the old position.
+    private static Object inode(Path p) throws IOException {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static long size(Path p) throws IOException {
+        return Files.exists(p) ? Files.size(p) : 0L;
+    }
+
+    /** Polls every {@code intervalMillis} until {@link #close()}. */
+    public synchronized ReadReplica start(long intervalMillis) {
+        if (tailer != null)
+            return this;
+        Thread t = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    poll();
+                } catch (ClosedByInterruptException e) {
+                    return; // closed mid-poll
+                } catch (IOException e) {
+                    System.err.println("Replica poll failed: " + e.getMessage());
+                }
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "replica-tail");
+        t.setDaemon(true);
+        t.start();
+        tailer = t;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        Thread t = tailer;
+        if (t == null)
+            return;
+        t.interrupt();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public long getLagBytes() {
+        return lagBytes;
+    }
+
+    @Override
+    public long getStalenessMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - caughtUpNanos);
+    }
+
+    @Override
+    public long getAppliedRecords() {
+        return applied.get();
+    }
+
+    @Override
+    public long getReloads() {
+        return reloads;
+    }
+
+    @Override
+    public Account createAccount(String owner, AccountType type, String pin, double openingDeposit)
+            throws BankException {
+        throw new BankException(READ_ONLY);
+    }
+
+    @Override
+    public Account getAccount(long accountNumber) {
+        return bank.getAccount(accountNumber);
+    }
+
+    @Override
+    public void deposit(long accountNumber, double amount, String narration) throws BankException {
+        throw new BankException(READ_ONLY);
+    }
+
+    @Override
+    public void withdraw(long accountNumber, double amount, String narration) throws BankException {
+        throw new BankException(READ_ONLY);
+    }
+
+    @Override
+    public void transfer(long fromAcc, long toAcc, double amount, String narration) throws BankException {
+        throw new BankException(READ_ONLY);
+    }
+
+    @Override
+    public List<OperationResult> applyBatch(List<Operation> ops) throws BankException {
+        throw new BankException(READ_ONLY);
+    }
+
+    @Override
+    public List<OperationResult> applyBatch(List<Operation> ops, boolean allOrNothing) throws BankException {
+        throw new BankException(READ_ONLY);
+    }
+
+    @Override
+    public void reverseTransaction(long accountNumber, String txId) throws BankException {
+        throw new BankException(READ_ONLY);
+    }
+
+    @Override
+    public void setAccountActive(long accountNumber, boolean active) throws BankException {
+        throw new BankException(READ_ONLY);
+    }
+
+    @Override
+    public void changePin(long accountNumber, String currentPin, String newPin) throws BankException {
+        throw new BankException(READ_ONLY);
+    }
+
+    @Override
+    public List<Account> listAccounts() {
+        return bank.listAccounts();
+    }
+
+    @Override
+    public List<Account> searchByOwner(String query) {
+        return bank.searchByOwner(query);
+    }
+
+    @Override
+    public List<Account> searchByOwner(String query, int offset, int limit) {
+        return bank.searchByOwner(query, offset, limit);
+    }
+
+    @Override
+    public List<Account> searchByOwnerPrefix(String prefix, int offset, int limit) {
+        return bank.searchByOwnerPrefix(prefix, offset, limit);
+    }
+
+    @Override
+    public int totalAccounts() {
+        return bank.totalAccounts();
+    }
+
+    @Override
+    public double totalBalances() {
+        return bank.totalBalances();
+    }
+
+    @Override
+    public int countActiveAccounts() {
+        return bank.countActiveAccounts();
+    }
+
+    @Override
+    public double getMinOpeningDeposit() {
+        return bank.getMinOpeningDeposit();
+    }
+
+    @Override
+    public double getDailyWithdrawalLimit() {
+        return bank.getDailyWithdrawalLimit();
+    }
+
+    @Override
+    public boolean isAdminCredentials(String user, String pass) {
+        return bank.isAdminCredentials(user, pass);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> verifyPinAsync(long accountNumber, String pin) {
+        return bank.verifyPinAsync(accountNumber, pin);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isAdminCredentialsAsync(String user, String pass) {
+        return bank.isAdminCredentialsAsync(user, pass);
+    }
+
+    @Override
+    public void setAdminPassword(String pass) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+}
@@ -0,0 +1,15 @@
+package bankapp.service;
+
+/** JMX view of a {@link ReadReplica}'s replication progress. */
+public interface ReadReplicaMBean {
+    /** Journal bytes the primary had written that the replica had not applied, as of its last poll. */
+    long getLagBytes();
+
+    /** How old the replica's view may be: time since it last found nothing left to apply. */
+    long getStalenessMillis();
+
+    long getAppliedRecords();
+
+    /** Times the snapshot was reloaded because the primary checkpointed. */
+    long getReloads();
+}
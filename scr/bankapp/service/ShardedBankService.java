@@ -0,0 +1,547 @@
+package bankapp.service;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.model.AccountType;
+import bankapp.model.Money;
+import bankapp.model.Transaction;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-writer execution engine over a {@link BankServiceImpl}. Accounts
+ * are split into shards by account number; each shard is owned by one
+ * thread that drains a bounded {@link CommandRing}, so deposits,
+ * withdrawals, transfers, reversals and status changes never wait on an
+ * account lock. A transfer between shards runs as a debit on the source
+ * shard and a credit on the target shard, refunding the debit if the
+ * credit is refused. Both legs are journaled, the debit with where the
+ * money goes, so a restart finishes a transfer a crash cut in half (see
+ * {@link BankServiceImpl#setJournal}).
+ * <p>
+ * The {@link BankService} methods block until the operation is durable;
+ * the {@code ...Async} methods return at once and complete from the shard
+ * or journal threads. Account creation, reads and PIN changes go straight
+ * to the wrapped service. Not meant to be serialized; persist the wrapped
+ * service instead.
+ */
+public final class ShardedBankService implements BankService, AutoCloseable {
+    private static final long serialVersionUID = 1L;
+
+    private interface Owned {
+        long run() throws BankException;
+    }
+
+    private final BankServiceImpl bank;
+    private final Shard[] shards;
+    // serializes batch barriers so every ring sees them in the same order
+    private final Object batchLock = new Object();
+    private final DurabilityWaiter waiter;
+    private volatile boolean closed;
+    private volatile boolean stopped;
+
+    public ShardedBankService(BankServiceImpl bank, int shards, int ringCapacity) {
+        if (shards <= 0)
+            throw new IllegalArgumentException("At least one shard required");
+        this.bank = bank;
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++)
+            this.shards[i] = new Shard(i, ringCapacity);
+        this.waiter = new DurabilityWaiter();
+    }
+
+    public BankServiceImpl getTarget() {
+        return bank;
+    }
+
+    private final class Shard implements Runnable {
+        final CommandRing ring;
+        // messages from other shards; unbounded so shards never wait on each other
+        final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+        final Thread thread;
+        volatile boolean parked;
+        volatile boolean busy;
+        volatile long executed;
+
+        Shard(int index, int ringCapacity) {
+            ring = new CommandRing(ringCapacity);
+            thread = new Thread(this, "bank-shard-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void submit(Runnable command) {
+            int spins = 0;
+            while (closed || !ring.offer(command)) {
+                if (closed)
+                    throw new RejectedExecutionException("Bank engine closed");
+                if (++spins < 100)
+                    Thread.onSpinWait();
+                else
+                    Thread.yield();
+            }
+            if (parked)
+                LockSupport.unpark(thread);
+        }
+
+        void post(Runnable message) {
+            mailbox.add(message);
+            if (parked)
+                LockSupport.unpark(thread);
+        }
+
+        boolean idle() {
+            return !busy && ring.size() == 0 && mailbox.isEmpty();
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (!stopped) {
+                Runnable r = mailbox.poll();
+                if (r == null)
+                    r = ring.poll();
+                if (r != null) {
+                    busy = true;
+                    try {
+                        r.run();
+                    } catch (RuntimeException e) {
+                        // commands complete their own futures, so this is a bug in one; the shard carries on
+                        bank.reportUnattended(thread.getName(), new BankException(String.valueOf(e)));
+                    }
+                    busy = false;
+                    executed++;
+                    idle = 0;
+                } else if (++idle < 64) {
+                    Thread.onSpinWait();
+                } else if (idle < 128) {
+                    Thread.yield();
+                } else {
+                    parked = true;
+                    if (ring.size() == 0 && mailbox.isEmpty() && !stopped)
+                        LockSupport.park(this);
+                    parked = false;
+                }
+            }
+        }
+    }
+
+    private static final class Waiting {
+        final long ticket;
+        final CompletableFuture<?> future;
+        final Throwable outcome;
+
+        Waiting(long ticket, CompletableFuture<?> future, Throwable outcome) {
+            this.ticket = ticket;
+            this.future = future;
+            this.outcome = outcome;
+        }
+    }
+
+    // Completes futures once their journal ticket is durable, one sync for everything queued.
+    private final class DurabilityWaiter implements Runnable {
+        private final BlockingQueue<Waiting> queue = new LinkedBlockingQueue<>();
+
+        DurabilityWaiter() {
+            Thread t = new Thread(this, "bank-shard-sync");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        void whenDurable(long ticket, CompletableFuture<?> f, Throwable outcome) {
+            queue.add(new Waiting(ticket, f, outcome));
+        }
+
+        @Override
+        public void run() {
+            List<Waiting> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch);
+                long max = 0L;
+                for (Waiting w : batch)
+                    max = Math.max(max, w.ticket);
+                BankException failure = null;
+                try {
+                    bank.awaitDurable(max);
+                } catch (BankException e) {
+                    failure = e;
+                }
+                for (Waiting w : batch) {
+                    Throwable outcome = failure != null ? failure : w.outcome;
+                    if (outcome != null)
+                        w.future.completeExceptionally(outcome);
+                    else
+                        w.future.complete(null);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private Shard shardOf(long accountNumber) {
+        return shards[(int) Math.floorMod(accountNumber, (long) shards.length)];
+    }
+
+    private static CompletableFuture<Long> failed(String message) {
+        return CompletableFuture.failedFuture(new BankException(message));
+    }
+
+    // Runs body on the thread owning the account; the future yields the journal ticket.
+    private CompletableFuture<Long> onOwner(Account a, Owned body) {
+        CompletableFuture<Long> f = new CompletableFuture<>();
+        try {
+            shardOf(a.getAccountNumber()).submit(() -> {
+                try {
+                    f.complete(body.run());
+                } catch (BankException | RuntimeException e) {
+                    f.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            f.completeExceptionally(new BankException(e.getMessage()));
+        }
+        return f;
+    }
+
+    private long awaitTicket(CompletableFuture<Long> ticket) throws BankException {
+        try {
+            return ticket.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof BankException)
+                throw (BankException) e.getCause();
+            throw e;
+        }
+    }
+
+    private CompletableFuture<Void> durable(CompletableFuture<Long> ticket) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        ticket.whenComplete((t, err) -> {
+            if (err != null)
+                result.completeExceptionally(err instanceof CompletionException ? err.getCause() : err);
+            else if (t == 0L)
+                result.complete(null);
+            else
+                waiter.whenDurable(t, result, null);
+        });
+        return result;
+    }
+
+    private CompletableFuture<Long> submitDeposit(long accountNumber, double amount, String narration) {
+        long cents = Money.toCents(amount);
+        if (cents <= 0)
+            return failed("Amount must be positive");
+        Account a = bank.getAccount(accountNumber);
+        if (a == null)
+            return failed("Account not found");
+        return onOwner(a, () -> bank.depositLocked(a, cents, narration));
+    }
+
+    private CompletableFuture<Long> submitWithdraw(long accountNumber, double amount, String narration) {
+        long cents = Money.toCents(amount);
+        if (cents <= 0)
+            return failed("Amount must be positive");
+        Account a = bank.getAccount(accountNumber);
+        if (a == null)
+            return failed("Account not found");
+        return onOwner(a, () -> bank.withdrawLocked(a, cents, narration));
+    }
+
+    private CompletableFuture<Long> submitTransfer(long fromAcc, long toAcc, double amount, String narration) {
+        long cents = Money.toCents(amount);
+        if (cents <= 0)
+            return failed("Amount must be positive");
+        if (fromAcc == toAcc)
+            return failed("Cannot transfer to same account");
+        Account from = bank.getAccount(fromAcc);
+        Account to = bank.getAccount(toAcc);
+        if (from == null || to == null)
+            return failed("Account not found");
+        Shard src = shardOf(fromAcc);
+        Shard dst = shardOf(toAcc);
+        if (src == dst)
+            return onOwner(from, () -> bank.transferLocked(from, to, cents, narration));
+        CompletableFuture<Long> f = new CompletableFuture<>();
+        try {
+            src.submit(() -> {
+                BankServiceImpl.PendingTransfer debited;
+                try {
+                    debited = bank.debitLocked(from, to, cents, narration);
+                } catch (BankException | RuntimeException e) {
+                    f.completeExceptionally(e);
+                    return;
+                }
+                dst.post(() -> {
+                    try {
+                        f.complete(bank.creditLocked(to, debited));
+                    } catch (BankException | RuntimeException e) {
+                        src.post(() -> refund(from, debited, e, f));
+                    }
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            f.completeExceptionally(new BankException(e.getMessage()));
+        }
+        return f;
+    }
+
+    // Compensates a refused credit; the transfer fails once the refund is durable.
+    private void refund(Account from, BankServiceImpl.PendingTransfer debited, Exception cause,
+            CompletableFuture<Long> f) {
+        try {
+            long ticket = bank.refundLocked(from, debited);
+            waiter.whenDurable(ticket, f, cause);
+        } catch (BankException | RuntimeException e) {
+            f.completeExceptionally(new BankException(cause.getMessage() + "; refund failed: " + e.getMessage()));
+        }
+    }
+
+    private CompletableFuture<Long> submitReverse(long accountNumber, String txId) {
+        Account a = bank.getAccount(accountNumber);
+        if (a == null)
+            return failed("Account not found");
+        Transaction tx = a.findTransaction(txId);
+        if (tx == null)
+            return failed("Transaction not found");
+        if (!tx.isReversible())
+            return failed("Transaction not reversible");
+        return onOwner(a, () -> bank.reverseLocked(a, tx));
+    }
+
+    private CompletableFuture<Long> submitSetActive(long accountNumber, boolean active) {
+        Account a = bank.getAccount(accountNumber);
+        if (a == null)
+            return failed("Account not found");
+        return onOwner(a, () -> bank.setActiveLocked(a, active));
+    }
+
+    public CompletableFuture<Void> depositAsync(long accountNumber, double amount, String narration) {
+        return durable(submitDeposit(accountNumber, amount, narration));
+    }
+
+    public CompletableFuture<Void> withdrawAsync(long accountNumber, double amount, String narration) {
+        return durable(submitWithdraw(accountNumber, amount, narration));
+    }
+
+    public CompletableFuture<Void> transferAsync(long fromAcc, long toAcc, double amount, String narration) {
+        return durable(submitTransfer(fromAcc, toAcc, amount, narration));
+    }
+
+    public CompletableFuture<Void> reverseTransactionAsync(long accountNumber, String txId) {
+        return durable(submitReverse(accountNumber, txId));
+    }
+
+    public CompletableFuture<Void> setAccountActiveAsync(long accountNumber, boolean active) {
+        return durable(submitSetActive(accountNumber, active));
+    }
+
+    @Override
+    public void deposit(long accountNumber, double amount, String narration) throws BankException {
+        bank.awaitDurable(awaitTicket(submitDeposit(accountNumber, amount, narration)));
+    }
+
+    @Override
+    public void withdraw(long accountNumber, double amount, String narration) throws BankException {
+        bank.awaitDurable(awaitTicket(submitWithdraw(accountNumber, amount, narration)));
+    }
+
+    @Override
+    public void transfer(long fromAcc, long toAcc, double amount, String narration) throws BankException {
+        bank.awaitDurable(awaitTicket(submitTransfer(fromAcc, toAcc, amount, narration)));
+    }
+
+    @Override
+    public void reverseTransaction(long accountNumber, String txId) throws BankException {
+        bank.awaitDurable(awaitTicket(submitReverse(accountNumber, txId)));
+    }
+
+    @Override
+    public void setAccountActive(long accountNumber, boolean active) throws BankException {
+        bank.awaitDurable(awaitTicket(submitSetActive(accountNumber, active)));
+    }
+
+    @Override
+    public List<OperationResult> applyBatch(List<Operation> ops) throws BankException {
+        return applyBatch(ops, true);
+    }
+
+    /**
+     * Parks the threads of every shard the batch touches, then applies it
+     * through the wrapped service from the calling thread.
+     */
+    @Override
+    public List<OperationResult> applyBatch(List<Operation> ops, boolean allOrNothing) throws BankException {
+        Set<Shard> involved = new LinkedHashSet<>();
+        for (Operation op : ops) {
+            involved.add(shardOf(op.getAccountNumber()));
+            if (op.getKind() == Operation.Kind.TRANSFER)
+                involved.add(shardOf(op.getToAccountNumber()));
+        }
+        CountDownLatch parked = new CountDownLatch(involved.size());
+        CountDownLatch done = new CountDownLatch(1);
+        Runnable barrier = () -> {
+            parked.countDown();
+            awaitUninterruptibly(done);
+        };
+        try {
+            synchronized (batchLock) {
+                for (Shard s : involved)
+                    s.submit(barrier);
+            }
+            awaitUninterruptibly(parked);
+            return bank.applyBatch(ops, allOrNothing);
+        } catch (RejectedExecutionException e) {
+            throw new BankException(e.getMessage());
+        } finally {
+            done.countDown();
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /** Rejects new commands, lets queued work and in-flight transfers finish, then stops the shards. */
+    @Override
+    public void close() {
+        closed = true;
+        while (true) {
+            long before = executed();
+            boolean idle = allIdle();
+            LockSupport.parkNanos(1_000_000L);
+            if (idle && allIdle() && executed() == before)
+                break;
+        }
+        stopped = true;
+        for (Shard s : shards) {
+            LockSupport.unpark(s.thread);
+            try {
+                s.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private long executed() {
+        long n = 0L;
+        for (Shard s : shards)
+            n += s.executed;
+        return n;
+    }
+
+    private boolean allIdle() {
+        for (Shard s : shards)
+            if (!s.idle())
+                return false;
+        return true;
+    }
+
+    @Override
+    public Account createAccount(String owner, AccountType type, String pin, double openingDeposit)
+            throws BankException {
+        return bank.createAccount(owner, type, pin, openingDeposit);
+    }
+
+    @Override
+    public Account getAccount(long accountNumber) {
+        return bank.getAccount(accountNumber);
+    }
+
+    @Override
+    public void changePin(long accountNumber, String currentPin, String newPin) throws BankException {
+        bank.changePin(accountNumber, currentPin, newPin);
+    }
+
+    @Override
+    public List<Account> listAccounts() {
+        return bank.listAccounts();
+    }
+
+    @Override
+    public List<Account> searchByOwner(String query) {
+        return bank.searchByOwner(query);
+    }
+
+    @Override
+    public List<Account> searchByOwner(String query, int offset, int limit) {
+        return bank.searchByOwner(query, offset, limit);
+    }
+
+    @Override
+    public List<Account> searchByOwnerPrefix(String prefix, int offset, int limit) {
+        return bank.searchByOwnerPrefix(prefix, offset, limit);
+    }
+
+    @Override
+    public int totalAccounts() {
+        return bank.totalAccounts();
+    }
+
+    @Override
+    public double totalBalances() {
+        return bank.totalBalances();
+    }
+
+    @Override
+    public int countActiveAccounts() {
+        return bank.countActiveAccounts();
+    }
+
+    @Override
+    public double getMinOpeningDeposit() {
+        return bank.getMinOpeningDeposit();
+    }
+
+    @Override
+    public double getDailyWithdrawalLimit() {
+        return bank.getDailyWithdrawalLimit();
+    }
+
+    @Override
+    public boolean isAdminCredentials(String user, String pass) {
+        return bank.isAdminCredentials(user, pass);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> verifyPinAsync(long accountNumber, String pin) {
+        return bank.verifyPinAsync(accountNumber, pin);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isAdminCredentialsAsync(String user, String pass) {
+        return bank.isAdminCredentialsAsync(user, pass);
+    }
+
+    @Override
+    public void setAdminPassword(String pass) {
+        bank.setAdminPassword(pass);
+    }
+}
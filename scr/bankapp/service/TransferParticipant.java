@@ -0,0 +1,180 @@
+package bankapp.service;
+
+import bankapp.exceptions.BankException;
+import bankapp.model.Account;
+import bankapp.persistence.IntentLog;
+import bankapp.persistence.IntentLog.Intent;
+import bankapp.persistence.IntentLog.State;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One node's side of a two-phase transfer between nodes. {@link #prepare}
+ * checks the leg and, for a debit, holds the funds so nothing else can spend
+ * them, then records the promise durably; {@link #commit} applies the leg
+ * and {@link #abort} drops it. All three are idempotent, so a coordinator
+ * may resend a decision after a crash on either side; a prepare resent
+ * while the first is still running waits for it and gets the same vote.
+ * Legs are kept by transfer and account, so both legs of a transfer may be
+ * prepared on one node, and a decision applies to all of them. Held funds
+ * are restored from the intent log when the node restarts.
+ */
+public final class TransferParticipant {
+    private final BankServiceImpl bank;
+    private final IntentLog log;
+    // transfers whose decision is being applied, so a resent decision cannot apply it twice
+    private final Set<String> finishing = ConcurrentHashMap.newKeySet();
+    // legs being prepared, so a resent prepare cannot hold the funds twice
+    private final Map<String, CompletableFuture<Void>> preparing = new ConcurrentHashMap<>();
+
+    public TransferParticipant(BankServiceImpl bank, IntentLog log) throws BankException {
+        this.bank = bank;
+        this.log = log;
+        for (Intent i : log.pending()) {
+            Account a = bank.getAccount(i.getAccountNumber());
+            if (a != null && i.isDebit() && !applied(a, i)) {
+                synchronized (a) {
+                    bank.restoreHoldLocked(a, i.getCents());
+                }
+            }
+        }
+    }
+
+    // Id of the transaction a leg becomes, so a resent commit can tell it was already applied.
+    private static UUID legId(Intent i) {
+        return UUID.nameUUIDFromBytes((i.getTxId() + ":" + i.getAccountNumber()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean applied(Account a, Intent i) {
+        UUID id = legId(i);
+        return a.hasTransaction(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    public void prepare(String txId, long accountNumber, long counterparty, long cents, boolean debit,
+            String narration) throws BankException {
+        String key = IntentLog.key(txId, accountNumber);
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> first = preparing.putIfAbsent(key, mine);
+        if (first != null) {
+            await(first);
+            return;
+        }
+        try {
+            // a resend arriving after the first prepare finished finds its intent
+            if (log.get(txId, accountNumber) == null)
+                prepareLeg(txId, accountNumber, counterparty, cents, debit, narration);
+            mine.complete(null);
+        } catch (BankException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            preparing.remove(key);
+        }
+    }
+
+    private static void await(CompletableFuture<Void> vote) throws BankException {
+        try {
+            vote.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof BankException)
+                throw (BankException) e.getCause();
+            throw e;
+        }
+    }
+
+    private void prepareLeg(String txId, long accountNumber, long counterparty, long cents, boolean debit,
+            String narration) throws BankException {
+        if (cents <= 0)
+            throw new BankException("Amount must be positive");
+        Account a = bank.getAccount(accountNumber);
+        if (a == null)
+            throw new BankException("Account not found");
+        synchronized (a) {
+            if (debit)
+                bank.holdLocked(a, cents);
+            else if (!a.isActive())
+                throw new BankException("One of the accounts is frozen");
+        }
+        try {
+            log.append(new Intent(txId, State.PREPARED, accountNumber, counterparty, cents, debit, narration), true);
+        } catch (IOException e) {
+            if (debit) {
+                synchronized (a) {
+                    bank.releaseLocked(a, cents);
+                }
+            }
+            throw new BankException("Intent log write failed: " + e.getMessage());
+        }
+    }
+
+    public void commit(String txId) throws BankException {
+        for (Intent i : log.legs(txId)) {
+            String key = IntentLog.key(txId, i.getAccountNumber());
+            if (!finishing.add(key))
+                continue;
+            try {
+                commit(i);
+            } finally {
+                finishing.remove(key);
+            }
+        }
+    }
+
+    private void commit(Intent i) throws BankException {
+        Account a = bank.getAccount(i.getAccountNumber());
+        String narration = (i.isDebit() ? "Transfer to " : "Transfer from ") + i.getCounterparty()
+                + (i.getNarration() == null ? "" : " | " + i.getNarration());
+        long ticket;
+        synchronized (a) {
+            // applied before a restart: no hold was restored for it
+            if (applied(a, i)) {
+                ticket = 0L;
+            } else {
+                if (i.isDebit())
+                    bank.releaseLocked(a, i.getCents());
+                ticket = bank.applyLegLocked(a, legId(i), i.isDebit(), i.getCents(), narration);
+            }
+        }
+        bank.awaitDurable(ticket);
+        finish(i);
+    }
+
+    public void abort(String txId) throws BankException {
+        for (Intent i : log.legs(txId)) {
+            String key = IntentLog.key(txId, i.getAccountNumber());
+            if (!finishing.add(key))
+                continue;
+            try {
+                if (i.isDebit()) {
+                    Account a = bank.getAccount(i.getAccountNumber());
+                    synchronized (a) {
+                        bank.releaseLocked(a, i.getCents());
+                    }
+                }
+                finish(i);
+            } finally {
+                finishing.remove(key);
+            }
+        }
+    }
+
+    private void finish(Intent i) throws BankException {
+        try {
+            log.append(i.withState(State.DONE), false);
+        } catch (IOException e) {
+            throw new BankException("Intent log write failed: " + e.getMessage());
+        }
+    }
+
+    /** Transfers prepared here and not yet decided. */
+    public int inDoubt() {
+        return log.pending().size();
+    }
+}
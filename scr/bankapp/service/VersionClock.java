@@ -0,0 +1,125 @@
+package bankapp.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Commit sequence for versioned account state (see {@link BankSnapshot}).
+ * A writer takes a sequence number with {@link #begin()} while it holds the
+ * locks of the accounts it changed, publishes their new versions under it,
+ * then calls {@link #end(long)}. {@link #stable()} is the highest sequence
+ * at or below which every commit has ended, so a snapshot taken there never
+ * sees half a transfer. In-flight sequences sit in a small array of slots
+ * rather than a queue, so writers never wait for each other to finish in
+ * order; only a reader computing {@code stable()} may briefly spin.
+ * <p>
+ * Open snapshots are registered here too; {@link #horizon()} is a sequence
+ * no open snapshot is older than, below which a writer may drop versions.
+ */
+final class VersionClock {
+    private static final int SLOTS = 256;
+    // spacing between used slots, so neighbouring slots do not share a cache line
+    private static final int STRIDE = 8;
+    private static final long FREE = 0L;
+    private static final long RESERVED = -1L;
+    // commits between attempts to advance the horizon when no snapshot is open
+    private static final int ADVANCE_EVERY = 64;
+
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLongArray inFlight = new AtomicLongArray(SLOTS * STRIDE);
+    private final ReentrantLock registry = new ReentrantLock();
+    // open snapshots by sequence, with how many are open at each
+    private final TreeMap<Long, Integer> open = new TreeMap<>();
+    private volatile long horizon;
+
+    /** Takes the next sequence number; the caller must {@link #end} it. */
+    long begin() {
+        int i = home();
+        while (!inFlight.compareAndSet(i * STRIDE, FREE, RESERVED)) {
+            i = (i + 1) % SLOTS;
+            Thread.onSpinWait();
+        }
+        long seq = next.incrementAndGet();
+        inFlight.set(i * STRIDE, seq);
+        return seq;
+    }
+
+    void end(long seq) {
+        // begin() ran on this thread, so the slot is usually the first one probed
+        for (int i = home(), n = 0; n < SLOTS; i = (i + 1) % SLOTS, n++) {
+            if (inFlight.get(i * STRIDE) == seq) {
+                inFlight.set(i * STRIDE, FREE);
+                break;
+            }
+        }
+        if (seq % ADVANCE_EVERY == 0)
+            advance();
+    }
+
+    private static int home() {
+        return Math.floorMod((int) Thread.currentThread().getId() * 0x9E3779B9, SLOTS);
+    }
+
+    /** The last sequence handed out, whether or not its commit has ended. */
+    long latest() {
+        return next.get();
+    }
+
+    long stable() {
+        // read first: a commit reserving a slot after this gets a later sequence
+        long s = next.get();
+        for (int i = 0; i < SLOTS; i++) {
+            long v;
+            while ((v = inFlight.get(i * STRIDE)) == RESERVED)
+                Thread.onSpinWait();
+            if (v != FREE && v <= s)
+                s = v - 1;
+        }
+        return s;
+    }
+
+    long horizon() {
+        return horizon;
+    }
+
+    /** Registers a snapshot at the current stable sequence and returns it. */
+    long open() {
+        registry.lock();
+        try {
+            long seq = stable();
+            open.merge(seq, 1, Integer::sum);
+            return seq;
+        } finally {
+            registry.unlock();
+        }
+    }
+
+    void close(long seq) {
+        registry.lock();
+        try {
+            open.computeIfPresent(seq, (k, n) -> n == 1 ? null : n - 1);
+            recompute();
+        } finally {
+            registry.unlock();
+        }
+    }
+
+    // Writers call this in passing and must not wait, so it gives up if a snapshot is being opened or closed.
+    private void advance() {
+        if (!registry.tryLock())
+            return;
+        try {
+            recompute();
+        } finally {
+            registry.unlock();
+        }
+    }
+
+    private void recompute() {
+        Map.Entry<Long, Integer> oldest = open.firstEntry();
+        horizon = oldest != null ? oldest.getKey() : stable();
+    }
+}
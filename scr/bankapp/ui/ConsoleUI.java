@@ -3,25 +3,53 @@ package bankapp.ui;
 import bankapp.exceptions.BankException;
 import bankapp.model.Account;
 import bankapp.model.AccountType;
-import bankapp.persistence.SerializationPersistence;
+import bankapp.model.Money;
+import bankapp.metrics.Metrics;
+import bankapp.metrics.MetricsBankService;
+import bankapp.metrics.MetricsPersistence;
+import bankapp.persistence.Checkpointer;
+import bankapp.persistence.CsvExporter;
+import bankapp.persistence.IndexedPersistence;
+import bankapp.persistence.JournalPersistence;
 import bankapp.security.AuthProvider;
 import bankapp.security.AuthProvider_2;
+import bankapp.security.PinVerifier;
 import bankapp.service.BankService;
+import bankapp.service.BankSnapshot;
 import bankapp.service.BankServiceImpl;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.text.DecimalFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
 
 public class ConsoleUI {
+    // A checkpoint is written in the background after this long or this many changes, whichever comes first.
+    private static final long CHECKPOINT_SECONDS = 60L;
+    private static final long CHECKPOINT_COMMITS = 10_000L;
+    private static final int KEPT_CHECKPOINTS = 3;
+
     private final Scanner sc = new Scanner(System.in);
     private BankServiceImpl bank;
+    // bank behind the metrics decorator; all account operations go through it
+    private BankService service;
     private final AuthProvider auth = new AuthProvider_2();
-    private final SerializationPersistence persistence = new SerializationPersistence();
+    private final PinVerifier verifier = new PinVerifier(auth);
+    private final Metrics metrics = new Metrics();
+    private final JournalPersistence persistence = new JournalPersistence(
+            new MetricsPersistence(new IndexedPersistence(), metrics), 2_000L, 256);
     private final String saveFile = "bankdata-secure.ser";
+    private boolean journaled;
+    private volatile Checkpointer checkpointer;
 
     public ConsoleUI() {
+        persistence.setRetainedCheckpoints(KEPT_CHECKPOINTS);
         try {
             BankServiceImpl loaded = BankServiceImpl.loadFrom(saveFile, auth, persistence);
             if (loaded != null) {
@@ -37,10 +65,17 @@ public class ConsoleUI {
             bank.setAdminPassword("admin123");
             bank.setPersistence(persistence);
         }
+        wire();
+        attachJournal();
+        try {
+            metrics.registerMBeans("bankapp");
+        } catch (JMException e) {
+            System.out.println("Metrics not published over JMX: " + e.getMessage());
+        }
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
-                bank.saveTo(saveFile);
+                checkpointer.close();
                 System.out.println("\n[Auto-save] State saved to " + saveFile);
             } catch (IOException ignored) {
             }
@@ -125,10 +160,10 @@ public class ConsoleUI {
                     System.out.println("Enter number.");
                 }
             }
-            Account acc = bank.createAccount(owner, type, pin, opening);
+            Account acc = service.createAccount(owner, type, pin, opening);
             System.out.println(
                     "Created. AccountNo: " + acc.getAccountNumber() + " | Balance: " + format(acc.getBalance()));
-            saveNow();
+            persistChange();
         } catch (BankException be) {
             System.out.println("Create failed: " + be.getMessage());
         }
@@ -146,8 +181,7 @@ public class ConsoleUI {
                 System.out.println("Not found.");
                 return;
             }
-            var salt = java.util.Base64.getDecoder().decode(acc.getPinSaltBase64());
-            if (!auth.verifyPin(pin, acc.getPinHashBase64(), salt)) {
+            if (!service.verifyPinAsync(accNo, pin).join()) {
                 System.out.println("Auth failed.");
                 return;
             }
@@ -184,22 +218,22 @@ public class ConsoleUI {
                         break;
                     case "3":
                         depositFlow(acc);
-                        saveNow();
+                        persistChange();
                         break;
                     case "4":
                         withdrawFlow(acc);
-                        saveNow();
+                        persistChange();
                         break;
                     case "5":
                         transferFlow(acc);
-                        saveNow();
+                        persistChange();
                         break;
                     case "6":
                         exportAccCSV(acc);
                         break;
                     case "7":
                         changePin(acc);
-                        saveNow();
+                        persistChange();
                         break;
                     case "8":
                         System.out.println("Logged out.");
@@ -219,7 +253,7 @@ public class ConsoleUI {
         String u = sc.nextLine().trim();
         System.out.print("Pass: ");
         String p = sc.nextLine().trim();
-        if (!bank.isAdminCredentials(u, p)) {
+        if (!service.isAdminCredentialsAsync(u, p).join()) {
             System.out.println("Auth failed.");
             return;
         }
@@ -230,7 +264,8 @@ public class ConsoleUI {
             System.out.println("3. Freeze/unfreeze");
             System.out.println("4. Reverse tx");
             System.out.println("5. Simple report");
-            System.out.println("6. Logout");
+            System.out.println("6. Export all to CSV");
+            System.out.println("7. Logout");
             System.out.print("Choose: ");
             String c = sc.nextLine().trim();
             switch (c) {
@@ -242,16 +277,19 @@ public class ConsoleUI {
                     break;
                 case "3":
                     toggleFreeze();
-                    saveNow();
+                    persistChange();
                     break;
                 case "4":
                     reverseTx();
-                    saveNow();
+                    persistChange();
                     break;
                 case "5":
                     simpleReport();
                     break;
                 case "6":
+                    exportAll();
+                    break;
+                case "7":
                     System.out.println("Admin out.");
                     break adminLoop;
                 default:
@@ -265,7 +303,7 @@ public class ConsoleUI {
         double amt = Double.parseDouble(sc.nextLine().trim());
         System.out.print("Narration: ");
         String note = sc.nextLine().trim();
-        bank.deposit(acc.getAccountNumber(), amt, note.isEmpty() ? "Deposit" : note);
+        service.deposit(acc.getAccountNumber(), amt, note.isEmpty() ? "Deposit" : note);
         System.out.println("Deposited. New balance: " + format(acc.getBalance()));
     }
 
@@ -274,7 +312,7 @@ public class ConsoleUI {
         double amt = Double.parseDouble(sc.nextLine().trim());
         System.out.print("Narration: ");
         String note = sc.nextLine().trim();
-        bank.withdraw(acc.getAccountNumber(), amt, note.isEmpty() ? "Withdrawal" : note);
+        service.withdraw(acc.getAccountNumber(), amt, note.isEmpty() ? "Withdrawal" : note);
         System.out.println("Withdrawn. New balance: " + format(acc.getBalance()));
     }
 
@@ -285,7 +323,7 @@ public class ConsoleUI {
         double amt = Double.parseDouble(sc.nextLine().trim());
         System.out.print("Narration: ");
         String note = sc.nextLine().trim();
-        bank.transfer(acc.getAccountNumber(), to, amt, note.isEmpty() ? "Transfer" : note);
+        service.transfer(acc.getAccountNumber(), to, amt, note.isEmpty() ? "Transfer" : note);
         System.out.println("Transfer done. New balance: " + format(acc.getBalance()));
     }
 
@@ -302,36 +340,57 @@ public class ConsoleUI {
         }
     }
 
+    private void exportAll() {
+        System.out.print("From date yyyy-MM-dd (blank = all): ");
+        String from = sc.nextLine().trim();
+        System.out.print("To date yyyy-MM-dd, exclusive (blank = all): ");
+        String to = sc.nextLine().trim();
+        System.out.print("Filename (blank = bank_export.csv): ");
+        String f = sc.nextLine().trim();
+        if (f.isEmpty())
+            f = "bank_export.csv";
+        try {
+            var exporter = new CsvExporter(from.isEmpty() ? null : LocalDate.parse(from).atStartOfDay(),
+                    to.isEmpty() ? null : LocalDate.parse(to).atStartOfDay(),
+                    Runtime.getRuntime().availableProcessors());
+            long rows;
+            try (BankSnapshot snap = bank.openSnapshot()) {
+                rows = exporter.exportCombined(snap, Paths.get(f));
+            }
+            System.out.println("Exported " + rows + " transactions to " + f);
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid date.");
+        } catch (IOException e) {
+            System.out.println("Export failed: " + e.getMessage());
+        }
+    }
+
     private void changePin(Account acc) {
         System.out.print("Current PIN: ");
         String cur = sc.nextLine().trim();
-        var salt = java.util.Base64.getDecoder().decode(acc.getPinSaltBase64());
-        if (!auth.verifyPin(cur, acc.getPinHashBase64(), salt)) {
-            System.out.println("Wrong PIN.");
-            return;
-        }
         System.out.print("New 4-digit PIN: ");
         String np = sc.nextLine().trim();
-        if (!np.matches("\\d{4}")) {
-            System.out.println("PIN must be 4 digits.");
-            return;
+        try {
+            service.changePin(acc.getAccountNumber(), cur, np);
+            System.out.println("PIN changed.");
+        } catch (BankException be) {
+            System.out.println(be.getMessage() + ".");
         }
-        var newsalt = auth.generateSalt();
-        var newHash = auth.hashPin(np, newsalt);
-        acc.setPin(newHash, java.util.Base64.getEncoder().encodeToString(newsalt));
-        System.out.println("PIN changed.");
     }
 
     private void listAll() {
-        List<Account> list = bank.listAccounts();
-        if (list.isEmpty()) {
-            System.out.println("No accounts.");
-            return;
-        }
-        System.out.printf("%-15s %-25s %-10s %-12s %-6s%n", "AccountNo", "Owner", "Type", "Balance", "Active");
-        for (var a : list) {
-            System.out.printf("%-15d %-25s %-10s %-12.2f %-6s%n", a.getAccountNumber(), shrink(a.getOwnerName(), 24),
-                    a.getType(), a.getBalance(), a.isActive() ? "Yes" : "No");
+        try (BankSnapshot snap = bank.openSnapshot()) {
+            List<Account.Version> list = snap.listAccounts();
+            if (list.isEmpty()) {
+                System.out.println("No accounts.");
+                return;
+            }
+            System.out.printf("%-15s %-25s %-10s %-12s %-6s%n", "AccountNo", "Owner", "Type", "Balance", "Active");
+            for (var v : list) {
+                Account a = v.getAccount();
+                System.out.printf("%-15d %-25s %-10s %-12.2f %-6s%n", a.getAccountNumber(),
+                        shrink(a.getOwnerName(), 24), a.getType(), v.getBalance(), v.isActive() ? "Yes" : "No");
+            }
         }
     }
 
@@ -346,12 +405,19 @@ public class ConsoleUI {
             else
                 printAccount(a);
         } catch (NumberFormatException e) {
-            List<Account> found = bank.searchByOwner(q);
-            if (found.isEmpty())
-                System.out.println("No matches.");
-            else
-                for (var a : found)
+            int page = 20;
+            for (int offset = 0;; offset += page) {
+                List<Account> found = service.searchByOwner(q, offset, page + 1);
+                if (found.isEmpty() && offset == 0)
+                    System.out.println("No matches.");
+                for (var a : found.subList(0, Math.min(page, found.size())))
                     printAccount(a);
+                if (found.size() <= page)
+                    break;
+                System.out.print("More matches. Show next " + page + "? (y/n): ");
+                if (!sc.nextLine().trim().equalsIgnoreCase("y"))
+                    break;
+            }
         }
     }
 
@@ -373,10 +439,12 @@ public class ConsoleUI {
                 System.out.println("Not found.");
                 return;
             }
-            a.setActive(!a.isActive());
+            service.setAccountActive(accNo, !a.isActive());
             System.out.println("Now active = " + a.isActive());
         } catch (NumberFormatException e) {
             System.out.println("Invalid.");
+        } catch (BankException be) {
+            System.out.println("Failed: " + be.getMessage());
         }
     }
 
@@ -387,7 +455,7 @@ public class ConsoleUI {
             System.out.print("Transaction ID: ");
             String tx = sc.nextLine().trim();
             try {
-                bank.reverseTransaction(accNo, tx);
+                service.reverseTransaction(accNo, tx);
                 System.out.println("Reversed (if reversible).");
             } catch (BankException be) {
                 System.out.println("Reverse failed: " + be.getMessage());
@@ -398,33 +466,75 @@ public class ConsoleUI {
     }
 
     private void simpleReport() {
-        System.out.println("Total accounts: " + bank.totalAccounts());
-        System.out.println("Total balances: " + format(bank.totalBalances()));
-        System.out.println("Active accounts: " + bank.countActiveAccounts());
+        try (BankSnapshot snap = bank.openSnapshot()) {
+            System.out.println("Total accounts: " + snap.totalAccounts());
+            System.out.println("Total balances: " + format(Money.toAmount(snap.totalBalanceCents())));
+            System.out.println("Active accounts: " + snap.countActiveAccounts());
+        }
+        System.out.println();
+        System.out.print(metrics.dump());
     }
 
+    // The checkpoint is written on the checkpointer's thread; this only asks for it.
     private void saveNow() {
+        IOException failed = checkpointer.getLastFailure();
+        if (failed != null)
+            System.out.println("Last save failed: " + failed.getMessage());
+        checkpointer.requestCheckpoint();
+        System.out.println("Saving to " + saveFile + " in the background");
+    }
+
+    private void persistChange() {
+        if (!journaled)
+            saveNow();
+    }
+
+    private void wire() {
+        bank.setPinVerifier(verifier);
+        bank.setMetrics(metrics);
+        service = new MetricsBankService(bank, metrics);
+    }
+
+    private void attachJournal() {
         try {
-            bank.saveTo(saveFile);
-            System.out.println("Saved to " + saveFile);
+            if (!new File(saveFile).exists())
+                bank.saveTo(saveFile);
+            bank.setJournal(persistence.openJournal(saveFile));
+            journaled = true;
         } catch (IOException e) {
-            System.out.println("Save failed: " + e.getMessage());
+            journaled = false;
+            System.out.println("Journal unavailable, saving full snapshots: " + e.getMessage());
         }
+        startCheckpointer();
+    }
+
+    private void startCheckpointer() {
+        checkpointer = new Checkpointer(bank, persistence, saveFile, CHECKPOINT_SECONDS, TimeUnit.SECONDS,
+                CHECKPOINT_COMMITS).start();
     }
 
     private void loadNow() {
+        // the bank being replaced gets its last checkpoint first, so the load sees it
+        try {
+            checkpointer.close();
+        } catch (IOException e) {
+            System.out.println("Save failed: " + e.getMessage());
+        }
         try {
             var loaded = BankServiceImpl.loadFrom(saveFile, auth, persistence);
             if (loaded != null) {
                 bank = loaded;
                 bank.setPersistence(persistence);
+                wire();
+                attachJournal();
                 System.out.println("Loaded from " + saveFile);
-            } else {
-                System.out.println("No saved file found.");
+                return;
             }
+            System.out.println("No saved file found.");
         } catch (Exception e) {
             System.out.println("Load failed: " + e.getMessage());
         }
+        startCheckpointer();
     }
 
     private void askSaveAndExit() {